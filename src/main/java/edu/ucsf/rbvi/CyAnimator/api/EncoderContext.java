@@ -0,0 +1,59 @@
+package edu.ucsf.rbvi.CyAnimator.api;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+
+import org.cytoscape.work.TaskMonitor;
+
+/**
+ * Describes a recording to a {@link FrameEncoder}.
+ */
+public interface EncoderContext {
+	/**
+	 * Returns the directory the output should be written to.
+	 *
+	 * @return the output directory
+	 */
+	public File getDirectory();
+
+	/**
+	 * Returns the number of frames per second the animation should play at.
+	 *
+	 * @return the frame rate
+	 */
+	public int getFrameRate();
+
+	/**
+	 * Returns the number of frames in the recording.
+	 *
+	 * @return the frame count
+	 */
+	public int getFrameCount();
+
+	/**
+	 * Returns the number of threads an encoder with the
+	 * {@link FrameEncoder.Capability#PARALLEL} capability may encode on.
+	 *
+	 * @return the number of threads
+	 */
+	public int getEncoderThreads();
+
+	/**
+	 * Renders a frame ahead of time, for encoders which need to look at some of
+	 * the frames before they start (to build a palette, say).  This may only be
+	 * called from {@link FrameEncoder#open}, and the image is only valid until the
+	 * next call.
+	 *
+	 * @param index the index of the frame
+	 * @return the rendered frame
+	 * @throws Exception if the frame can't be rendered
+	 */
+	public BufferedImage renderFrame(int index) throws Exception;
+
+	/**
+	 * Returns the monitor of the recording task, for reporting progress.
+	 *
+	 * @return the task monitor
+	 */
+	public TaskMonitor getTaskMonitor();
+}
@@ -0,0 +1,62 @@
+package edu.ucsf.rbvi.CyAnimator.api;
+
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ * An output format for recorded animations.  Encoders are registered as OSGi
+ * services; each one registered shows up as a video type in the CyAnimator
+ * dialog.  When an animation is recorded, the encoder is opened once and is then
+ * handed every frame, in order, as an image in memory.
+ *
+ * The service property {@link #GRAVITY} (a number) orders encoders in the list
+ * of video types; lower numbers come first.
+ */
+public interface FrameEncoder {
+	/** Service property giving the position of the encoder in the list of video types */
+	public static final String GRAVITY = "gravity";
+
+	/**
+	 * What an encoder can do.
+	 */
+	public enum Capability {
+		/** Frames are written as they arrive, rather than all being kept until the end */
+		STREAMING,
+		/** Frames are encoded on several threads (see {@link EncoderContext#getEncoderThreads()}) */
+		PARALLEL,
+		/** The frames can be read back exactly as they were rendered */
+		LOSSLESS,
+		/** The output is played back at the frame rate */
+		TIMED
+	}
+
+	/**
+	 * Returns an identifier for the encoder, which doesn't change between sessions.
+	 *
+	 * @return the identifier
+	 */
+	public String getId();
+
+	/**
+	 * Returns the name of the video type, as shown to the user.
+	 *
+	 * @return the name
+	 */
+	public String getName();
+
+	/**
+	 * Returns what the encoder can do.
+	 *
+	 * @return the capabilities
+	 */
+	public Set<Capability> getCapabilities();
+
+	/**
+	 * Starts encoding a recording.
+	 *
+	 * @param context the recording
+	 * @return where to send the frames
+	 * @throws IOException if the output can't be created
+	 */
+	public FrameSink open(EncoderContext context) throws IOException;
+}
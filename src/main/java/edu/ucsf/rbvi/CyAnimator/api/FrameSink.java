@@ -0,0 +1,33 @@
+package edu.ucsf.rbvi.CyAnimator.api;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+/**
+ * Receives the frames of one recording from a {@link FrameEncoder}.  A sink is
+ * only used by one thread at a time.
+ */
+public interface FrameSink {
+	/**
+	 * Encodes a frame.  Frames arrive in order.  The image is reused for a later
+	 * frame once this returns, so it must not be kept.
+	 *
+	 * @param index the index of the frame
+	 * @param image the frame
+	 * @throws IOException if the frame can't be written
+	 */
+	public void addFrame(int index, BufferedImage image) throws IOException;
+
+	/**
+	 * Finishes the output once every frame has been added.
+	 *
+	 * @throws IOException if the output can't be written
+	 */
+	public void close() throws IOException;
+
+	/**
+	 * Stops encoding because the recording was cancelled or failed, and releases
+	 * whatever the sink holds.  The output may be left incomplete.
+	 */
+	public void abort();
+}
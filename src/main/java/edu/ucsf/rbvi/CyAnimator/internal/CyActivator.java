@@ -17,6 +17,12 @@ import org.osgi.framework.BundleContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import edu.ucsf.rbvi.CyAnimator.api.FrameEncoder;
+import edu.ucsf.rbvi.CyAnimator.internal.model.EncoderRegistry;
+import edu.ucsf.rbvi.CyAnimator.internal.model.GifEncoder;
+import edu.ucsf.rbvi.CyAnimator.internal.model.ImageSequenceEncoder;
+import edu.ucsf.rbvi.CyAnimator.internal.model.OptimizedGifEncoder;
+import edu.ucsf.rbvi.CyAnimator.internal.model.VideoEncoder;
 import edu.ucsf.rbvi.CyAnimator.internal.tasks.CyAnimatorDialogTaskFactory;
 
 public class CyActivator extends AbstractCyActivator {
@@ -43,6 +49,25 @@ public class CyActivator extends AbstractCyActivator {
 			setStandardProperties(dialogTaskProperties, "CyAnimator", null, "1.0");
 			registerService(context, dialogTaskFactory, NetworkViewTaskFactory.class, dialogTaskProperties);
 		}
+
+		// Output formats for recordings.  Other bundles can add their own by
+		// registering a FrameEncoder service.
+		EncoderRegistry encoderRegistry = new EncoderRegistry();
+		registerService(context, encoderRegistry, EncoderRegistry.class, new Properties());
+		registerServiceListener(context, encoderRegistry, "addEncoder", "removeEncoder", FrameEncoder.class);
+
+		registerEncoder(context, new ImageSequenceEncoder(), "10.0");
+		registerEncoder(context, new GifEncoder(), "20.0");
+		registerEncoder(context, new OptimizedGifEncoder(), "25.0");
+		registerEncoder(context, new VideoEncoder(VideoEncoder.Format.MP4), "30.0");
+		registerEncoder(context, new VideoEncoder(VideoEncoder.Format.H264), "40.0");
+		registerEncoder(context, new VideoEncoder(VideoEncoder.Format.MJPEG), "50.0");
+	}
+
+	private void registerEncoder(BundleContext context, FrameEncoder encoder, String gravity) {
+		Properties props = new Properties();
+		props.setProperty(FrameEncoder.GRAVITY, gravity);
+		registerService(context, encoder, FrameEncoder.class, props);
 	}
 	
 	private void setStandardProperties(Properties p, String title, String command, String gravity) {
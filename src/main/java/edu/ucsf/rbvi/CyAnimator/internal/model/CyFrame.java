@@ -17,29 +17,31 @@ package edu.ucsf.rbvi.CyAnimator.internal.model;
 
 import java.util.*;
 import java.awt.Dimension;
-import java.awt.Graphics2D;
 import java.awt.Color;
 import java.awt.Font;
 import java.awt.image.*;
 import java.awt.Paint;
 import java.awt.Point;
-import java.io.File;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
-import javax.imageio.ImageIO;
 import javax.swing.SwingUtilities;
 
 import org.cytoscape.application.CyApplicationManager;
+import org.cytoscape.event.CyEventHelper;
 import org.cytoscape.model.CyEdge;
 import org.cytoscape.model.CyNetwork;
 import org.cytoscape.model.CyNode;
 import org.cytoscape.model.CyTable;
 import org.cytoscape.service.util.CyServiceRegistrar;
-import org.cytoscape.task.NetworkViewTaskFactory;
 import org.cytoscape.view.model.CyNetworkView;
 import org.cytoscape.view.model.View;
 import org.cytoscape.view.presentation.annotations.Annotation;
@@ -56,51 +58,29 @@ import org.cytoscape.view.presentation.property.values.LineType;
 import org.cytoscape.view.presentation.property.values.NodeShape;
 import org.cytoscape.view.vizmap.VisualMappingManager;
 import org.cytoscape.view.vizmap.VisualStyle;
-import org.cytoscape.work.FinishStatus;
-import org.cytoscape.work.ObservableTask;
-import org.cytoscape.work.SynchronousTaskManager;
-import org.cytoscape.work.TaskObserver;
-import org.cytoscape.work.TunableSetter;
-import org.cytoscape.work.util.BoundedDouble;
-import org.cytoscape.work.util.ListSingleSelection;
 
 public class CyFrame {
 
 	private String frameid = "";
-	private static final String PNG = "png";
-	private HashMap<Long, NodeShape> nodeShapeMap;
-	private HashMap<Long, double[]> nodePosMap;
-	private HashMap<Long, Color> nodeColMap;
-	private HashMap<Long, Integer> nodeOpacityMap;
-	private HashMap<Long, Color> nodeFillColMap;
-	private HashMap<Long, Integer> nodeFillOpacityMap;
-	private HashMap<Long, Double> nodeBorderWidthMap;
-	private HashMap<Long, Color> nodeBorderColorMap;
-	private HashMap<Long, Integer> nodeBorderTransMap;
-	private HashMap<Long, double[]> nodeSizeMap;
-	private HashMap<Long, String> nodeLabelMap;
-	private HashMap<Long, Color> nodeLabelColMap;
-	private HashMap<Long, Integer> nodeLabelFontSizeMap;
-	private HashMap<Long, Integer> nodeLabelTransMap;
-	private HashMap<Long, Font> nodeLabelFontMap;
-	private HashMap<Long, Double> nodeLabelWidthMap;
+	// Node and edge visual properties are kept in columns, one per property,
+	// addressed through the node and edge ElementIndex of the network
+	private static final int NODE_X = 0, NODE_Y = 1, NODE_Z = 2, NODE_HEIGHT = 3, NODE_WIDTH = 4,
+		NODE_BORDER_WIDTH = 5, NODE_LABEL_WIDTH = 6, NODE_DOUBLES = 7;
+	private static final int NODE_COLOR = 0, NODE_OPACITY = 1, NODE_FILL_COLOR = 2, NODE_FILL_OPACITY = 3,
+		NODE_BORDER_COLOR = 4, NODE_BORDER_TRANS = 5, NODE_LABEL_COLOR = 6, NODE_LABEL_FONT_SIZE = 7,
+		NODE_LABEL_TRANS = 8, NODE_INTS = 9;
+	private static final int NODE_SHAPE = 0, NODE_LABEL = 1, NODE_LABEL_FONT = 2, NODE_OBJECTS = 3;
+	private static final int EDGE_WIDTH = 0, EDGE_DOUBLES = 1;
+	private static final int EDGE_COLOR = 0, EDGE_OPACITY = 1, EDGE_STROKE_COLOR = 2, EDGE_STROKE_OPACITY = 3,
+		EDGE_LABEL_COLOR = 4, EDGE_LABEL_FONT_SIZE = 5, EDGE_LABEL_TRANS = 6, EDGE_INTS = 7;
+	private static final int EDGE_LABEL = 0, EDGE_LABEL_FONT = 1, EDGE_SOURCE_ARROW = 2, EDGE_TARGET_ARROW = 3,
+		EDGE_LINE_TYPE = 4, EDGE_OBJECTS = 5;
+
+	private FrameColumns nodeColumns;
+	private FrameColumns edgeColumns;
 	private HashMap<CyNode, CyNode> record;
 	private HashMap<CyEdge, CyEdge> recordEdge;
 
-	private HashMap<Long, Integer> edgeOpacityMap;
-	private HashMap<Long, Integer> edgeStrokeOpacityMap;
-	private HashMap<Long, Color> edgeColMap;
-	private HashMap<Long, Color> edgeStrokeColMap;
-	private HashMap<Long, Double> edgeWidthMap;
-	private HashMap<Long, String> edgeLabel;
-	private HashMap<Long, Color> edgeLabelColMap;
-	private HashMap<Long, Integer> edgeLabelFontSizeMap;
-	private HashMap<Long, Integer> edgeLabelTransMap;
-	private HashMap<Long, Font> edgeLabelFontMap;
-	private HashMap<Long, ArrowShape> edgeSourceArrowShapeMap;
-	private HashMap<Long, ArrowShape> edgeTargetArrowShapeMap;
-	private HashMap<Long, LineType> edgeLineTypeMap;
-
 	private String title = null;
 	private Paint backgroundPaint = null;
 	private double zoom = 0;
@@ -131,66 +111,72 @@ public class CyFrame {
 	private CyNetworkView networkView = null;
 	private CyNetwork currentNetwork = null;
 	private CyTable nodeTable = null, edgeTable = null;
-	private BufferedImage networkImage = null;
+	private volatile BufferedImage networkImage = null;
+	//released once the thumbnail has been captured
+	private final CountDownLatch imageCaptured = new CountDownLatch(1);
 	private Map<Long, View<CyNode>> nodeMap = null;
 	private Map<Long, View<CyEdge>> edgeMap = null;
 	private VisualStyle vizStyle = null;
 	private List<CyNode> nodeList = null;
 	private List<CyEdge> edgeList = null;
+	// nodeList and edgeList as sets, built the first time another frame diffs against us
+	// (which may happen on the thread preparing frames for playback)
+	private volatile Set<CyNode> nodeSet = null;
+	private volatile Set<CyEdge> edgeSet = null;
+	// the view this frame was last displayed on
+	private CyNetworkView displayedView = null;
+	// number of view redraws caused by the last display (and clearDisplay) of this frame
+	private int redraws = 0;
+
+	// which of the nodes and edges handleNodes/handleEdges set the properties of
+	private static final int ALL_ELEMENTS = 0, VIEW_ELEMENTS = 1, TEMPORARY_ELEMENTS = 2;
+	// the pool the stand-ins for deleted elements came from the last time we were displayed
+	private GhostElementPool ghosts = null;
 	private List<Long> nodeIdList = null;
 	private List<Long> edgeIdList = null;
 	private List<Long> annotationIdList = null;
 	private int intercount = 0;
 	private Point3D centerPoint = null;
-	private SynchronousTaskManager<?> taskManager;
 
 	private static final int IMAGE_WIDTH = 200, IMAGE_HEIGHT = 150;
 //	private DGraphView dview = null; 
 
 	/**
-	 * Creates this CyFrame by initializing and populating all of the fields.
-	 * 
-	 * @param currentNetwork
-	 */
-	public CyFrame(CyServiceRegistrar bc){
-		bundleContext = bc;
-		appManager = bundleContext.getService(CyApplicationManager.class);
-		annotationManager = bundleContext.getService(AnnotationManager.class);
-		annotationFactory = bundleContext.getService(AnnotationFactory.class);
-		taskManager = bundleContext.getService(SynchronousTaskManager.class);
-		nodeShapeMap = new HashMap<Long, NodeShape>();
-		nodePosMap = new HashMap<Long, double[]>();
-		nodeColMap = new HashMap<Long, Color>();
-		nodeFillColMap = new HashMap<Long, Color>();
-		nodeLabelMap = new HashMap<Long, String>();
-		nodeLabelColMap = new HashMap<Long, Color>();
-		nodeLabelFontSizeMap = new HashMap<Long, Integer>();
-		nodeLabelTransMap = new HashMap<Long, Integer>();
-		nodeLabelFontMap = new HashMap<Long, Font>();
-		nodeLabelWidthMap = new HashMap<Long, Double>();
-		nodeSizeMap = new HashMap<Long, double[]>();
-		nodeBorderWidthMap = new HashMap<Long, Double>();
-		nodeBorderColorMap = new HashMap<Long, Color>();
-		nodeBorderTransMap = new HashMap<Long, Integer>();
+	 * Creates an empty frame for the network and view of a key frame, for the
+	 * interpolators to fill in.  Nothing is read from the application or the
+	 * network view, so this is safe off the event dispatch thread, and the frame
+	 * stays bound to the key frame's network even if another network has been made
+	 * current since the key frame was captured.
+	 *
+	 * @param keyFrame the key frame whose network and view the frame is for
+	 */
+	CyFrame(CyFrame keyFrame){
+		bundleContext = keyFrame.bundleContext;
+		appManager = keyFrame.appManager;
+		annotationManager = keyFrame.annotationManager;
+		annotationFactory = keyFrame.annotationFactory;
+		createMaps();
+		currentNetwork = keyFrame.currentNetwork;
+		networkView = keyFrame.networkView;
+		nodeTable = keyFrame.nodeTable;
+		edgeTable = keyFrame.edgeTable;
+		nodeColumns = new FrameColumns(keyFrame.nodeColumns.getIndex(), NODE_DOUBLES, NODE_INTS, NODE_OBJECTS);
+		edgeColumns = new FrameColumns(keyFrame.edgeColumns.getIndex(), EDGE_DOUBLES, EDGE_INTS, EDGE_OBJECTS);
+		centerPoint = keyFrame.centerPoint;
+		vizStyle = keyFrame.vizStyle;
+
+		nodeIdList = new ArrayList<Long>();
+		edgeIdList = new ArrayList<Long>();
+		annotationIdList = new ArrayList<Long>();
+		nodeList = keyFrame.nodeList;
+		edgeList = keyFrame.edgeList;
+	}
+
+	private void createMaps() {
 		record = new HashMap<CyNode, CyNode>();
 		recordEdge = new HashMap<CyEdge, CyEdge>();
 		edgeMap = new HashMap<Long, View<CyEdge>>();
 		nodeMap = new HashMap<Long, View<CyNode>>();
-		nodeOpacityMap = new HashMap<Long, Integer>();
-		nodeFillOpacityMap = new HashMap<Long, Integer>();
-		edgeOpacityMap = new HashMap<Long, Integer>();
-		edgeStrokeOpacityMap = new HashMap<Long, Integer>();
-		edgeColMap = new HashMap<Long, Color>();
-		edgeStrokeColMap = new HashMap<Long, Color>();
-		edgeLabel = new HashMap<Long, String>();
-		edgeLabelColMap = new HashMap<Long, Color>();
-		edgeLabelFontSizeMap = new HashMap<Long, Integer>();
-		edgeLabelTransMap = new HashMap<Long, Integer>();
-		edgeLabelFontMap = new HashMap<Long, Font>();
-		edgeWidthMap = new HashMap<Long, Double>();
-		edgeSourceArrowShapeMap = new HashMap<Long, ArrowShape>();
-		edgeTargetArrowShapeMap = new HashMap<Long, ArrowShape>();
-		edgeLineTypeMap = new HashMap<Long, LineType>();
 		annotationList = new ArrayList<Annotation>();
 		annotationPosMap = new HashMap<Integer, Point>();
 		annotationSizeMap = new HashMap<Integer, Dimension>();
@@ -202,10 +188,25 @@ public class CyFrame {
 		annotationBorderWidthMap = new HashMap<Integer, Double>();
 		annotationTextMap = new HashMap<Integer, String>();
 		annotationShapeMap = new HashMap<Integer, String>();
+	}
+
+	/**
+	 * Creates this CyFrame by initializing and populating all of the fields.
+	 * 
+	 * @param currentNetwork
+	 */
+	public CyFrame(CyServiceRegistrar bc){
+		bundleContext = bc;
+		appManager = bundleContext.getService(CyApplicationManager.class);
+		annotationManager = bundleContext.getService(AnnotationManager.class);
+		annotationFactory = bundleContext.getService(AnnotationFactory.class);
+		createMaps();
 		this.currentNetwork = appManager.getCurrentNetwork();
 		networkView = appManager.getCurrentNetworkView();
 		nodeTable = currentNetwork.getDefaultNodeTable();
 		edgeTable = currentNetwork.getDefaultEdgeTable();
+		nodeColumns = new FrameColumns(ElementIndex.getNodeIndex(currentNetwork), NODE_DOUBLES, NODE_INTS, NODE_OBJECTS);
+		edgeColumns = new FrameColumns(ElementIndex.getEdgeIndex(currentNetwork), EDGE_DOUBLES, EDGE_INTS, EDGE_OBJECTS);
 	//	this.dview = (DGraphView)networkView;
 		this.centerPoint = new Point3D(networkView.getVisualProperty(BasicVisualLexicon.NETWORK_CENTER_X_LOCATION),
 									networkView.getVisualProperty(BasicVisualLexicon.NETWORK_CENTER_Y_LOCATION),
@@ -219,6 +220,7 @@ public class CyFrame {
 		for (View<CyEdge> ev: networkView.getEdgeViews()) {
 			if (ev.getModel() == null) continue;
 			long edgeid = ev.getModel().getSUID();//edgeTable.getRow(ev.getModel().getSUID()).get(CyNetwork.NAME, String.class);
+			if (GhostElementPool.isGhost(edgeid)) continue;
 			edgeMap.put(edgeid, ev);
 			edgeIdList.add(edgeid);
 		}
@@ -226,6 +228,7 @@ public class CyFrame {
 		// Initialize our edge view maps
 		for (View<CyNode> nv: networkView.getNodeViews()) {
 			long nodeid = nv.getModel().getSUID();//nodeTable.getRow(nv.getModel().getSUID()).get(CyNetwork.NAME, String.class);
+			if (GhostElementPool.isGhost(nodeid)) continue;
 			nodeMap.put(nodeid, nv);
 			nodeIdList.add(nodeid);
 		}
@@ -254,11 +257,11 @@ public class CyFrame {
 		VisualMappingManager visualManager = bundleContext.getService(VisualMappingManager.class);
 		vizStyle = visualManager.getCurrentVisualStyle();
 
-		// Get our initial nodeList
-		nodeList = currentNetwork.getNodeList();
+		// Get our initial nodeList, leaving out the stand-ins for deleted nodes if we're playing
+		nodeList = GhostElementPool.removeGhosts(currentNetwork.getNodeList());
 
 		// Get our initial edgeList
-		edgeList = currentNetwork.getEdgeList();
+		edgeList = GhostElementPool.removeGhosts(currentNetwork.getEdgeList());
 	}
 
 	/*
@@ -286,54 +289,54 @@ public class CyFrame {
 
 			// stores node shape type
 			NodeShape shape = nodeView.getVisualProperty(BasicVisualLexicon.NODE_SHAPE);
-			nodeShapeMap.put(nodeName, shape);
+			setNodeShape(nodeName, shape);
 
 			//stores the x and y position of the node
 			double[] xy = new double[3];
 			xy[0] = nodeView.getVisualProperty(BasicVisualLexicon.NODE_X_LOCATION);
 			xy[1] = nodeView.getVisualProperty(BasicVisualLexicon.NODE_Y_LOCATION);
 			xy[2] = nodeView.getVisualProperty(BasicVisualLexicon.NODE_Z_LOCATION);
-			nodePosMap.put(nodeName, xy);
+			setNodePosition(nodeName, xy);
 		
 			double height = nodeView.getVisualProperty(BasicVisualLexicon.NODE_HEIGHT);
 			double width = nodeView.getVisualProperty(BasicVisualLexicon.NODE_WIDTH);
 			double[] size = {height, width};
-			nodeSizeMap.put(nodeName, size);
+			setNodeSize(nodeName, size);
 		
 			double borderWidth = nodeView.getVisualProperty(BasicVisualLexicon.NODE_BORDER_WIDTH);
-			nodeBorderWidthMap.put(nodeName, borderWidth);
+			setNodeBorderWidth(nodeName, borderWidth);
 			Color borderColor = (Color) nodeView.getVisualProperty(BasicVisualLexicon.NODE_BORDER_PAINT);
-			nodeBorderColorMap.put(nodeName, borderColor);
+			setNodeBorderColor(nodeName, borderColor);
 			Integer borderTrans = nodeView.getVisualProperty(BasicVisualLexicon.NODE_BORDER_TRANSPARENCY);
-			nodeBorderTransMap.put(nodeName, borderTrans);
+			setNodeBorderTrans(nodeName, borderTrans);
 		
 			//grab color and opacity
 			Color nodeColor = (Color)nodeView.getVisualProperty(BasicVisualLexicon.NODE_PAINT);
 			Integer trans = nodeColor.getAlpha();
 			//store in respective hashmap
-			nodeColMap.put(nodeName, nodeColor);
-			nodeOpacityMap.put(nodeName, trans);
+			setNodeColor(nodeName, nodeColor);
+			setNodeOpacity(nodeName, trans);
 
 			//grab color and opacity
 			Color nodeFillColor = (Color)nodeView.getVisualProperty(BasicVisualLexicon.NODE_FILL_COLOR);
 			Integer transFill = nodeView.getVisualProperty(BasicVisualLexicon.NODE_TRANSPARENCY);
 			//store in respective hashmap
-			nodeFillColMap.put(nodeName, nodeFillColor);
-			nodeFillOpacityMap.put(nodeName, transFill);
+			setNodeFillColor(nodeName, nodeFillColor);
+			setNodeFillOpacity(nodeName, transFill);
 
 			// Grab the label information
 			String label = nodeView.getVisualProperty(BasicVisualLexicon.NODE_LABEL);
-			nodeLabelMap.put(nodeName, label);
+			setNodeLabel(nodeName, label);
 			Color labelColor = (Color)nodeView.getVisualProperty(BasicVisualLexicon.NODE_LABEL_COLOR);
-			nodeLabelColMap.put(nodeName, labelColor);
+			setNodeLabelColor(nodeName, labelColor);
 			Integer labelFontSize = nodeView.getVisualProperty(BasicVisualLexicon.NODE_LABEL_FONT_SIZE);
-			nodeLabelFontSizeMap.put(nodeName, labelFontSize);
+			setNodeLabelFontSize(nodeName, labelFontSize);
 			Integer labelTrans = nodeView.getVisualProperty(BasicVisualLexicon.NODE_LABEL_TRANSPARENCY);
-			nodeLabelTransMap.put(nodeName, labelTrans);
+			setNodeLabelTrans(nodeName, labelTrans);
 			Font font = nodeView.getVisualProperty(BasicVisualLexicon.NODE_LABEL_FONT_FACE);
-			nodeLabelFontMap.put(nodeName, font);
+			setNodeLabelFont(nodeName, font);
 			Double labelWidth = nodeView.getVisualProperty(BasicVisualLexicon.NODE_LABEL_WIDTH);
-			nodeLabelWidthMap.put(nodeName, labelWidth);
+			setNodeLabelWidth(nodeName, labelWidth);
 
 			centerPoint = new Point3D(networkView.getVisualProperty(BasicVisualLexicon.NETWORK_CENTER_X_LOCATION),
 			networkView.getVisualProperty(BasicVisualLexicon.NETWORK_CENTER_Y_LOCATION),
@@ -352,37 +355,37 @@ public class CyFrame {
 			Color p = (Color)edgeView.getVisualProperty(BasicVisualLexicon.EDGE_PAINT);
 			Integer trans = p.getAlpha();
 			//store in respective hashmap
-			edgeColMap.put(edgeName, p);
-			edgeOpacityMap.put(edgeName, trans);
+			setEdgeColor(edgeName, p);
+			setEdgeOpacity(edgeName, trans);
 			double edgeWidth = edgeView.getVisualProperty(BasicVisualLexicon.EDGE_WIDTH);
-			edgeWidthMap.put(edgeName, edgeWidth);
+			setEdgeWidth(edgeName, edgeWidth);
 
 			//grab color and opacity
 			Color pStroke = (Color)edgeView.getVisualProperty(BasicVisualLexicon.EDGE_STROKE_UNSELECTED_PAINT);
 			Integer transStroke = edgeView.getVisualProperty(BasicVisualLexicon.EDGE_TRANSPARENCY);
 			//store in respective hashmap
-			edgeStrokeColMap.put(edgeName, pStroke);
-			edgeStrokeOpacityMap.put(edgeName, transStroke);
+			setEdgeStrokeColor(edgeName, pStroke);
+			setEdgeStrokeOpacity(edgeName, transStroke);
 
 			// Grab the label information
 			String label = edgeView.getVisualProperty(BasicVisualLexicon.EDGE_LABEL);
-			edgeLabel.put(edgeName, label);
+			setEdgeLabel(edgeName, label);
 			Color labelColor = (Color)edgeView.getVisualProperty(BasicVisualLexicon.EDGE_LABEL_COLOR);
-			edgeLabelColMap.put(edgeName, labelColor);
+			setEdgeLabelColor(edgeName, labelColor);
 			Integer labelFontSize = edgeView.getVisualProperty(BasicVisualLexicon.EDGE_LABEL_FONT_SIZE);
 			Integer labelTransMap = edgeView.getVisualProperty(BasicVisualLexicon.EDGE_LABEL_TRANSPARENCY);
-			edgeLabelFontSizeMap.put(edgeName, labelFontSize);
-			edgeLabelTransMap.put(edgeName, labelTransMap);
+			setEdgeLabelFontSize(edgeName, labelFontSize);
+			setEdgeLabelTrans(edgeName, labelTransMap);
 			Font font = edgeView.getVisualProperty(BasicVisualLexicon.EDGE_LABEL_FONT_FACE);
-			edgeLabelFontMap.put(edgeName, font);
+			setEdgeLabelFont(edgeName, font);
 
 			// Grab the shape information
 			ArrowShape source = edgeView.getVisualProperty(BasicVisualLexicon.EDGE_SOURCE_ARROW_SHAPE);
-			edgeSourceArrowShapeMap.put(edgeName, source);
+			setEdgeSourceArrowShape(edgeName, source);
 			ArrowShape target = edgeView.getVisualProperty(BasicVisualLexicon.EDGE_TARGET_ARROW_SHAPE);
-			edgeTargetArrowShapeMap.put(edgeName, target);
+			setEdgeTargetArrowShape(edgeName, target);
 			LineType line = edgeView.getVisualProperty(BasicVisualLexicon.EDGE_LINE_TYPE);
-			edgeLineTypeMap.put(edgeName, line);
+			setEdgeLineType(edgeName, line);
 		}
 
 		// Handle the annotations.  Note that we need to be really careful
@@ -436,55 +439,20 @@ public class CyFrame {
 
 	/**
 	 * Captures and stores a thumbnail image from the current CyNetworkView for
-	 * this frame.
-	 * @throws IOException throws exception if cannot create or read temporary file
+	 * this frame.  The view is drawn straight into the thumbnail, without
+	 * exporting it to a file first.
+	 * @throws IOException never; kept for compatibility
 	 */
 	public void captureImage() throws IOException {
-	
-	/*	double scale = .35;
-		double wscale = .25; */
-
 		CyNetworkView view = appManager.getCurrentNetworkView();
-	
-		NetworkViewTaskFactory exportImageTaskFactory = bundleContext.getService(NetworkViewTaskFactory.class, "(&(commandNamespace=view)(command=export))");
-		if (exportImageTaskFactory != null && exportImageTaskFactory.isReady(view)) {
-			TunableSetter tunableSetter = bundleContext.getService(TunableSetter.class);
-			Map<String, Object> tunables = new HashMap<String, Object>();
-			List<String> fileTypeList = new ArrayList<String>();
-			fileTypeList.add(PNG);
-			ListSingleSelection<String> fileType = new ListSingleSelection<String>(fileTypeList);
-			fileType.setSelectedValue(PNG);
-			tunables.put("options", fileType);
-			final File temporaryImageFile = File.createTempFile("temporaryCytoscapeImage", ".png");
-			tunables.put("OutputFile", temporaryImageFile);
-			taskManager.execute(tunableSetter.createTaskIterator(
-					exportImageTaskFactory.createTaskIterator(view), tunables),
-					new TaskObserver() {
-					
-						public void taskFinished(ObservableTask arg0) {
-							// TODO Auto-generated method stub
-						
-						}
-					
-						public void allFinished(FinishStatus arg0) {
-							BufferedImage image = null, scaledImage = null;
-							try {
-								image = ImageIO.read(temporaryImageFile);
-								int type = image.getType() == 0? BufferedImage.TYPE_INT_ARGB : image.getType();
-								scaledImage = new BufferedImage(IMAGE_WIDTH, IMAGE_HEIGHT, type);
-								Graphics2D g = scaledImage.createGraphics();
-								g.drawImage(image, 0, 0, IMAGE_WIDTH, IMAGE_HEIGHT, null);
-								g.dispose();
-							} catch (IOException e) {
-								// TODO Auto-generated catch block
-								e.printStackTrace();
-							}
-							networkImage = scaledImage;
-						//	temporaryImageFile.delete();
-						}
-					});
+		if (view == null)
+			view = networkView;
+		try {
+			networkImage = ThumbnailRenderer.render(bundleContext, view, IMAGE_WIDTH, IMAGE_HEIGHT);
+		} finally {
+			//anyone waiting for the image gives up straight away if it failed
+			imageCaptured.countDown();
 		}
-
 	}
 
 	/*
@@ -492,6 +460,43 @@ public class CyFrame {
 	 * based upon the visual data stored as part of the CyFrame.  
 	 */
 	public void display() {
+		display(null);
+	}
+
+	/**
+	 * Displays this frame when the given frame is the one currently showing.  Node
+	 * and edge visual properties which have the same value in both frames are left
+	 * alone, so stepping between two frames only touches what actually changes.
+	 *
+	 * @param shown the frame currently displayed, or null to set every visual property
+	 */
+	public void display(final CyFrame shown) {
+		display(shown, null);
+	}
+
+	/**
+	 * Displays this frame, taking the stand-ins for nodes and edges which have been
+	 * deleted from the network from a pool rather than adding them for this frame only.
+	 * clearDisplay() then leaves them in place for the next frame.
+	 *
+	 * @param shown the frame currently displayed, or null to set every visual property
+	 * @param ghostPool the pool of ghost elements, or null to add temporary elements
+	 */
+	void display(final CyFrame shown, final GhostElementPool ghostPool) {
+		display(shown, ghostPool, null);
+	}
+
+	/**
+	 * Displays this frame using a batch of node and edge property changes worked out
+	 * beforehand by prepare().  If the batch doesn't fit what is showing now (it was
+	 * worked out against another frame, or for another view) it is ignored and the
+	 * properties are worked out here instead.
+	 *
+	 * @param shown the frame currently displayed, or null to set every visual property
+	 * @param ghostPool the pool of ghost elements, or null to add temporary elements
+	 * @param prepared the changes for the nodes and edges of the view, or null
+	 */
+	void display(final CyFrame shown, final GhostElementPool ghostPool, final PropertyBatch prepared) {
 		VisualMappingManager visualManager = (VisualMappingManager) bundleContext.getService(VisualMappingManager.class);
 		visualManager.setVisualStyle(vizStyle, networkView);
 
@@ -500,23 +505,69 @@ public class CyFrame {
 		final CyNetworkView currentView = appManager.getCurrentNetworkView();
 
 		// Make sure everything is on the EDT
-		try {
-		SwingUtilities.invokeAndWait( new Runnable () {
+		runOnEDT( new Runnable () {
 			public void run() {
+				redraws = 0;
+
 				handleMissingEdges(currentView);
 				handleMissingNodes(currentView);
-
-				handleNodes(currentView);
-				handleEdges(currentView);
+				ghosts = ghostPool != null && ghostPool.getView() == currentView ? ghostPool : null;
+				addTemporaryElements(currentView);
+
+				PropertyBatch batch = new PropertyBatch(shown, currentView);
+				if (prepared != null && prepared.getNetworkView() == currentView &&
+				    (prepared.getBase() == null || 
+				     (prepared.getBase() == shown && shown.displayedView == currentView))) {
+					// Only the temporary elements are left to do
+					prepared.apply();
+					handleNodes(currentView, shown, batch, TEMPORARY_ELEMENTS);
+					handleEdges(currentView, shown, batch, TEMPORARY_ELEMENTS);
+				} else {
+					handleNodes(currentView, shown, batch, ALL_ELEMENTS);
+					handleEdges(currentView, shown, batch, ALL_ELEMENTS);
+				}
+				batch.apply();
+				displayedView = currentView;
 
 				handleNetwork(currentView);
 		
 				handleMissingAnnotations(currentView);
 				handleAnnotations(currentView);
 
-				currentView.updateView();
+				updateView(currentView);
 			}
 		} );
+	}
+
+	/**
+	 * Works out the visual property changes for the nodes and edges of this frame
+	 * which have a view of their own, assuming the previous frame will be showing
+	 * when they are applied.  This neither changes nor reads the network view (the
+	 * node and edge views are only looked up when the batch is applied), so it can
+	 * be done ahead of time on any thread; the batch is then handed to display().
+	 *
+	 * @param previous the frame that will be showing when this one is displayed, or
+	 * null to set every property
+	 * @param view the network view this frame will be displayed on
+	 * @return the batch of changes
+	 */
+	PropertyBatch prepare(CyFrame previous, CyNetworkView view) {
+		PropertyBatch batch = new PropertyBatch(previous, view);
+		handleNodes(view, previous, batch, VIEW_ELEMENTS);
+		handleEdges(view, previous, batch, VIEW_ELEMENTS);
+		return batch;
+	}
+
+	/**
+	 * Runs something on the event dispatch thread and waits for it.
+	 */
+	private static void runOnEDT(Runnable runnable) {
+		if (SwingUtilities.isEventDispatchThread()) {
+			runnable.run();
+			return;
+		}
+		try {
+			SwingUtilities.invokeAndWait(runnable);
 		} catch (Exception e) {}
 	}
 
@@ -526,6 +577,10 @@ public class CyFrame {
 	 *
 	 */
    public void clearDisplay(){
+	 // Ghosts belong to their pool, which removes them when it's done with them
+	 if (ghosts != null)
+	   return;
+
 	 final Collection<CyEdge> removeAddedEdges = new ArrayList<CyEdge>();
 	 final Collection<Long> removeAddedEdgesKeys = new ArrayList<Long>();
 	 for (CyEdge e: recordEdge.values() ){
@@ -540,8 +595,11 @@ public class CyFrame {
 	   removeAddedKeys.add(n.getSUID());
 	 }
 
-		try {
-		SwingUtilities.invokeAndWait( new Runnable () {
+		// Nothing was added, so there's nothing to remove or redraw
+		if (removeAddedEdges.isEmpty() && removeAddedNodes.isEmpty())
+			return;
+
+		runOnEDT( new Runnable () {
 			public void run() {
 	 			CyNetwork network = appManager.getCurrentNetworkView().getModel();
 				network.removeEdges(removeAddedEdges);
@@ -549,10 +607,9 @@ public class CyFrame {
 
 	 			network.removeNodes(removeAddedNodes);
 	 			network.getDefaultNodeTable().deleteRows(removeAddedKeys);
-	 			appManager.getCurrentNetworkView().updateView();
+	 			updateView(appManager.getCurrentNetworkView());
 			}
 		} );
-		} catch(Exception e) {}
   }
 
 	private void handleMissingNodes(final CyNetworkView currentView) {
@@ -574,7 +631,6 @@ public class CyFrame {
 				nodeView.clearValueLock(BasicVisualLexicon.NODE_VISIBLE);
 			}
 			nodeView.setVisualProperty(BasicVisualLexicon.NODE_VISIBLE, false);
-			currentView.updateView();
 		}
 	}
 
@@ -596,10 +652,80 @@ public class CyFrame {
 				edgeView.clearValueLock(BasicVisualLexicon.EDGE_VISIBLE);
 			}
 			edgeView.setVisualProperty(BasicVisualLexicon.EDGE_VISIBLE, false);
-			currentView.updateView();
 		}
 	}
 
+	/**
+	 * Adds temporary nodes and edges to the network for the elements of this frame
+	 * which have been removed from the current network, all in one go.  Their views
+	 * are created once the network events have been flushed, rather than by redrawing
+	 * the view after every element.
+	 */
+	private void addTemporaryElements(final CyNetworkView currentView) {
+		record.clear();
+		recordEdge.clear();
+
+		CyNetwork network = currentView.getModel();
+		for (CyNode node : nodeList) {
+			if (currentView.getNodeView(node) == null) {
+				// Add temporary node to network for viewing the node which is removed from current network
+				record.put(node, ghosts != null ? ghosts.getNode(node) : network.addNode());
+			}
+		}
+
+		for (CyEdge edge: getEdgeList()) {
+			if (currentView.getEdgeView(edge) != null)
+				continue;
+
+			// Add temporary edge to network for viewing the edge which is removed from current network
+			CyNode source, target;
+			if (record.containsKey(edge.getSource()) && nodeList.contains(edge.getTarget()) && !record.containsKey(edge.getTarget())) {
+				source = record.get(edge.getSource());
+				target = edge.getTarget();
+			} else if (nodeList.contains(edge.getSource()) && !record.containsKey(edge.getSource()) && 
+								record.containsKey(edge.getTarget())) {
+				source = edge.getSource();
+				target = record.get(edge.getTarget());
+			} else if (record.containsKey(edge.getSource()) && record.containsKey(edge.getTarget())) {
+				source = record.get(edge.getSource());
+				target = record.get(edge.getTarget());
+			} else {
+				continue;
+			}
+			if (ghosts != null)
+				recordEdge.put(edge, ghosts.getEdge(edge, source, target));
+			else
+				recordEdge.put(edge, network.addEdge(source, target, true));
+		}
+
+		// The view only picks up the new elements once the events are delivered
+		if (ghosts != null) {
+			ghosts.flush();
+		} else if (!record.isEmpty() || !recordEdge.isEmpty()) {
+			CyEventHelper eventHelper = (CyEventHelper) bundleContext.getService(CyEventHelper.class);
+			eventHelper.flushPayloadEvents();
+		}
+	}
+
+	/**
+	 * Redraws the view, keeping count of how often we do it.
+	 */
+	private void updateView(CyNetworkView view) {
+		view.updateView();
+		redraws++;
+	}
+
+	/**
+	 * Returns the number of times the network view was redrawn for the last
+	 * display() and clearDisplay() of this frame.  A frame normally costs a single
+	 * redraw, or two if temporary nodes or edges had to be added and removed.
+	 *
+	 * @return the number of redraws
+	 */
+	public int getRedrawCount() {
+		return redraws;
+	}
+
 	private void handleMissingAnnotations(final CyNetworkView currentView) {
 		final List<Annotation> currAnnotationList = annotationManager.getAnnotations(networkView);
 
@@ -682,209 +808,218 @@ public class CyFrame {
 		}
 	}
 
-	private void handleNodes(final CyNetworkView currentView) {
+	private void handleNodes(final CyNetworkView currentView, final CyFrame shown,
+	                         final PropertyBatch batch, final int elements) {
 		for (CyNode node : nodeList) {
-			View<CyNode> nodeView = currentView.getNodeView(node);
-			if (nodeView == null) {
-				// Add temporary node to network for viewing the node which is removed from current network
-				CyNode artNode = currentView.getModel().addNode();
-				record.put(node, artNode);
-				currentView.updateView();
-				nodeView = currentView.getNodeView(artNode);
+			// The view of the node, or the node itself when we're working ahead and
+			// mustn't read the view: the batch finds its view when it is applied,
+			// and skips it if it has none, which the temporary elements then cover
+			Object nodeView = node;
+			boolean temporary = false;
+			if (elements != VIEW_ELEMENTS) {
+				View<CyNode> view = currentView.getNodeView(node);
+				temporary = view == null;
+				if (!temporary && elements == TEMPORARY_ELEMENTS)
+					continue;
+				if (temporary) {
+					CyNode artNode = record.get(node);
+					if (artNode == null || (view = currentView.getNodeView(artNode)) == null)
+						continue;
+				}
+				nodeView = view;
 			}
 		
 			long nodeName = node.getSUID();//curNodeTable.getRow(node.getSUID()).get(CyNetwork.NAME, String.class);
-		
-			double[] xy = nodePosMap.get(nodeName);
-			Color p = nodeColMap.get(nodeName), pFill = nodeFillColMap.get(nodeName);
-			Integer trans = nodeOpacityMap.get(nodeName), transFill = nodeFillOpacityMap.get(nodeName);
-		
-			if (nodeView.isValueLocked(BasicVisualLexicon.NODE_VISIBLE)) {
-				nodeView.clearValueLock(BasicVisualLexicon.NODE_VISIBLE);
-			}
-			nodeView.setVisualProperty(BasicVisualLexicon.NODE_VISIBLE, true);
-			if (nodeView.isValueLocked(BasicVisualLexicon.NODE_SHAPE)) {
-				nodeView.clearValueLock(BasicVisualLexicon.NODE_SHAPE);
-			}
-			nodeView.setVisualProperty(BasicVisualLexicon.NODE_SHAPE, nodeShapeMap.get(nodeName));
-			if (nodeView.isValueLocked(BasicVisualLexicon.NODE_X_LOCATION)) {
-				nodeView.clearValueLock(BasicVisualLexicon.NODE_X_LOCATION);
-			}
-			nodeView.setVisualProperty(BasicVisualLexicon.NODE_X_LOCATION, xy[0]);
-			if (nodeView.isValueLocked(BasicVisualLexicon.NODE_Y_LOCATION)) {
-				nodeView.clearValueLock(BasicVisualLexicon.NODE_Y_LOCATION);
-			}
-			nodeView.setVisualProperty(BasicVisualLexicon.NODE_Y_LOCATION, xy[1]);
-			if (nodeView.isValueLocked(BasicVisualLexicon.NODE_Z_LOCATION)) {
-				nodeView.clearValueLock(BasicVisualLexicon.NODE_Z_LOCATION);
+
+			// The columns of the frame that is showing right now, if that frame left this
+			// node's view as we would, otherwise null so that everything gets set
+			FrameColumns prev = null;
+			if (!temporary && shown != null) {
+				if (elements == VIEW_ELEMENTS ? shown.includesNode(node) : shown.showedNode(node, currentView))
+					prev = shown.nodeColumns;
 			}
-			nodeView.setVisualProperty(BasicVisualLexicon.NODE_Z_LOCATION, xy[2]);
-		
-			double[] size = nodeSizeMap.get(nodeName);
 		
-			if (nodeView.isValueLocked(BasicVisualLexicon.NODE_HEIGHT)) {
-				nodeView.clearValueLock(BasicVisualLexicon.NODE_HEIGHT);
-			}
-			nodeView.setVisualProperty(BasicVisualLexicon.NODE_HEIGHT, size[0]);
-			if (nodeView.isValueLocked(BasicVisualLexicon.NODE_WIDTH)) {
-				nodeView.clearValueLock(BasicVisualLexicon.NODE_WIDTH);
-			}
-			nodeView.setVisualProperty(BasicVisualLexicon.NODE_WIDTH, size[1]);
+			batch.set(nodeView, BasicVisualLexicon.NODE_VISIBLE, true);
+			if (nodeColumns.objectChanged(prev, NODE_SHAPE, nodeName))
+				batch.set(nodeView, BasicVisualLexicon.NODE_SHAPE, nodeColumns.getObject(NODE_SHAPE, nodeName));
+			if (nodeColumns.doubleChanged(prev, NODE_X, nodeName))
+				batch.set(nodeView, BasicVisualLexicon.NODE_X_LOCATION, nodeColumns.getDouble(NODE_X, nodeName));
+			if (nodeColumns.doubleChanged(prev, NODE_Y, nodeName))
+				batch.set(nodeView, BasicVisualLexicon.NODE_Y_LOCATION, nodeColumns.getDouble(NODE_Y, nodeName));
+			if (nodeColumns.doubleChanged(prev, NODE_Z, nodeName))
+				batch.set(nodeView, BasicVisualLexicon.NODE_Z_LOCATION, nodeColumns.getDouble(NODE_Z, nodeName));
+			if (nodeColumns.doubleChanged(prev, NODE_HEIGHT, nodeName))
+				batch.set(nodeView, BasicVisualLexicon.NODE_HEIGHT, nodeColumns.getDouble(NODE_HEIGHT, nodeName));
+			if (nodeColumns.doubleChanged(prev, NODE_WIDTH, nodeName))
+				batch.set(nodeView, BasicVisualLexicon.NODE_WIDTH, nodeColumns.getDouble(NODE_WIDTH, nodeName));
 		
-			if (nodeView.isValueLocked(BasicVisualLexicon.NODE_BORDER_WIDTH)) {
-				nodeView.clearValueLock(BasicVisualLexicon.NODE_BORDER_WIDTH);
-			}
-			nodeView.setVisualProperty(BasicVisualLexicon.NODE_BORDER_WIDTH, nodeBorderWidthMap.get(nodeName));
-			if (nodeView.isValueLocked(BasicVisualLexicon.NODE_BORDER_PAINT)) {
-				nodeView.clearValueLock(BasicVisualLexicon.NODE_BORDER_PAINT);
-			}
-			nodeView.setVisualProperty(BasicVisualLexicon.NODE_BORDER_PAINT, nodeBorderColorMap.get(nodeName));
-			if (nodeView.isValueLocked(BasicVisualLexicon.NODE_BORDER_TRANSPARENCY)) {
-				nodeView.clearValueLock(BasicVisualLexicon.NODE_BORDER_TRANSPARENCY);
-			}
-			nodeView.setVisualProperty(BasicVisualLexicon.NODE_BORDER_TRANSPARENCY, nodeBorderTransMap.get(nodeName));
+			if (nodeColumns.doubleChanged(prev, NODE_BORDER_WIDTH, nodeName))
+				batch.set(nodeView, BasicVisualLexicon.NODE_BORDER_WIDTH, nodeColumns.getDouble(NODE_BORDER_WIDTH, nodeName));
+			if (nodeColumns.intChanged(prev, NODE_BORDER_COLOR, nodeName))
+				batch.set(nodeView, BasicVisualLexicon.NODE_BORDER_PAINT, nodeColumns.getColor(NODE_BORDER_COLOR, nodeName));
+			if (nodeColumns.intChanged(prev, NODE_BORDER_TRANS, nodeName))
+				batch.set(nodeView, BasicVisualLexicon.NODE_BORDER_TRANSPARENCY, nodeColumns.getInt(NODE_BORDER_TRANS, nodeName));
 		
-			if (nodeView.isValueLocked(BasicVisualLexicon.NODE_PAINT)) {
-				nodeView.clearValueLock(BasicVisualLexicon.NODE_PAINT);
+			// The paints combine the color with its opacity
+			if (nodeColumns.intChanged(prev, NODE_COLOR, nodeName) || nodeColumns.intChanged(prev, NODE_OPACITY, nodeName)) {
+				Color p = nodeColumns.getColor(NODE_COLOR, nodeName);
+				Integer trans = nodeColumns.getInt(NODE_OPACITY, nodeName);
+				if (p != null)
+					batch.set(nodeView, BasicVisualLexicon.NODE_PAINT, new Color(p.getRed(), p.getGreen(), p.getBlue(), trans));
+				else
+					batch.clearLock(nodeView, BasicVisualLexicon.NODE_PAINT);
 			}
-			if (p != null) {
-				nodeView.setVisualProperty(BasicVisualLexicon.NODE_PAINT, new Color(p.getRed(), p.getGreen(), p.getBlue(), trans));
-			}
-			if (nodeView.isValueLocked(BasicVisualLexicon.NODE_FILL_COLOR)) {
-				nodeView.clearValueLock(BasicVisualLexicon.NODE_FILL_COLOR);
-			}
-			if (pFill != null) {
-				nodeView.setVisualProperty(BasicVisualLexicon.NODE_FILL_COLOR, new Color(pFill.getRed(), 
-				                           pFill.getGreen(), pFill.getBlue(), transFill));
+			if (nodeColumns.intChanged(prev, NODE_FILL_COLOR, nodeName) || nodeColumns.intChanged(prev, NODE_FILL_OPACITY, nodeName)) {
+				Color pFill = nodeColumns.getColor(NODE_FILL_COLOR, nodeName);
+				Integer transFill = nodeColumns.getInt(NODE_FILL_OPACITY, nodeName);
+				if (pFill != null)
+					batch.set(nodeView, BasicVisualLexicon.NODE_FILL_COLOR, new Color(pFill.getRed(), 
+					          pFill.getGreen(), pFill.getBlue(), transFill));
+				else
+					batch.clearLock(nodeView, BasicVisualLexicon.NODE_FILL_COLOR);
 			}
 		
-			if (nodeView.isValueLocked(BasicVisualLexicon.NODE_LABEL)) {
-				nodeView.clearValueLock(BasicVisualLexicon.NODE_LABEL);
-			}
-			nodeView.setVisualProperty(BasicVisualLexicon.NODE_LABEL, nodeLabelMap.get(nodeName));
-			Color labelColor = nodeLabelColMap.get(nodeName);
-			if (nodeView.isValueLocked(BasicVisualLexicon.NODE_LABEL_COLOR)) {
-				nodeView.clearValueLock(BasicVisualLexicon.NODE_LABEL_COLOR);
+			if (nodeColumns.objectChanged(prev, NODE_LABEL, nodeName))
+				batch.set(nodeView, BasicVisualLexicon.NODE_LABEL, nodeColumns.getObject(NODE_LABEL, nodeName));
+			if (nodeColumns.intChanged(prev, NODE_LABEL_COLOR, nodeName)) {
+				Color labelColor = nodeColumns.getColor(NODE_LABEL_COLOR, nodeName);
+				batch.set(nodeView, BasicVisualLexicon.NODE_LABEL_COLOR,
+				          new Color(labelColor.getRed(), labelColor.getGreen(), labelColor.getBlue()));
 			}
-			nodeView.setVisualProperty(BasicVisualLexicon.NODE_LABEL_COLOR,
-			                           new Color(labelColor.getRed(),
-			                           labelColor.getGreen(), labelColor.getBlue()));
-			if (nodeView.isValueLocked(BasicVisualLexicon.NODE_TRANSPARENCY)) {
-				nodeView.clearValueLock(BasicVisualLexicon.NODE_TRANSPARENCY);
-			}
-			nodeView.setVisualProperty(BasicVisualLexicon.NODE_TRANSPARENCY, nodeFillOpacityMap.get(nodeName));
-			if (nodeView.isValueLocked(BasicVisualLexicon.NODE_LABEL_FONT_SIZE)) {
-				nodeView.clearValueLock(BasicVisualLexicon.NODE_LABEL_FONT_SIZE);
-			}
-			nodeView.setVisualProperty(BasicVisualLexicon.NODE_LABEL_FONT_SIZE, nodeLabelFontSizeMap.get(nodeName));
-			if (nodeView.isValueLocked(BasicVisualLexicon.NODE_LABEL_TRANSPARENCY)) {
-				nodeView.clearValueLock(BasicVisualLexicon.NODE_LABEL_TRANSPARENCY);
-			}
-			nodeView.setVisualProperty(BasicVisualLexicon.NODE_LABEL_TRANSPARENCY, nodeLabelTransMap.get(nodeName));
-			if (nodeView.isValueLocked(BasicVisualLexicon.NODE_LABEL_FONT_FACE)) {
-				nodeView.clearValueLock(BasicVisualLexicon.NODE_LABEL_FONT_FACE);
-			}
-			nodeView.setVisualProperty(BasicVisualLexicon.NODE_LABEL_FONT_FACE, nodeLabelFontMap.get(nodeName));
-			if (nodeView.isValueLocked(BasicVisualLexicon.NODE_LABEL_WIDTH)) {
-				nodeView.clearValueLock(BasicVisualLexicon.NODE_LABEL_WIDTH);
-			}
-			nodeView.setVisualProperty(BasicVisualLexicon.NODE_LABEL_WIDTH, nodeLabelWidthMap.get(nodeName));
+			if (nodeColumns.intChanged(prev, NODE_FILL_OPACITY, nodeName))
+				batch.set(nodeView, BasicVisualLexicon.NODE_TRANSPARENCY, nodeColumns.getInt(NODE_FILL_OPACITY, nodeName));
+			if (nodeColumns.intChanged(prev, NODE_LABEL_FONT_SIZE, nodeName))
+				batch.set(nodeView, BasicVisualLexicon.NODE_LABEL_FONT_SIZE, nodeColumns.getInt(NODE_LABEL_FONT_SIZE, nodeName));
+			if (nodeColumns.intChanged(prev, NODE_LABEL_TRANS, nodeName))
+				batch.set(nodeView, BasicVisualLexicon.NODE_LABEL_TRANSPARENCY, nodeColumns.getInt(NODE_LABEL_TRANS, nodeName));
+			if (nodeColumns.objectChanged(prev, NODE_LABEL_FONT, nodeName))
+				batch.set(nodeView, BasicVisualLexicon.NODE_LABEL_FONT_FACE, nodeColumns.getObject(NODE_LABEL_FONT, nodeName));
+			if (nodeColumns.doubleChanged(prev, NODE_LABEL_WIDTH, nodeName))
+				batch.set(nodeView, BasicVisualLexicon.NODE_LABEL_WIDTH, nodeColumns.getDouble(NODE_LABEL_WIDTH, nodeName));
 		}
 	}
 
-	private void handleEdges(final CyNetworkView currentView) {
+	private void handleEdges(final CyNetworkView currentView, final CyFrame shown,
+	                         final PropertyBatch batch, final int elements) {
 		for(CyEdge edge: getEdgeList()) {
 
-			View<CyEdge> edgeView = currentView.getEdgeView(edge);
-			if (edgeView == null) {
-				// Add temporary edge to network for viewing the edge which is removed from current network
-				CyEdge artEdge = null;
-				if (record.containsKey(edge.getSource()) && nodeList.contains(edge.getTarget()) && !record.containsKey(edge.getTarget())) {
-					artEdge = currentView.getModel().addEdge(record.get(edge.getSource()), edge.getTarget(), true);
-				} else if (nodeList.contains(edge.getSource()) && !record.containsKey(edge.getSource()) && 
-									record.containsKey(edge.getTarget())) {
-					artEdge = currentView.getModel().addEdge(edge.getSource(), record.get(edge.getTarget()), true);
-				} else if (record.containsKey(edge.getSource()) && record.containsKey(edge.getTarget())) {
-					artEdge = currentView.getModel().addEdge(record.get(edge.getSource()), record.get(edge.getTarget()), true);
-				} else {
+			// As for the nodes, the edge stands in for its view when working ahead
+			Object edgeView = edge;
+			boolean temporary = false;
+			if (elements != VIEW_ELEMENTS) {
+				View<CyEdge> view = currentView.getEdgeView(edge);
+				temporary = view == null;
+				if (!temporary && elements == TEMPORARY_ELEMENTS)
 					continue;
+				if (temporary) {
+					CyEdge artEdge = recordEdge.get(edge);
+					if (artEdge == null || (view = currentView.getEdgeView(artEdge)) == null)
+						continue;
 				}
-				currentView.updateView();
-				edgeView = currentView.getEdgeView(artEdge);
-				recordEdge.put(edge, artEdge);
+				edgeView = view;
 			}
 
 			long edgeName = edge.getSUID();//curEdgeTable.getRow(edge.getSUID()).get(CyNetwork.NAME, String.class);
-			Color p = edgeColMap.get(edgeName), pStroke = edgeStrokeColMap.get(edgeName);
-			if (p == null && pStroke == null) {
+			if (!edgeColumns.hasInt(EDGE_COLOR, edgeName) && !edgeColumns.hasInt(EDGE_STROKE_COLOR, edgeName)) {
 				continue;
 			}
-			Integer trans = edgeOpacityMap.get(edgeName), transStroke = edgeStrokeOpacityMap.get(edgeName);
 
-			if (edgeView.isValueLocked(BasicVisualLexicon.EDGE_VISIBLE)) {
-				edgeView.clearValueLock(BasicVisualLexicon.EDGE_VISIBLE);
-			}
-			edgeView.setVisualProperty(BasicVisualLexicon.EDGE_VISIBLE, true);
-			if (edgeView.isValueLocked(BasicVisualLexicon.EDGE_PAINT)) {
-				edgeView.clearValueLock(BasicVisualLexicon.EDGE_PAINT);
-			}
-			if (p != null) {
-				edgeView.setVisualProperty(BasicVisualLexicon.EDGE_PAINT, new Color(p.getRed(), p.getGreen(), p.getBlue(), trans));
-			}
-			if (edgeView.isValueLocked(BasicVisualLexicon.EDGE_STROKE_UNSELECTED_PAINT)) {
-				edgeView.clearValueLock(BasicVisualLexicon.EDGE_STROKE_UNSELECTED_PAINT);
-			}
-			if (pStroke != null) {
-				edgeView.setVisualProperty(BasicVisualLexicon.EDGE_STROKE_UNSELECTED_PAINT, 
-				                           new Color(pStroke.getRed(), pStroke.getGreen(), pStroke.getBlue(), transStroke));
-			}
-			if (edgeView.isValueLocked(BasicVisualLexicon.EDGE_WIDTH)) {
-				edgeView.clearValueLock(BasicVisualLexicon.EDGE_WIDTH);
+			FrameColumns prev = null;
+			if (!temporary && shown != null) {
+				if (elements == VIEW_ELEMENTS ? shown.includesEdge(edge) : shown.showedEdge(edge, currentView))
+					prev = shown.edgeColumns;
 			}
-			edgeView.setVisualProperty(BasicVisualLexicon.EDGE_WIDTH, edgeWidthMap.get(edgeName));
 
-			if (edgeView.isValueLocked(BasicVisualLexicon.EDGE_LABEL)) {
-				edgeView.clearValueLock(BasicVisualLexicon.EDGE_LABEL);
+			batch.set(edgeView, BasicVisualLexicon.EDGE_VISIBLE, true);
+			if (edgeColumns.intChanged(prev, EDGE_COLOR, edgeName) || edgeColumns.intChanged(prev, EDGE_OPACITY, edgeName)) {
+				Color p = edgeColumns.getColor(EDGE_COLOR, edgeName);
+				Integer trans = edgeColumns.getInt(EDGE_OPACITY, edgeName);
+				if (p != null)
+					batch.set(edgeView, BasicVisualLexicon.EDGE_PAINT, new Color(p.getRed(), p.getGreen(), p.getBlue(), trans));
+				else
+					batch.clearLock(edgeView, BasicVisualLexicon.EDGE_PAINT);
 			}
-			edgeView.setVisualProperty(BasicVisualLexicon.EDGE_LABEL, edgeLabel.get(edgeName));
-			Color labelColor = edgeLabelColMap.get(edgeName);
-			if (edgeView.isValueLocked(BasicVisualLexicon.EDGE_LABEL_COLOR)) {
-				edgeView.clearValueLock(BasicVisualLexicon.EDGE_LABEL_COLOR);
+			if (edgeColumns.intChanged(prev, EDGE_STROKE_COLOR, edgeName) || edgeColumns.intChanged(prev, EDGE_STROKE_OPACITY, edgeName)) {
+				Color pStroke = edgeColumns.getColor(EDGE_STROKE_COLOR, edgeName);
+				Integer transStroke = edgeColumns.getInt(EDGE_STROKE_OPACITY, edgeName);
+				if (pStroke != null)
+					batch.set(edgeView, BasicVisualLexicon.EDGE_STROKE_UNSELECTED_PAINT, 
+					          new Color(pStroke.getRed(), pStroke.getGreen(), pStroke.getBlue(), transStroke));
+				else
+					batch.clearLock(edgeView, BasicVisualLexicon.EDGE_STROKE_UNSELECTED_PAINT);
 			}
-			edgeView.setVisualProperty(BasicVisualLexicon.EDGE_LABEL_COLOR,
-				new Color(labelColor.getRed(),
-					labelColor.getGreen(), labelColor.getBlue()));
-			if (edgeView.isValueLocked(BasicVisualLexicon.EDGE_TRANSPARENCY)) {
-				edgeView.clearValueLock(BasicVisualLexicon.EDGE_TRANSPARENCY);
+			if (edgeColumns.doubleChanged(prev, EDGE_WIDTH, edgeName))
+				batch.set(edgeView, BasicVisualLexicon.EDGE_WIDTH, edgeColumns.getDouble(EDGE_WIDTH, edgeName));
+
+			if (edgeColumns.objectChanged(prev, EDGE_LABEL, edgeName))
+				batch.set(edgeView, BasicVisualLexicon.EDGE_LABEL, edgeColumns.getObject(EDGE_LABEL, edgeName));
+			if (edgeColumns.intChanged(prev, EDGE_LABEL_COLOR, edgeName)) {
+				Color labelColor = edgeColumns.getColor(EDGE_LABEL_COLOR, edgeName);
+				batch.set(edgeView, BasicVisualLexicon.EDGE_LABEL_COLOR,
+				          new Color(labelColor.getRed(), labelColor.getGreen(), labelColor.getBlue()));
 			}
-			edgeView.setVisualProperty(BasicVisualLexicon.EDGE_TRANSPARENCY, edgeStrokeOpacityMap.get(edgeName));
-			Integer labelFontSize = edgeLabelFontSizeMap.get(edgeName),
-				labelTrans = edgeLabelTransMap.get(edgeName);
-			if (edgeView.isValueLocked(BasicVisualLexicon.EDGE_LABEL_FONT_SIZE)) {
-				edgeView.clearValueLock(BasicVisualLexicon.EDGE_LABEL_FONT_SIZE);
-			}
-			edgeView.setVisualProperty(BasicVisualLexicon.EDGE_LABEL_FONT_SIZE, labelFontSize);
-			if (edgeView.isValueLocked(BasicVisualLexicon.EDGE_LABEL_FONT_FACE)) {
-				edgeView.clearValueLock(BasicVisualLexicon.EDGE_LABEL_FONT_FACE);
-			}
-			edgeView.setVisualProperty(BasicVisualLexicon.EDGE_LABEL_FONT_FACE, edgeLabelFontMap.get(edgeName));
-			if (edgeView.isValueLocked(BasicVisualLexicon.EDGE_LABEL_TRANSPARENCY)) {
-				edgeView.clearValueLock(BasicVisualLexicon.EDGE_LABEL_TRANSPARENCY);
-			}
-			edgeView.setVisualProperty(BasicVisualLexicon.EDGE_LABEL_TRANSPARENCY, labelTrans);
-			if (edgeView.isValueLocked(BasicVisualLexicon.EDGE_SOURCE_ARROW_SHAPE)) {
-				edgeView.clearValueLock(BasicVisualLexicon.EDGE_SOURCE_ARROW_SHAPE);
-			}
-			edgeView.setVisualProperty(BasicVisualLexicon.EDGE_SOURCE_ARROW_SHAPE, edgeSourceArrowShapeMap.get(edgeName));
-			if (edgeView.isValueLocked(BasicVisualLexicon.EDGE_TARGET_ARROW_SHAPE)) {
-				edgeView.clearValueLock(BasicVisualLexicon.EDGE_TARGET_ARROW_SHAPE);
-			}
-			edgeView.setVisualProperty(BasicVisualLexicon.EDGE_TARGET_ARROW_SHAPE, edgeTargetArrowShapeMap.get(edgeName));
-			if (edgeView.isValueLocked(BasicVisualLexicon.EDGE_LINE_TYPE)) {
-				edgeView.clearValueLock(BasicVisualLexicon.EDGE_LINE_TYPE);
-			}
-			edgeView.setVisualProperty(BasicVisualLexicon.EDGE_LINE_TYPE, edgeLineTypeMap.get(edgeName));
+			if (edgeColumns.intChanged(prev, EDGE_STROKE_OPACITY, edgeName))
+				batch.set(edgeView, BasicVisualLexicon.EDGE_TRANSPARENCY, edgeColumns.getInt(EDGE_STROKE_OPACITY, edgeName));
+			if (edgeColumns.intChanged(prev, EDGE_LABEL_FONT_SIZE, edgeName))
+				batch.set(edgeView, BasicVisualLexicon.EDGE_LABEL_FONT_SIZE, edgeColumns.getInt(EDGE_LABEL_FONT_SIZE, edgeName));
+			if (edgeColumns.objectChanged(prev, EDGE_LABEL_FONT, edgeName))
+				batch.set(edgeView, BasicVisualLexicon.EDGE_LABEL_FONT_FACE, edgeColumns.getObject(EDGE_LABEL_FONT, edgeName));
+			if (edgeColumns.intChanged(prev, EDGE_LABEL_TRANS, edgeName))
+				batch.set(edgeView, BasicVisualLexicon.EDGE_LABEL_TRANSPARENCY, edgeColumns.getInt(EDGE_LABEL_TRANS, edgeName));
+			if (edgeColumns.objectChanged(prev, EDGE_SOURCE_ARROW, edgeName))
+				batch.set(edgeView, BasicVisualLexicon.EDGE_SOURCE_ARROW_SHAPE, edgeColumns.getObject(EDGE_SOURCE_ARROW, edgeName));
+			if (edgeColumns.objectChanged(prev, EDGE_TARGET_ARROW, edgeName))
+				batch.set(edgeView, BasicVisualLexicon.EDGE_TARGET_ARROW_SHAPE, edgeColumns.getObject(EDGE_TARGET_ARROW, edgeName));
+			if (edgeColumns.objectChanged(prev, EDGE_LINE_TYPE, edgeName))
+				batch.set(edgeView, BasicVisualLexicon.EDGE_LINE_TYPE, edgeColumns.getObject(EDGE_LINE_TYPE, edgeName));
+		}
+	}
+
+	/**
+	 * Returns true if this frame, when it was last displayed on the given view,
+	 * set all of the visual properties of a node on the node's own view.
+	 */
+	private boolean showedNode(CyNode node, CyNetworkView view) {
+		if (displayedView != view || record.containsKey(node))
+			return false;
+		return includesNode(node);
+	}
+
+	/**
+	 * Returns true if displaying this frame sets all of the visual properties of a node.
+	 */
+	private boolean includesNode(CyNode node) {
+		Set<CyNode> nodes = nodeSet;
+		if (nodes == null) {
+			nodes = new HashSet<CyNode>(nodeList);
+			nodeSet = nodes;
 		}
+		return nodes.contains(node);
+	}
+
+	/**
+	 * Returns true if this frame, when it was last displayed on the given view,
+	 * set all of the visual properties of an edge on the edge's own view.
+	 */
+	private boolean showedEdge(CyEdge edge, CyNetworkView view) {
+		if (displayedView != view || recordEdge.containsKey(edge))
+			return false;
+		return includesEdge(edge);
+	}
+
+	/**
+	 * Returns true if displaying this frame sets all of the visual properties of an edge.
+	 */
+	private boolean includesEdge(CyEdge edge) {
+		long edgeName = edge.getSUID();
+		if (!edgeColumns.hasInt(EDGE_COLOR, edgeName) && !edgeColumns.hasInt(EDGE_STROKE_COLOR, edgeName))
+			return false;
+		Set<CyEdge> edges = edgeSet;
+		if (edges == null) {
+			edges = new HashSet<CyEdge>(edgeList);
+			edgeSet = edges;
+		}
+		return edges.contains(edge);
 	}
 
 	private void handleNetwork(final CyNetworkView currentView) {
@@ -1319,9 +1454,7 @@ public class CyFrame {
 	 * @return the node shape property
 	 */
 	public NodeShape getNodeShape(long nodeID) {
-		if (nodeShapeMap.containsKey(nodeID))
-			return nodeShapeMap.get(nodeID);
-		return null;
+		return nodeColumns.getObject(NODE_SHAPE, nodeID);
 	}
 
 	/**
@@ -1331,7 +1464,7 @@ public class CyFrame {
 	 * @param shape a NodeShape property for this node
 	 */
 	public void setNodeShape(long nodeID, NodeShape shape) {
-		nodeShapeMap.put(nodeID, shape);
+		nodeColumns.setObject(NODE_SHAPE, nodeID, shape);
 	}
 
 	/**
@@ -1341,9 +1474,13 @@ public class CyFrame {
 	 * @return the node position as a double array with two values
 	 */
 	public double[] getNodePosition(long nodeID) {
-		if (nodePosMap.containsKey(nodeID))
-			return nodePosMap.get(nodeID);
-		return null;
+		if (!nodeColumns.hasDouble(NODE_X, nodeID))
+			return null;
+		double[] pos = new double[3];
+		pos[0] = nodeColumns.getDouble(NODE_X, nodeID, 0.0);
+		pos[1] = nodeColumns.getDouble(NODE_Y, nodeID, 0.0);
+		pos[2] = nodeColumns.getDouble(NODE_Z, nodeID, 0.0);
+		return pos;
 	}
 
 	/**
@@ -1353,7 +1490,13 @@ public class CyFrame {
 	 * @param pos a 2 element double array with the x,y values for this node
 	 */
 	public void setNodePosition(long nodeID, double[] pos) {
-		nodePosMap.put(nodeID, pos);
+		if (pos == null) {
+			nodeColumns.clearDouble(NODE_X, nodeID);
+			return;
+		}
+		nodeColumns.setDouble(NODE_X, nodeID, pos[0]);
+		nodeColumns.setDouble(NODE_Y, nodeID, pos[1]);
+		nodeColumns.setDouble(NODE_Z, nodeID, pos.length > 2 ? pos[2] : 0.0);
 	}
 
 	/**
@@ -1363,9 +1506,7 @@ public class CyFrame {
 	 * @return the color 
 	 */
 	public Color getNodeColor(long nodeID) {
-		if (nodeColMap.containsKey(nodeID))
-			return nodeColMap.get(nodeID);
-		return null;
+		return nodeColumns.getColor(NODE_COLOR, nodeID);
 	}
 
 	/**
@@ -1375,9 +1516,7 @@ public class CyFrame {
 	 * @return the color 
 	 */
 	public Color getNodeFillColor(long nodeID) {
-		if (nodeFillColMap.containsKey(nodeID))
-			return nodeFillColMap.get(nodeID);
-		return null;
+		return nodeColumns.getColor(NODE_FILL_COLOR, nodeID);
 	}
 
 	/**
@@ -1387,7 +1526,7 @@ public class CyFrame {
 	 * @param color the color for this node
 	 */
 	public void setNodeColor(long nodeID, Color color) {
-		nodeColMap.put(nodeID, color);
+		nodeColumns.setColor(NODE_COLOR, nodeID, color);
 	}
 
 	/**
@@ -1397,7 +1536,7 @@ public class CyFrame {
 	 * @param color the color for this node
 	 */
 	public void setNodeFillColor(long nodeID, Color color) {
-		nodeFillColMap.put(nodeID, color);
+		nodeColumns.setColor(NODE_FILL_COLOR, nodeID, color);
 	}
 
 	/**
@@ -1407,9 +1546,7 @@ public class CyFrame {
 	 * @return the color 
 	 */
 	public Color getEdgeColor(long edgeID) {
-		if (edgeColMap.containsKey(edgeID))
-			return edgeColMap.get(edgeID);
-		return null;
+		return edgeColumns.getColor(EDGE_COLOR, edgeID);
 	}
 
 	/**
@@ -1419,9 +1556,7 @@ public class CyFrame {
 	 * @return the color 
 	 */
 	public Color getEdgeStrokeColor(long edgeID) {
-		if (edgeStrokeColMap.containsKey(edgeID))
-			return edgeStrokeColMap.get(edgeID);
-		return null;
+		return edgeColumns.getColor(EDGE_STROKE_COLOR, edgeID);
 	}
 
 	/**
@@ -1431,7 +1566,7 @@ public class CyFrame {
 	 * @param color the color for this edge
 	 */
 	public void setEdgeColor(long edgeID, Color color) {
-		edgeColMap.put(edgeID, color);
+		edgeColumns.setColor(EDGE_COLOR, edgeID, color);
 	}
 
 	/**
@@ -1441,7 +1576,7 @@ public class CyFrame {
 	 * @param color the color for this edge
 	 */
 	public void setEdgeStrokeColor(long edgeID, Color color) {
-		edgeStrokeColMap.put(edgeID, color);
+		edgeColumns.setColor(EDGE_STROKE_COLOR, edgeID, color);
 	}
 
 	/**
@@ -1451,8 +1586,8 @@ public class CyFrame {
 	 * @return the opacity 
 	 */
 	public Integer getEdgeOpacity(long edgeID) {
-		if (edgeOpacityMap.containsKey(edgeID))
-			return edgeOpacityMap.get(edgeID);
+		if (edgeColumns.hasInt(EDGE_OPACITY, edgeID))
+			return edgeColumns.getInt(EDGE_OPACITY, edgeID);
 		return new Integer(0);
 	}
 
@@ -1463,8 +1598,8 @@ public class CyFrame {
 	 * @return the opacity 
 	 */
 	public Integer getEdgeStrokeOpacity(long edgeID) {
-		if (edgeStrokeOpacityMap.containsKey(edgeID))
-			return edgeStrokeOpacityMap.get(edgeID);
+		if (edgeColumns.hasInt(EDGE_STROKE_OPACITY, edgeID))
+			return edgeColumns.getInt(EDGE_STROKE_OPACITY, edgeID);
 		return new Integer(0);
 	}
 
@@ -1475,7 +1610,7 @@ public class CyFrame {
 	 * @param opacity the opacity for this edge
 	 */
 	public void setEdgeOpacity(long edgeID, Integer opacity) {
-		edgeOpacityMap.put(edgeID, opacity);
+		edgeColumns.setInt(EDGE_OPACITY, edgeID, opacity);
 	}
 
 	/**
@@ -1485,7 +1620,7 @@ public class CyFrame {
 	 * @param opacity the opacity for this edge
 	 */
 	public void setEdgeStrokeOpacity(long edgeID, Integer opacity) {
-		edgeStrokeOpacityMap.put(edgeID, opacity);
+		edgeColumns.setInt(EDGE_STROKE_OPACITY, edgeID, opacity);
 	}
 
 	/**
@@ -1495,8 +1630,8 @@ public class CyFrame {
 	 * @return the opacity 
 	 */
 	public Integer getNodeOpacity(long nodeID) {
-		if (nodeOpacityMap.containsKey(nodeID))
-			return nodeOpacityMap.get(nodeID);
+		if (nodeColumns.hasInt(NODE_OPACITY, nodeID))
+			return nodeColumns.getInt(NODE_OPACITY, nodeID);
 		return new Integer(0);
 	}
 
@@ -1507,8 +1642,8 @@ public class CyFrame {
 	 * @return the opacity 
 	 */
 	public Integer getNodeFillOpacity(long nodeID) {
-		if (nodeFillOpacityMap.containsKey(nodeID))
-			return nodeFillOpacityMap.get(nodeID);
+		if (nodeColumns.hasInt(NODE_FILL_OPACITY, nodeID))
+			return nodeColumns.getInt(NODE_FILL_OPACITY, nodeID);
 		return new Integer(0);
 	}
 
@@ -1519,7 +1654,7 @@ public class CyFrame {
 	 * @param opacity the opacity for this node
 	 */
 	public void setNodeOpacity(long nodeID, Integer opacity) {
-		nodeOpacityMap.put(nodeID, opacity);
+		nodeColumns.setInt(NODE_OPACITY, nodeID, opacity);
 	}
 
 	/**
@@ -1529,7 +1664,7 @@ public class CyFrame {
 	 * @param opacity the opacity for this node
 	 */
 	public void setNodeFillOpacity(long nodeID, Integer opacity) {
-		nodeFillOpacityMap.put(nodeID, opacity);
+		nodeColumns.setInt(NODE_FILL_OPACITY, nodeID, opacity);
 	}
 
 	/**
@@ -1539,11 +1674,12 @@ public class CyFrame {
 	 * @return node size
 	 */
 	public double[] getNodeSize(long nodeID) {
-		if (nodeSizeMap.containsKey(nodeID)) {
-			double[] size = nodeSizeMap.get(nodeID);
-			return size;
-		}
-		return null;
+		if (!nodeColumns.hasDouble(NODE_HEIGHT, nodeID))
+			return null;
+		double[] size = new double[2];
+		size[0] = nodeColumns.getDouble(NODE_HEIGHT, nodeID, 0.0);
+		size[1] = nodeColumns.getDouble(NODE_WIDTH, nodeID, 0.0);
+		return size;
 	}
 
 	/**
@@ -1553,7 +1689,12 @@ public class CyFrame {
 	 * @param size
 	 */
 	public void setNodeSize(long nodeID, double[] size){
-		nodeSizeMap.put(nodeID, size);
+		if (size == null) {
+			nodeColumns.clearDouble(NODE_HEIGHT, nodeID);
+			return;
+		}
+		nodeColumns.setDouble(NODE_HEIGHT, nodeID, size[0]);
+		nodeColumns.setDouble(NODE_WIDTH, nodeID, size[1]);
 	}
 
 	/**
@@ -1562,9 +1703,7 @@ public class CyFrame {
 	 * @return width of node border
 	 */
 	public double getNodeBorderWidth(long nodeID){
-		if (nodeBorderWidthMap.containsKey(nodeID))
-			return nodeBorderWidthMap.get(nodeID);
-		return 0.0f;
+		return nodeColumns.getDouble(NODE_BORDER_WIDTH, nodeID, 0.0f);
 	}
 
 	/**
@@ -1573,7 +1712,7 @@ public class CyFrame {
 	  * @param width
 	  */
 	public void setNodeBorderWidth(long nodeID, double width){
-		nodeBorderWidthMap.put(nodeID, width);
+		nodeColumns.setDouble(NODE_BORDER_WIDTH, nodeID, width);
 	}
 
 	/**
@@ -1582,9 +1721,7 @@ public class CyFrame {
 	 * @return node border color
 	 */
 	public Color getNodeBorderColor(long nodeID) {
-		if (nodeBorderColorMap.containsKey(nodeID))
-			return nodeBorderColorMap.get(nodeID);
-		return null;
+		return nodeColumns.getColor(NODE_BORDER_COLOR, nodeID);
 	}
 
 	/**
@@ -1593,7 +1730,7 @@ public class CyFrame {
 	 * @param color node border color
 	 */
 	public void setNodeBorderColor(long nodeID, Color color) {
-		nodeBorderColorMap.put(nodeID, color);
+		nodeColumns.setColor(NODE_BORDER_COLOR, nodeID, color);
 	}
 
 	/**
@@ -1602,9 +1739,7 @@ public class CyFrame {
 	 * @return node border transparency
 	 */
 	public Integer getNodeBorderTrans(long nodeID) {
-		if (nodeBorderTransMap.containsKey(nodeID))
-			return nodeBorderTransMap.get(nodeID);
-		return null;
+		return nodeColumns.getInt(NODE_BORDER_TRANS, nodeID);
 	}
 
 	/**
@@ -1613,7 +1748,7 @@ public class CyFrame {
 	 * @param trans node border transparency
 	 */
 	public void setNodeBorderTrans(long nodeID, Integer trans) {
-		nodeBorderTransMap.put(nodeID, trans);
+		nodeColumns.setInt(NODE_BORDER_TRANS, nodeID, trans);
 	}
 
 	/**
@@ -1622,9 +1757,7 @@ public class CyFrame {
 	 * @return node label font size
 	 */
 	public Integer getNodeLabelFontSize(long nodeID) {
-		if (nodeLabelFontSizeMap.containsKey(nodeID))
-			return nodeLabelFontSizeMap.get(nodeID);
-		return null;
+		return nodeColumns.getInt(NODE_LABEL_FONT_SIZE, nodeID);
 	}
 
 	/**
@@ -1633,7 +1766,7 @@ public class CyFrame {
 	 * @param size node label font size
 	 */
 	public void setNodeLabelFontSize(long nodeID, Integer size) {
-		nodeLabelFontSizeMap.put(nodeID, size);
+		nodeColumns.setInt(NODE_LABEL_FONT_SIZE, nodeID, size);
 	}
 
 	/**
@@ -1642,9 +1775,7 @@ public class CyFrame {
 	 * @return font label font 
 	 */
 	public Font getNodeLabelFont(long nodeID) {
-		if (nodeLabelFontMap.containsKey(nodeID))
-			return nodeLabelFontMap.get(nodeID);
-		return null;
+		return nodeColumns.getObject(NODE_LABEL_FONT, nodeID);
 	}
 
 	/**
@@ -1653,7 +1784,7 @@ public class CyFrame {
 	 * @param font node label font
 	 */
 	public void setNodeLabelFont(long nodeID, Font font) {
-		nodeLabelFontMap.put(nodeID, font);
+		nodeColumns.setObject(NODE_LABEL_FONT, nodeID, font);
 	}
 
 	/**
@@ -1662,9 +1793,7 @@ public class CyFrame {
 	 * @return font label width
 	 */
 	public Double getNodeLabelWidth(long nodeID) {
-		if (nodeLabelWidthMap.containsKey(nodeID))
-			return nodeLabelWidthMap.get(nodeID);
-		return null;
+		return nodeColumns.getDouble(NODE_LABEL_WIDTH, nodeID);
 	}
 
 	/**
@@ -1673,7 +1802,7 @@ public class CyFrame {
 	 * @param width node label width
 	 */
 	public void setNodeLabelWidth(long nodeID, Double width) {
-		nodeLabelWidthMap.put(nodeID, width);
+		nodeColumns.setDouble(NODE_LABEL_WIDTH, nodeID, width);
 	}
 
 	/**
@@ -1682,9 +1811,7 @@ public class CyFrame {
 	 * @return node label transparency
 	 */
 	public Integer getNodeLabelTrans(long nodeID) {
-		if (nodeLabelTransMap.containsKey(nodeID))
-			return nodeLabelTransMap.get(nodeID);
-		return null;
+		return nodeColumns.getInt(NODE_LABEL_TRANS, nodeID);
 	}
 
 	/**
@@ -1693,7 +1820,7 @@ public class CyFrame {
 	 * @param trans node label transparency
 	 */
 	public void setNodeLabelTrans(long nodeID, Integer trans) {
-		nodeLabelTransMap.put(nodeID, trans);
+		nodeColumns.setInt(NODE_LABEL_TRANS, nodeID, trans);
 	}
 
 	/**
@@ -1702,9 +1829,7 @@ public class CyFrame {
 	 * @return node label
 	 */
 	public String getNodeLabel(long nodeID) {
-		if (nodeLabelMap.containsKey(nodeID))
-			return nodeLabelMap.get(nodeID);
-		return null;
+		return nodeColumns.getObject(NODE_LABEL, nodeID);
 	}
 
 	/**
@@ -1713,7 +1838,7 @@ public class CyFrame {
 	  * @param label
 	  */
 	public void setNodeLabel(long nodeID, String label){
-		nodeLabelMap.put(nodeID, label);
+		nodeColumns.setObject(NODE_LABEL, nodeID, label);
 	}
 
 	/**
@@ -1722,9 +1847,7 @@ public class CyFrame {
 	 * @return node label color
 	 */
 	public Color getNodeLabelColor(long nodeID) {
-		if (nodeLabelColMap.containsKey(nodeID))
-			return nodeLabelColMap.get(nodeID);
-		return null;
+		return nodeColumns.getColor(NODE_LABEL_COLOR, nodeID);
 	}
 
 	/**
@@ -1733,7 +1856,7 @@ public class CyFrame {
 	  * @param color
 	  */
 	public void setNodeLabelColor(long nodeID, Color color){
-		nodeLabelColMap.put(nodeID, color);
+		nodeColumns.setColor(NODE_LABEL_COLOR, nodeID, color);
 	}
 
 	/**
@@ -1742,9 +1865,7 @@ public class CyFrame {
 	 * @return the edge width 
 	 */
 	public double getEdgeWidth(long edgeID){
-		if (edgeWidthMap.containsKey(edgeID))
-			return edgeWidthMap.get(edgeID);
-		return 0.0f;
+		return edgeColumns.getDouble(EDGE_WIDTH, edgeID, 0.0f);
 	}
 
 	/**
@@ -1753,7 +1874,7 @@ public class CyFrame {
 	 * @param width
 	 */
 	public void setEdgeWidth(long edgeID, double width){
-		edgeWidthMap.put(edgeID, width);
+		edgeColumns.setDouble(EDGE_WIDTH, edgeID, width);
 	}
 
 	/**
@@ -1762,9 +1883,7 @@ public class CyFrame {
 	 * @return the edge label
 	 */
 	public String getEdgeLabel(long edgeID){
-		if (edgeLabel.containsKey(edgeID))
-			return edgeLabel.get(edgeID);
-		return null;
+		return edgeColumns.getObject(EDGE_LABEL, edgeID);
 	}
 
 	/**
@@ -1773,7 +1892,7 @@ public class CyFrame {
 	 * @param label
 	 */
 	public void setEdgeLabel(long edgeID, String label){
-		edgeLabel.put(edgeID, label);
+		edgeColumns.setObject(EDGE_LABEL, edgeID, label);
 	}
 
 	/**
@@ -1782,9 +1901,7 @@ public class CyFrame {
 	 * @return edge label color
 	 */
 	public Color getEdgeLabelColor(long edgeID) {
-		if (edgeLabelColMap.containsKey(edgeID))
-			return edgeLabelColMap.get(edgeID);
-		return null;
+		return edgeColumns.getColor(EDGE_LABEL_COLOR, edgeID);
 	}
 
 	/**
@@ -1793,9 +1910,7 @@ public class CyFrame {
 	 * @return font label font
 	 */
 	public Font getEdgeLabelFont(long edgeID) {
-		if (edgeLabelFontMap.containsKey(edgeID))
-			return edgeLabelFontMap.get(edgeID);
-		return null;
+		return edgeColumns.getObject(EDGE_LABEL_FONT, edgeID);
 	}
 
 	/**
@@ -1804,7 +1919,7 @@ public class CyFrame {
 	  * @param font label font
 	  */
 	public void setEdgeLabelFont(long edgeID, Font font){
-		edgeLabelFontMap.put(edgeID, font);
+		edgeColumns.setObject(EDGE_LABEL_FONT, edgeID, font);
 	}
 
 	/**
@@ -1813,9 +1928,7 @@ public class CyFrame {
 	 * @return edge transparency
 	 */
 	public Integer getEdgeLabelTrans(long edgeID) {
-		if (edgeLabelTransMap.containsKey(edgeID))
-			return edgeLabelTransMap.get(edgeID);
-		return null;
+		return edgeColumns.getInt(EDGE_LABEL_TRANS, edgeID);
 	}
 
 	/**
@@ -1824,7 +1937,7 @@ public class CyFrame {
 	  * @param color
 	  */
 	public void setEdgeLabelColor(long edgeID, Color color){
-		edgeLabelColMap.put(edgeID, color);
+		edgeColumns.setColor(EDGE_LABEL_COLOR, edgeID, color);
 	}
 
 	/**
@@ -1833,9 +1946,7 @@ public class CyFrame {
 	 * @return edge label size
 	 */
 	public Integer getEdgeLabelFontSize(long edgeID) {
-		if (edgeLabelFontSizeMap.containsKey(edgeID))
-			return edgeLabelFontSizeMap.get(edgeID);
-		return null;
+		return edgeColumns.getInt(EDGE_LABEL_FONT_SIZE, edgeID);
 	}
 
 	/**
@@ -1844,7 +1955,7 @@ public class CyFrame {
 	  * @param size font size
 	  */
 	public void setEdgeLabelFontSize(long edgeID, Integer size){
-		edgeLabelFontSizeMap.put(edgeID, size);
+		edgeColumns.setInt(EDGE_LABEL_FONT_SIZE, edgeID, size);
 	}
 
 	/**
@@ -1853,7 +1964,7 @@ public class CyFrame {
 	  * @param trans transparency
 	  */
 	public void setEdgeLabelTrans(long edgeID, Integer trans){
-		edgeLabelTransMap.put(edgeID, trans);
+		edgeColumns.setInt(EDGE_LABEL_TRANS, edgeID, trans);
 	}
 
 	/**
@@ -1862,9 +1973,7 @@ public class CyFrame {
 	 * @return edge source arrow shape
 	 */
 	public ArrowShape getEdgeSourceArrowShape(long edgeID) {
-		if (edgeSourceArrowShapeMap.containsKey(edgeID))
-			return edgeSourceArrowShapeMap.get(edgeID);
-		return null;
+		return edgeColumns.getObject(EDGE_SOURCE_ARROW, edgeID);
 	}
 
 	/**
@@ -1873,7 +1982,7 @@ public class CyFrame {
 	  * @param shape arrow shape
 	  */
 	public void setEdgeSourceArrowShape(long edgeID, ArrowShape shape){
-		edgeSourceArrowShapeMap.put(edgeID, shape);
+		edgeColumns.setObject(EDGE_SOURCE_ARROW, edgeID, shape);
 	}
 
 	/**
@@ -1882,9 +1991,7 @@ public class CyFrame {
 	 * @return edge target arrow shape
 	 */
 	public ArrowShape getEdgeTargetArrowShape(long edgeID) {
-		if (edgeTargetArrowShapeMap.containsKey(edgeID))
-			return edgeTargetArrowShapeMap.get(edgeID);
-		return null;
+		return edgeColumns.getObject(EDGE_TARGET_ARROW, edgeID);
 	}
 
 	/**
@@ -1893,7 +2000,7 @@ public class CyFrame {
 	  * @param shape arrow shape
 	  */
 	public void setEdgeTargetArrowShape(long edgeID, ArrowShape shape){
-		edgeTargetArrowShapeMap.put(edgeID, shape);
+		edgeColumns.setObject(EDGE_TARGET_ARROW, edgeID, shape);
 	}
 
 	/**
@@ -1902,9 +2009,7 @@ public class CyFrame {
 	 * @return edge line type
 	 */
 	public LineType getEdgeLineType(long edgeID) {
-		if (edgeLineTypeMap.containsKey(edgeID))
-			return edgeLineTypeMap.get(edgeID);
-		return null;
+		return edgeColumns.getObject(EDGE_LINE_TYPE, edgeID);
 	}
 
 	/**
@@ -1913,7 +2018,7 @@ public class CyFrame {
 	  * @param line line type
 	  */
 	public void setEdgeLineType(long edgeID, LineType line){
-		edgeLineTypeMap.put(edgeID, line);
+		edgeColumns.setObject(EDGE_LINE_TYPE, edgeID, line);
 	}
 
 	/**
@@ -1950,6 +2055,7 @@ public class CyFrame {
 	 */
 	public void setNodeList(List<CyNode>nodeList) {
 		this.nodeList = nodeList;
+		this.nodeSet = null;
 	}
 
 	/**
@@ -1959,6 +2065,7 @@ public class CyFrame {
 	 */
 	public void setEdgeList(List<CyEdge>edgeList) {
 		this.edgeList = edgeList;
+		this.edgeSet = null;
 	}
 
 	/**
@@ -2006,6 +2113,15 @@ public class CyFrame {
 		this.nodeIdList = nodeIdList;
 	}
 
+	/**
+	 * Set the list of annotation ids in this frame
+	 *
+	 * @param annotationIdList the list of annotation ids
+	 */
+	public void setAnnotationIdList(List<Long>annotationIdList) {
+		this.annotationIdList = annotationIdList;
+	}
+
 	/**
 	 * Set the list of edge views in this frame
 	 *
@@ -2015,6 +2131,82 @@ public class CyFrame {
 		this.edgeIdList = edgeIdList;
 	}
 
+	/**
+	 * Creates the baseline shared by the interpolated frames of a segment.  It is
+	 * made from the key frames alone: it holds every node and edge property which
+	 * is the same in both of them, the network properties and annotations of the
+	 * first one (which the interpolators then overwrite), and the nodes and edges
+	 * of both.  The network view is never read, so this is safe on any thread.  It
+	 * mustn't be changed once frames are using it.
+	 *
+	 * @param frameOne the key frame the segment starts from
+	 * @param frameTwo the key frame the segment ends at
+	 * @return the baseline
+	 */
+	static CyFrame createBaseline(CyFrame frameOne, CyFrame frameTwo) {
+		CyFrame baseline = new CyFrame(frameOne);
+		baseline.copyNetworkProperties(frameOne);
+		baseline.nodeMap.putAll(frameOne.nodeMap);
+		baseline.nodeMap.putAll(frameTwo.nodeMap);
+		baseline.edgeMap.putAll(frameOne.edgeMap);
+		baseline.edgeMap.putAll(frameTwo.edgeMap);
+		baseline.nodeColumns.setConstants(frameOne.nodeColumns, frameTwo.nodeColumns);
+		baseline.edgeColumns.setConstants(frameOne.edgeColumns, frameTwo.edgeColumns);
+		return baseline;
+	}
+
+	/**
+	 * Fills this frame in from a baseline rather than by populating it.  The node
+	 * and edge properties become copy-on-write over those of the baseline: this
+	 * frame only stores the ones set to something else afterwards, so an
+	 * interpolated frame costs next to nothing for the properties which don't
+	 * change across its segment.
+	 *
+	 * @param baseline the baseline, from createBaseline()
+	 */
+	void setBaseline(CyFrame baseline) {
+		copyNetworkProperties(baseline);
+		// The nodes and edges the frame covers, only ever read
+		nodeMap = baseline.nodeMap;
+		edgeMap = baseline.edgeMap;
+
+		nodeColumns = new FrameColumns(baseline.nodeColumns);
+		edgeColumns = new FrameColumns(baseline.edgeColumns);
+	}
+
+	private void copyNetworkProperties(CyFrame from) {
+		title = from.title;
+		backgroundPaint = from.backgroundPaint;
+		zoom = from.zoom;
+		size = from.size;
+		width = from.width;
+		height = from.height;
+		xalign = from.xalign;
+		yalign = from.yalign;
+		centerPoint = from.centerPoint;
+
+		annotationPosMap.putAll(from.annotationPosMap);
+		annotationZoomMap.putAll(from.annotationZoomMap);
+		annotationFillColorMap.putAll(from.annotationFillColorMap);
+		annotationBorderColorMap.putAll(from.annotationBorderColorMap);
+		annotationTextColorMap.putAll(from.annotationTextColorMap);
+		annotationFontSizeMap.putAll(from.annotationFontSizeMap);
+		annotationBorderWidthMap.putAll(from.annotationBorderWidthMap);
+		annotationTextMap.putAll(from.annotationTextMap);
+		annotationShapeMap.putAll(from.annotationShapeMap);
+		annotationSizeMap.putAll(from.annotationSizeMap);
+	}
+
+	/**
+	 * Reserve storage for every node and edge property of every element in the
+	 * node and edge id lists, so that the interpolators can fill this frame in
+	 * from several threads at once.  The id lists must be set first.
+	 */
+	void reserveColumns() {
+		nodeColumns.reserve(nodeIdList);
+		edgeColumns.reserve(edgeIdList);
+	}
+
 	/**
 	 * Get the Image for this frame
 	 *
@@ -2025,37 +2217,16 @@ public class CyFrame {
 	}
 
 	/**
- 	 * Export a graphic image for this frame
- 	 *
- 	 * @param fileName the file to write the image to
- 	 */
-	public void writeImage(String fileName, final int videoResolution,final BooleanWrapper finished) throws IOException {
-		display();
-		// Make sure we let the renderer catch up
-		try {
-			Thread.sleep(500);
-		} catch (InterruptedException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
-
-		CyNetworkView view = appManager.getCurrentNetworkView();
-
-		NetworkViewTaskFactory exportImageTaskFactory = (NetworkViewTaskFactory) bundleContext.getService(NetworkViewTaskFactory.class, "(&(commandNamespace=view)(command=export))");
-		if (exportImageTaskFactory != null && exportImageTaskFactory.isReady(view)) {
-			Map<String, Object> tunables = new HashMap<String, Object>();
-			List<String> fileTypeList = new ArrayList<String>();
-			fileTypeList.add(PNG);
-			ListSingleSelection<String> fileType = new ListSingleSelection<String>(fileTypeList);
-			fileType.setSelectedValue(PNG);
-			tunables.put("options", fileType);
-			tunables.put("OutputFile", new File(fileName));
-			tunables.put("Zoom", new BoundedDouble(0.0, (double) videoResolution, (double) videoResolution,true,false));
-			taskManager.setExecutionContext(tunables);
-			taskManager.execute(exportImageTaskFactory.createTaskIterator(view));
-			finished.setValue(true);
-		}
-		clearDisplay();
+	 * Waits for the thumbnail of this frame to be captured.
+	 *
+	 * @param timeout the longest time to wait
+	 * @param unit the unit of the timeout
+	 * @return the thumbnail, or null if it wasn't captured in time
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public BufferedImage waitForFrameImage(long timeout, TimeUnit unit) throws InterruptedException {
+		imageCaptured.await(timeout, unit);
+		return this.networkImage;
 	}
 
 	/**
@@ -2076,6 +2247,112 @@ public class CyFrame {
 		this.centerPoint = pnt;
 	}
 
+	/**
+	 * Writes everything about this frame that affects how it is drawn, so that a
+	 * recording can tell whether the frames it rendered earlier still match.  The
+	 * same frame writes the same data in another session: nodes and edges are
+	 * identified by name rather than by SUID, and elements and annotations are
+	 * written in an order that only depends on their values.
+	 *
+	 * @param out where to write the frame's state
+	 * @throws IOException if it can't be written
+	 */
+	void digest(DataOutput out) throws IOException {
+		out.writeInt(intercount);
+		writeString(out, backgroundPaint);
+		out.writeDouble(zoom);
+		out.writeDouble(size);
+		out.writeDouble(width);
+		out.writeDouble(height);
+		out.writeDouble(xalign);
+		out.writeDouble(yalign);
+		if (centerPoint != null) {
+			out.writeDouble(centerPoint.getX());
+			out.writeDouble(centerPoint.getY());
+			out.writeDouble(centerPoint.getZ());
+		}
+
+		List<byte[]> records = new ArrayList<byte[]>();
+		for (Long id: nodeIdList) {
+			ByteArrayOutputStream record = new ByteArrayOutputStream();
+			DataOutputStream recordOut = new DataOutputStream(record);
+			writeString(recordOut, elementName(nodeTable, id));
+			nodeColumns.digest(recordOut, id);
+			records.add(record.toByteArray());
+		}
+		writeRecords(out, records);
+
+		records.clear();
+		for (Long id: edgeIdList) {
+			ByteArrayOutputStream record = new ByteArrayOutputStream();
+			DataOutputStream recordOut = new DataOutputStream(record);
+			writeString(recordOut, elementName(edgeTable, id));
+			edgeColumns.digest(recordOut, id);
+			records.add(record.toByteArray());
+		}
+		writeRecords(out, records);
+
+		// The annotation maps are keyed by hash code, which changes from one
+		// session to the next, so each annotation is written as its values
+		records.clear();
+		for (Annotation ann: annotationList) {
+			Integer key = ann.hashCode();
+			ByteArrayOutputStream record = new ByteArrayOutputStream();
+			DataOutputStream recordOut = new DataOutputStream(record);
+			writeString(recordOut, annotationPosMap.get(key));
+			writeString(recordOut, annotationSizeMap.get(key));
+			writeString(recordOut, annotationZoomMap.get(key));
+			writeString(recordOut, annotationFillColorMap.get(key));
+			writeString(recordOut, annotationBorderColorMap.get(key));
+			writeString(recordOut, annotationTextColorMap.get(key));
+			writeString(recordOut, annotationFontSizeMap.get(key));
+			writeString(recordOut, annotationBorderWidthMap.get(key));
+			writeString(recordOut, annotationTextMap.get(key));
+			writeString(recordOut, annotationShapeMap.get(key));
+			records.add(record.toByteArray());
+		}
+		writeRecords(out, records);
+	}
+
+	/**
+	 * Returns the name of a node or edge, or an empty string if it no longer has
+	 * a row (or a name) in the table.
+	 */
+	private static String elementName(CyTable table, Long suid) {
+		if (table == null || !table.rowExists(suid))
+			return "";
+		String name = table.getRow(suid).get(CyNetwork.NAME, String.class);
+		return name == null ? "" : name;
+	}
+
+	/**
+	 * Writes a set of records, sorted so that the order they were made in doesn't
+	 * matter.
+	 */
+	private static void writeRecords(DataOutput out, List<byte[]> records) throws IOException {
+		Collections.sort(records, new Comparator<byte[]>() {
+			public int compare(byte[] a, byte[] b) {
+				for (int i = 0; i < Math.min(a.length, b.length); i++) {
+					int diff = (a[i] & 0xff) - (b[i] & 0xff);
+					if (diff != 0)
+						return diff;
+				}
+				return a.length - b.length;
+			}
+		});
+		out.writeInt(records.size());
+		for (byte[] record: records) {
+			out.writeInt(record.length);
+			out.write(record);
+		}
+	}
+
+	private static void writeString(DataOutput out, Object value) throws IOException {
+		String string = FrameColumns.stableString(value);
+		out.writeInt(string.length());
+		out.writeChars(string);
+	}
+
 	/**
 	 * Returns the BundleContext of this CyFrame.
 	 * @return the BundleContext of this CyFrame.
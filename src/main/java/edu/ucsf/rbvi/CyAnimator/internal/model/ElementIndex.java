@@ -0,0 +1,104 @@
+package edu.ucsf.rbvi.CyAnimator.internal.model;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.model.subnetwork.CySubNetwork;
+
+/**
+ * Maps node or edge SUIDs to small, dense integers so that the visual properties
+ * stored in a frame can be kept in plain arrays (see FrameColumns).  There is one
+ * index for the nodes and one for the edges of each root network, and it is shared
+ * by every frame captured from or interpolated for that network, so an element has
+ * the same position in every frame.  Elements are only ever added to an index.
+ */
+class ElementIndex {
+	private static final Map<CyNetwork, ElementIndex> nodeIndices =
+		new WeakHashMap<CyNetwork, ElementIndex>();
+	private static final Map<CyNetwork, ElementIndex> edgeIndices =
+		new WeakHashMap<CyNetwork, ElementIndex>();
+
+	private final Map<Long, Integer> indexMap = new ConcurrentHashMap<Long, Integer>();
+	private volatile int size = 0;
+
+	/**
+	 * Returns the node index shared by all frames of a network.
+	 *
+	 * @param network the network (or one of the subnetworks of the root network)
+	 * @return the node index
+	 */
+	static ElementIndex getNodeIndex(CyNetwork network) {
+		return getIndex(nodeIndices, network);
+	}
+
+	/**
+	 * Returns the edge index shared by all frames of a network.
+	 *
+	 * @param network the network (or one of the subnetworks of the root network)
+	 * @return the edge index
+	 */
+	static ElementIndex getEdgeIndex(CyNetwork network) {
+		return getIndex(edgeIndices, network);
+	}
+
+	private static synchronized ElementIndex getIndex(Map<CyNetwork, ElementIndex> indices,
+	                                                  CyNetwork network) {
+		// SUIDs are shared between all of the subnetworks of a root network
+		if (network instanceof CySubNetwork)
+			network = ((CySubNetwork)network).getRootNetwork();
+
+		ElementIndex index = indices.get(network);
+		if (index == null) {
+			index = new ElementIndex();
+			indices.put(network, index);
+		}
+		return index;
+	}
+
+	/**
+	 * Returns the position of an element in this index.
+	 *
+	 * @param suid the SUID of the node or edge
+	 * @return the position, or -1 if the element has never been added
+	 */
+	int indexOf(long suid) {
+		Integer index = indexMap.get(suid);
+		if (index == null)
+			return -1;
+		return index;
+	}
+
+	/**
+	 * Returns the position of an element in this index, adding it if it
+	 * isn't there yet.
+	 *
+	 * @param suid the SUID of the node or edge
+	 * @return the position of the element
+	 */
+	int add(long suid) {
+		int index = indexOf(suid);
+		if (index >= 0)
+			return index;
+
+		synchronized (this) {
+			index = indexOf(suid);
+			if (index < 0) {
+				index = size;
+				indexMap.put(suid, index);
+				size = index + 1;
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * Returns the number of elements in this index.
+	 *
+	 * @return the number of elements
+	 */
+	int size() {
+		return size;
+	}
+}
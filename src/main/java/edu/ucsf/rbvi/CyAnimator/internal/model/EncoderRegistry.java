@@ -0,0 +1,92 @@
+package edu.ucsf.rbvi.CyAnimator.internal.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import edu.ucsf.rbvi.CyAnimator.api.FrameEncoder;
+
+/**
+ * Keeps track of the FrameEncoder services registered with OSGi, in the order
+ * given by their gravity.  Encoders come and go as bundles start and stop, so
+ * the list may change at any time.
+ */
+public class EncoderRegistry {
+	private final List<RegisteredEncoder> encoders = new ArrayList<RegisteredEncoder>();
+
+	private static class RegisteredEncoder {
+		final FrameEncoder encoder;
+		final double gravity;
+
+		RegisteredEncoder(FrameEncoder encoder, double gravity) {
+			this.encoder = encoder;
+			this.gravity = gravity;
+		}
+	}
+
+	/**
+	 * Called when a FrameEncoder service is registered.
+	 *
+	 * @param encoder the encoder
+	 * @param props the service properties
+	 */
+	public synchronized void addEncoder(FrameEncoder encoder, Map<?,?> props) {
+		double gravity = Double.MAX_VALUE;
+		Object value = props == null ? null : props.get(FrameEncoder.GRAVITY);
+		if (value != null) {
+			try {
+				gravity = Double.parseDouble(value.toString());
+			} catch (NumberFormatException e) {}
+		}
+		encoders.add(new RegisteredEncoder(encoder, gravity));
+		//a stable sort, so encoders of the same gravity stay in the order they came
+		Collections.sort(encoders, new Comparator<RegisteredEncoder>() {
+			public int compare(RegisteredEncoder a, RegisteredEncoder b) {
+				return Double.compare(a.gravity, b.gravity);
+			}
+		});
+	}
+
+	/**
+	 * Called when a FrameEncoder service is unregistered.
+	 *
+	 * @param encoder the encoder
+	 * @param props the service properties
+	 */
+	public synchronized void removeEncoder(FrameEncoder encoder, Map<?,?> props) {
+		for (int i = 0; i < encoders.size(); i++) {
+			if (encoders.get(i).encoder == encoder) {
+				encoders.remove(i);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Returns the registered encoders, in order.
+	 *
+	 * @return a copy of the list of encoders
+	 */
+	public synchronized List<FrameEncoder> getEncoders() {
+		List<FrameEncoder> list = new ArrayList<FrameEncoder>(encoders.size());
+		for (RegisteredEncoder registered: encoders)
+			list.add(registered.encoder);
+		return list;
+	}
+
+	/**
+	 * Returns the encoder with the given identifier.
+	 *
+	 * @param id the identifier
+	 * @return the encoder, or null if there isn't one
+	 */
+	public synchronized FrameEncoder getEncoder(String id) {
+		for (RegisteredEncoder registered: encoders) {
+			if (registered.encoder.getId().equals(id))
+				return registered.encoder;
+		}
+		return null;
+	}
+}
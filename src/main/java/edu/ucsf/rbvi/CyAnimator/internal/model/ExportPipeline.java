@@ -0,0 +1,224 @@
+package edu.ucsf.rbvi.CyAnimator.internal.model;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Overlaps rendering and encoding during an export.  The thread running the
+ * export renders frames (most of which happens on the event dispatch thread) and
+ * hands them over with put(); a worker thread encodes them in order while the
+ * next ones are being rendered.
+ *
+ * Only a fixed number of images exist at a time.  Once they are all waiting to be
+ * encoded, nextImage() blocks until the encoder hands one back, so rendering can't
+ * run ahead of encoding by more than that.
+ */
+class ExportPipeline {
+	/**
+	 * The encoding stage: writes one frame.  The image must not be kept after this
+	 * returns, since it is reused for a later frame.
+	 */
+	interface FrameWriter {
+		void write(int index, BufferedImage image) throws Exception;
+	}
+
+	// How long to block at a time before checking for cancellation or failure
+	private static final long WAIT_MS = 100;
+
+	private final FrameWriter writer;
+	private final int depth;
+	private final BlockingQueue<Entry> rendered;
+	private final BlockingQueue<BufferedImage> free;
+	private int allocated = 0;
+
+	private Thread worker = null;
+	private volatile boolean cancelled = false;
+	private volatile Exception failure = null;
+	// Set once the encoder has taken the end of the frames off the queue
+	private volatile boolean ended = false;
+
+	private static class Entry {
+		final int index;
+		final BufferedImage image;
+
+		Entry(int index, BufferedImage image) {
+			this.index = index;
+			this.image = image;
+		}
+	}
+
+	// Put on the queue after the last frame
+	private static final Entry END = new Entry(-1, null);
+
+	/**
+	 * Create a pipeline.  Nothing happens until it is started.
+	 *
+	 * @param writer the encoding stage
+	 * @param depth the number of frames that may be waiting to be encoded
+	 */
+	ExportPipeline(FrameWriter writer, int depth) {
+		this.writer = writer;
+		this.depth = Math.max(depth, 1);
+		this.rendered = new ArrayBlockingQueue<Entry>(this.depth+1);
+		this.free = new ArrayBlockingQueue<BufferedImage>(this.depth+1);
+	}
+
+	/**
+	 * Returns the most frames a pipeline holds on to at once: those waiting to be
+	 * encoded and the one being encoded.
+	 *
+	 * @param depth the number of frames that may be waiting to be encoded
+	 * @return the number of frames that may be in the pipeline
+	 */
+	static int capacity(int depth) {
+		return Math.max(depth, 1) + 2;
+	}
+
+	/**
+	 * Starts the encoding thread.
+	 */
+	synchronized void start() {
+		if (worker != null)
+			return;
+		worker = new Thread(new Runnable() {
+			public void run() {
+				encode();
+			}
+		}, "CyAnimator frame encoder");
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	/**
+	 * Returns an image to render the next frame into, waiting for the encoder to
+	 * finish with one if they are all in use.
+	 *
+	 * @return an image to reuse, or null if the renderer should create a new one
+	 * @throws Exception if encoding has failed
+	 * @throws InterruptedException if the pipeline is cancelled while waiting
+	 */
+	BufferedImage nextImage() throws Exception {
+		BufferedImage image = free.poll();
+		if (image != null)
+			return image;
+		if (allocated < depth+1) {
+			allocated++;
+			return null;
+		}
+		while (true) {
+			checkState();
+			image = free.poll(WAIT_MS, TimeUnit.MILLISECONDS);
+			if (image != null)
+				return image;
+		}
+	}
+
+	/**
+	 * Hands a rendered frame over to be encoded.  Frames must be put in order.
+	 *
+	 * @param index the index of the frame
+	 * @param image the rendered frame, which belongs to the pipeline from now on
+	 * @throws Exception if encoding has failed
+	 * @throws InterruptedException if the pipeline is cancelled while waiting
+	 */
+	void put(int index, BufferedImage image) throws Exception {
+		Entry entry = new Entry(index, image);
+		do {
+			checkState();
+		} while (!rendered.offer(entry, WAIT_MS, TimeUnit.MILLISECONDS));
+	}
+
+	/**
+	 * Waits for every frame that has been put to be encoded.
+	 *
+	 * @throws Exception if encoding failed
+	 * @throws InterruptedException if the pipeline is cancelled while waiting
+	 */
+	void finish() throws Exception {
+		do {
+			checkState();
+		} while (!rendered.offer(END, WAIT_MS, TimeUnit.MILLISECONDS));
+
+		awaitTermination();
+		checkState();
+	}
+
+	/**
+	 * Stops encoding and throws away any frames that haven't been encoded.  The
+	 * encoding thread is interrupted, so the frame being encoded may be left
+	 * unfinished.
+	 */
+	void cancel() {
+		cancelled = true;
+		Thread thread;
+		synchronized (this) {
+			thread = worker;
+		}
+		if (thread != null)
+			thread.interrupt();
+		rendered.clear();
+	}
+
+	/**
+	 * Waits for the encoding thread to stop, after the pipeline has finished or
+	 * been cancelled.
+	 *
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	void awaitTermination() throws InterruptedException {
+		Thread thread;
+		synchronized (this) {
+			thread = worker;
+		}
+		if (thread != null)
+			thread.join();
+	}
+
+	/**
+	 * Returns true if the pipeline has been cancelled.
+	 *
+	 * @return true if cancelled
+	 */
+	boolean isCancelled() {
+		return cancelled;
+	}
+
+	private void checkState() throws Exception {
+		if (failure != null)
+			throw failure;
+		if (cancelled)
+			throw new InterruptedException("Export cancelled");
+		Thread thread;
+		synchronized (this) {
+			thread = worker;
+		}
+		// Nothing would ever take the frames waiting for the encoder
+		if (thread != null && !thread.isAlive() && !ended)
+			throw new IllegalStateException("The encoder stopped before the last frame");
+	}
+
+	private void encode() {
+		try {
+			while (!cancelled) {
+				Entry entry = rendered.take();
+				if (entry == END) {
+					ended = true;
+					return;
+				}
+				writer.write(entry.index, entry.image);
+				free.offer(entry.image);
+			}
+		} catch (InterruptedException e) {
+			// We've been cancelled
+		} catch (Exception e) {
+			failure = e;
+		} catch (Throwable t) {
+			// An Error, such as running out of memory for a big frame, has to stop
+			// the export just the same
+			failure = new ExecutionException("Unable to encode frame", t);
+		}
+	}
+}
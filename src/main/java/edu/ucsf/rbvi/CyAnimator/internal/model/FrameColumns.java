@@ -0,0 +1,562 @@
+package edu.ucsf.rbvi.CyAnimator.internal.model;
+
+import java.awt.Color;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Column storage for the visual properties of either the nodes or the edges of a
+ * frame.  Each property is held in its own array (a column) whose entries are
+ * indexed through the ElementIndex of the network, so a frame costs a few
+ * primitive array slots per element instead of one boxed map entry per element and
+ * property.  Numeric properties are kept in double[] or int[] columns, colors are
+ * packed into an int as ARGB, and everything else (shapes, labels, fonts...) is
+ * kept by reference.
+ *
+ * Columns are allocated the first time a value is stored in them and grow with
+ * the index.  A property that has never been set for an element reads back as
+ * missing (null), just like a missing key in a map.
+ *
+ * A set of columns may be copy-on-write over a baseline: only the values that
+ * differ from the baseline are stored, and everything else is read from it.
+ * Storing the baseline's own value doesn't allocate anything, so a property that
+ * is the same in every frame of a segment costs the frames nothing.  The baseline
+ * is shared and must not be changed once frames are using it.
+ */
+class FrameColumns {
+	// The state of a double or int value: inherited from the baseline (or missing
+	// if there isn't one), set here, or removed here even though the baseline has it
+	private static final byte INHERIT = 0, SET = 1, CLEARED = 2;
+	// An object value removed here even though the baseline has it
+	private static final Object CLEARED_OBJECT = new Object();
+
+	private final ElementIndex index;
+	private final FrameColumns base;
+
+	private final double[][] doubles;
+	private final byte[][] doubleSet;
+	private final int[][] ints;
+	private final byte[][] intSet;
+	private final Object[][] objects;
+
+	// The number of slots reserved for writing from several threads, or 0
+	private int reserved = 0;
+
+	/**
+	 * Create an empty set of columns.
+	 *
+	 * @param index the index mapping SUIDs to positions in the columns
+	 * @param doubleCount the number of double valued properties
+	 * @param intCount the number of int valued (including color) properties
+	 * @param objectCount the number of object valued properties
+	 */
+	FrameColumns(ElementIndex index, int doubleCount, int intCount, int objectCount) {
+		this(index, null, doubleCount, intCount, objectCount);
+	}
+
+	/**
+	 * Create a set of columns which holds the same values as a baseline until they
+	 * are changed.
+	 *
+	 * @param base the baseline, which mustn't change while these columns use it
+	 */
+	FrameColumns(FrameColumns base) {
+		this(base.index, base, base.doubles.length, base.ints.length, base.objects.length);
+	}
+
+	private FrameColumns(ElementIndex index, FrameColumns base, int doubleCount, int intCount,
+	                     int objectCount) {
+		this.index = index;
+		this.base = base;
+		doubles = new double[doubleCount][];
+		doubleSet = new byte[doubleCount][];
+		ints = new int[intCount][];
+		intSet = new byte[intCount][];
+		objects = new Object[objectCount][];
+	}
+
+	/**
+	 * Returns the index used to address these columns.
+	 *
+	 * @return the element index
+	 */
+	ElementIndex getIndex() {
+		return index;
+	}
+
+	/**
+	 * Returns true if a double property has been set for an element.
+	 */
+	boolean hasDouble(int column, long suid) {
+		int slot = index.indexOf(suid);
+		return slot >= 0 && hasDoubleAt(column, slot);
+	}
+
+	/**
+	 * Returns a double property of an element, or the missing value if it hasn't been set.
+	 */
+	double getDouble(int column, long suid, double missing) {
+		if (!hasDouble(column, suid))
+			return missing;
+		return doubleAt(column, index.indexOf(suid));
+	}
+
+	/**
+	 * Returns a double property of an element, or null if it hasn't been set.
+	 */
+	Double getDouble(int column, long suid) {
+		if (!hasDouble(column, suid))
+			return null;
+		return doubleAt(column, index.indexOf(suid));
+	}
+
+	void setDouble(int column, long suid, double value) {
+		putDouble(column, index.add(suid), value);
+	}
+
+	/**
+	 * Sets a double property of an element; a null value removes it.
+	 */
+	void setDouble(int column, long suid, Double value) {
+		if (value == null)
+			clearDouble(column, suid);
+		else
+			setDouble(column, suid, value.doubleValue());
+	}
+
+	void clearDouble(int column, long suid) {
+		int slot = index.indexOf(suid);
+		if (slot < 0 || !hasDoubleAt(column, slot))
+			return;
+		if (base != null && base.hasDoubleAt(column, slot)) {
+			ensureDouble(column, slot);
+			doubleSet[column][slot] = CLEARED;
+		} else {
+			doubleSet[column][slot] = INHERIT;
+		}
+	}
+
+	/**
+	 * Returns true if an int property has been set for an element.
+	 */
+	boolean hasInt(int column, long suid) {
+		int slot = index.indexOf(suid);
+		return slot >= 0 && hasIntAt(column, slot);
+	}
+
+	/**
+	 * Returns an int property of an element, or null if it hasn't been set.
+	 */
+	Integer getInt(int column, long suid) {
+		if (!hasInt(column, suid))
+			return null;
+		return intAt(column, index.indexOf(suid));
+	}
+
+	/**
+	 * Sets an int property of an element; a null value removes it.
+	 */
+	void setInt(int column, long suid, Integer value) {
+		if (value == null) {
+			clearInt(column, suid);
+			return;
+		}
+		putInt(column, index.add(suid), value);
+	}
+
+	void clearInt(int column, long suid) {
+		int slot = index.indexOf(suid);
+		if (slot < 0 || !hasIntAt(column, slot))
+			return;
+		if (base != null && base.hasIntAt(column, slot)) {
+			ensureInt(column, slot);
+			intSet[column][slot] = CLEARED;
+		} else {
+			intSet[column][slot] = INHERIT;
+		}
+	}
+
+	/**
+	 * Returns a color property of an element, or null if it hasn't been set.  The
+	 * color is kept as packed ARGB in an int column.
+	 */
+	Color getColor(int column, long suid) {
+		if (!hasInt(column, suid))
+			return null;
+		return new Color(intAt(column, index.indexOf(suid)), true);
+	}
+
+	/**
+	 * Sets a color property of an element; a null value removes it.
+	 */
+	void setColor(int column, long suid, Color color) {
+		if (color == null)
+			clearInt(column, suid);
+		else
+			setInt(column, suid, color.getRGB());
+	}
+
+	/**
+	 * Returns an object property of an element, or null if it hasn't been set.
+	 */
+	@SuppressWarnings("unchecked")
+	<T> T getObject(int column, long suid) {
+		int slot = index.indexOf(suid);
+		if (slot < 0)
+			return null;
+		return (T)objectAt(column, slot);
+	}
+
+	void setObject(int column, long suid, Object value) {
+		putObject(column, index.add(suid), value);
+	}
+
+	/**
+	 * Returns true if a double property of an element differs from its value in
+	 * another set of columns.  A null set of columns always differs.
+	 */
+	boolean doubleChanged(FrameColumns shown, int column, long suid) {
+		if (shown == null || shown.index != index)
+			return true;
+		int slot = index.indexOf(suid);
+		if (bothInherit(shown, doubleSet, shown.doubleSet, column, slot))
+			return false;
+		boolean set = slot >= 0 && hasDoubleAt(column, slot);
+		if (set != (slot >= 0 && shown.hasDoubleAt(column, slot)))
+			return true;
+		return set && doubleAt(column, slot) != shown.doubleAt(column, slot);
+	}
+
+	/**
+	 * Returns true if an int (or color) property of an element differs from its
+	 * value in another set of columns.  A null set of columns always differs.
+	 */
+	boolean intChanged(FrameColumns shown, int column, long suid) {
+		if (shown == null || shown.index != index)
+			return true;
+		int slot = index.indexOf(suid);
+		if (bothInherit(shown, intSet, shown.intSet, column, slot))
+			return false;
+		boolean set = slot >= 0 && hasIntAt(column, slot);
+		if (set != (slot >= 0 && shown.hasIntAt(column, slot)))
+			return true;
+		return set && intAt(column, slot) != shown.intAt(column, slot);
+	}
+
+	/**
+	 * Returns true if an object property of an element isn't equal to its value in
+	 * another set of columns.  A null set of columns always differs.
+	 */
+	boolean objectChanged(FrameColumns shown, int column, long suid) {
+		if (shown == null || shown.index != index)
+			return true;
+		Object value = getObject(column, suid);
+		Object shownValue = shown.getObject(column, suid);
+		return value == null ? shownValue != null : !value.equals(shownValue);
+	}
+
+	/**
+	 * Stores, for every element, the values which are the same in two other sets
+	 * of columns.  This is how the baseline of a segment is made: any property
+	 * which doesn't change from one key frame to the next is then the baseline's
+	 * value in every frame in between, and isn't stored again by those frames.
+	 *
+	 * @param one the columns of the key frame the segment starts from
+	 * @param two the columns of the key frame the segment ends at
+	 */
+	void setConstants(FrameColumns one, FrameColumns two) {
+		if (one.index != index || two.index != index)
+			return;
+		int size = index.size();
+		for (int column = 0; column < doubles.length; column++) {
+			for (int slot = 0; slot < size; slot++) {
+				if (one.hasDoubleAt(column, slot) && two.hasDoubleAt(column, slot) &&
+				    one.doubleAt(column, slot) == two.doubleAt(column, slot))
+					putDouble(column, slot, one.doubleAt(column, slot));
+			}
+		}
+		for (int column = 0; column < ints.length; column++) {
+			for (int slot = 0; slot < size; slot++) {
+				if (one.hasIntAt(column, slot) && two.hasIntAt(column, slot) &&
+				    one.intAt(column, slot) == two.intAt(column, slot))
+					putInt(column, slot, one.intAt(column, slot));
+			}
+		}
+		for (int column = 0; column < objects.length; column++) {
+			for (int slot = 0; slot < size; slot++) {
+				Object value = one.objectAt(column, slot);
+				if (value != null && value.equals(two.objectAt(column, slot)))
+					putObject(column, slot, value);
+			}
+		}
+	}
+
+	/**
+	 * Reserves a slot for every element in a list, so that values for those
+	 * elements can be written from several threads at once, as long as no two
+	 * threads write the same column and element.  The elements are added to the
+	 * index, and every column is allocated to hold them, so none of the columns
+	 * will need to be reallocated while they are being written, even if other
+	 * frames add more elements to the shared index meanwhile.
+	 *
+	 * Columns over a baseline are left unallocated, since most of them will never
+	 * hold anything; the first value that differs from the baseline allocates the
+	 * column, to at least the reserved size, under a lock.  Once columns have been
+	 * reserved, writing an element which wasn't reserved throws an
+	 * IllegalStateException rather than grow a column another thread may be
+	 * writing.
+	 *
+	 * @param ids the SUIDs of the elements that will be written
+	 */
+	void reserve(List<Long> ids) {
+		for (Long id: ids)
+			index.add(id);
+		synchronized (this) {
+			reserved = Math.max(reserved, index.size());
+			int slot = reserved-1;
+			if (slot < 0 || base != null)
+				return;
+			for (int column = 0; column < doubles.length; column++)
+				ensureDouble(column, slot);
+			for (int column = 0; column < ints.length; column++)
+				ensureInt(column, slot);
+			for (int column = 0; column < objects.length; column++)
+				ensureObject(column, slot);
+		}
+	}
+
+	/**
+	 * Writes every value of one element, column by column, so that two elements
+	 * with the same values write the same data whatever their position in the
+	 * index and however big the columns are.  Object values are written as
+	 * strings (see stableString()).
+	 *
+	 * @param out where to write the values
+	 * @param suid the SUID of the node or edge
+	 * @throws IOException if the values can't be written
+	 */
+	void digest(DataOutput out, long suid) throws IOException {
+		for (int column = 0; column < doubles.length; column++) {
+			boolean set = hasDouble(column, suid);
+			out.writeBoolean(set);
+			if (set) out.writeDouble(getDouble(column, suid, 0.0));
+		}
+		for (int column = 0; column < ints.length; column++) {
+			Integer value = getInt(column, suid);
+			out.writeBoolean(value != null);
+			if (value != null) out.writeInt(value);
+		}
+		for (int column = 0; column < objects.length; column++) {
+			Object value = getObject(column, suid);
+			out.writeBoolean(value != null);
+			if (value != null) {
+				String string = stableString(value);
+				out.writeInt(string.length());
+				out.writeChars(string);
+			}
+		}
+	}
+
+	/**
+	 * Returns a string for a value which is the same every time the value is
+	 * created, even in another session.  Values whose class doesn't say what they
+	 * are in toString() would otherwise be written with their identity hash code,
+	 * so only their class is used.
+	 *
+	 * @param value the value, which may be null
+	 * @return the string
+	 */
+	static String stableString(Object value) {
+		if (value == null)
+			return "null";
+		try {
+			if (value.getClass().getMethod("toString").getDeclaringClass() == Object.class)
+				return value.getClass().getName();
+		} catch (NoSuchMethodException e) {
+			// Every class has toString()
+		}
+		return value.toString();
+	}
+
+	private boolean hasDoubleAt(int column, int slot) {
+		byte state = stateAt(doubleSet[column], slot);
+		if (state == INHERIT)
+			return base != null && base.hasDoubleAt(column, slot);
+		return state == SET;
+	}
+
+	private double doubleAt(int column, int slot) {
+		if (stateAt(doubleSet[column], slot) == SET)
+			return doubles[column][slot];
+		return base.doubleAt(column, slot);
+	}
+
+	private boolean hasIntAt(int column, int slot) {
+		byte state = stateAt(intSet[column], slot);
+		if (state == INHERIT)
+			return base != null && base.hasIntAt(column, slot);
+		return state == SET;
+	}
+
+	private int intAt(int column, int slot) {
+		if (stateAt(intSet[column], slot) == SET)
+			return ints[column][slot];
+		return base.intAt(column, slot);
+	}
+
+	private Object objectAt(int column, int slot) {
+		Object[] values = objects[column];
+		Object value = values == null || slot >= values.length ? null : values[slot];
+		if (value == CLEARED_OBJECT)
+			return null;
+		if (value == null && base != null)
+			return base.objectAt(column, slot);
+		return value;
+	}
+
+	private static byte stateAt(byte[] states, int slot) {
+		return states == null || slot >= states.length ? INHERIT : states[slot];
+	}
+
+	/**
+	 * Returns true if a value is inherited by both sets of columns from the same
+	 * baseline, in which case it can't differ.
+	 */
+	private boolean bothInherit(FrameColumns shown, byte[][] states, byte[][] shownStates,
+	                            int column, int slot) {
+		return base != null && base == shown.base && slot >= 0 &&
+			stateAt(states[column], slot) == INHERIT && stateAt(shownStates[column], slot) == INHERIT;
+	}
+
+	private void putDouble(int column, int slot, double value) {
+		if (base != null && base.hasDoubleAt(column, slot) && base.doubleAt(column, slot) == value) {
+			if (stateAt(doubleSet[column], slot) != INHERIT)
+				doubleSet[column][slot] = INHERIT;
+			return;
+		}
+		ensureDouble(column, slot);
+		doubles[column][slot] = value;
+		doubleSet[column][slot] = SET;
+	}
+
+	private void putInt(int column, int slot, int value) {
+		if (base != null && base.hasIntAt(column, slot) && base.intAt(column, slot) == value) {
+			if (stateAt(intSet[column], slot) != INHERIT)
+				intSet[column][slot] = INHERIT;
+			return;
+		}
+		ensureInt(column, slot);
+		ints[column][slot] = value;
+		intSet[column][slot] = SET;
+	}
+
+	private void putObject(int column, int slot, Object value) {
+		if (base != null) {
+			Object baseValue = base.objectAt(column, slot);
+			if (value == null ? baseValue == null : value.equals(baseValue)) {
+				Object[] values = objects[column];
+				if (values != null && slot < values.length)
+					values[slot] = null;
+				return;
+			}
+			if (value == null)
+				value = CLEARED_OBJECT;
+		}
+		ensureObject(column, slot);
+		objects[column][slot] = value;
+	}
+
+	private int doubleSize(int column) {
+		int size = doubles[column] == null ? 0 : doubles[column].length;
+		return base == null ? size : Math.max(size, base.doubleSize(column));
+	}
+
+	private int intSize(int column) {
+		int size = ints[column] == null ? 0 : ints[column].length;
+		return base == null ? size : Math.max(size, base.intSize(column));
+	}
+
+	private int objectSize(int column) {
+		int size = objects[column] == null ? 0 : objects[column].length;
+		return base == null ? size : Math.max(size, base.objectSize(column));
+	}
+
+	/**
+	 * Returns the new length of a column that has to hold a slot.  Columns are made
+	 * as big as the index, and at least double in length when they grow, so that
+	 * filling a frame one element at a time while the index grows doesn't copy the
+	 * column again for every new element.  A column that already exists can't grow
+	 * once the columns have been reserved: another thread might be writing to it,
+	 * and its write would be lost in the copy.  Must be called holding the lock.
+	 */
+	private int grownSize(int length, int slot) {
+		if (length > 0 && reserved > 0)
+			throw new IllegalStateException("Element "+slot+" wasn't reserved, only "+reserved+" were");
+		return Math.max(slot+1, Math.max(Math.max(index.size(), reserved), 2*length));
+	}
+
+	// The ensure methods may be called from several interpolation threads at once
+	// for reserved columns over a baseline, which aren't allocated up front.  A
+	// column is only ever allocated or replaced under the lock, which makes sure
+	// only one thread allocates it and that the others see it; once the columns
+	// have been reserved, a column that exists is never replaced, so writing to it
+	// without the lock can't lose anything.
+
+	private void ensureDouble(int column, int slot) {
+		double[] values = doubles[column];
+		byte[] set = doubleSet[column];
+		if (values != null && set != null && slot < values.length)
+			return;
+		synchronized (this) {
+			values = doubles[column];
+			if (values != null && slot < values.length)
+				return;
+			int size = grownSize(values == null ? 0 : values.length, slot);
+			if (values == null) {
+				doubleSet[column] = new byte[size];
+				doubles[column] = new double[size];
+			} else {
+				doubleSet[column] = Arrays.copyOf(doubleSet[column], size);
+				doubles[column] = Arrays.copyOf(values, size);
+			}
+		}
+	}
+
+	private void ensureInt(int column, int slot) {
+		int[] values = ints[column];
+		byte[] set = intSet[column];
+		if (values != null && set != null && slot < values.length)
+			return;
+		synchronized (this) {
+			values = ints[column];
+			if (values != null && slot < values.length)
+				return;
+			int size = grownSize(values == null ? 0 : values.length, slot);
+			if (values == null) {
+				intSet[column] = new byte[size];
+				ints[column] = new int[size];
+			} else {
+				intSet[column] = Arrays.copyOf(intSet[column], size);
+				ints[column] = Arrays.copyOf(values, size);
+			}
+		}
+	}
+
+	private void ensureObject(int column, int slot) {
+		Object[] values = objects[column];
+		if (values != null && slot < values.length)
+			return;
+		synchronized (this) {
+			values = objects[column];
+			if (values != null && slot < values.length)
+				return;
+			int size = grownSize(values == null ? 0 : values.length, slot);
+			if (values == null)
+				objects[column] = new Object[size];
+			else
+				objects[column] = Arrays.copyOf(values, size);
+		}
+	}
+}
@@ -14,12 +14,19 @@ package edu.ucsf.rbvi.CyAnimator.internal.model;
 
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import javax.swing.SwingUtilities;
 import javax.swing.Timer;
 
 import org.cytoscape.model.CyNetwork;
@@ -28,27 +35,62 @@ import org.cytoscape.model.subnetwork.CySubNetwork;
 import org.cytoscape.service.util.CyServiceRegistrar;
 import org.cytoscape.work.TaskIterator;
 import org.cytoscape.work.TaskManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.ucsf.rbvi.CyAnimator.api.FrameEncoder;
 
 public class FrameManager {
+	private static Logger logger = LoggerFactory.getLogger(FrameManager.class);
 	private static Map<CyRootNetwork, FrameManager> networkMap = null;
 
 	//Holds the set of all key frames in order
 	private ArrayList<CyFrame> keyFrameList = null;
 
 	//Holds the set of all frames following interpolation of the key frames.
-	CyFrame[] frames = null;
+	FrameTimeline timeline = null;
+
+	//If true, frames are only interpolated when they are about to be shown
+	private boolean lazyTimeline = true;
+
+	//If true, frames are interpolated on all of the available processors
+	private boolean parallelInterpolation = true;
 
 	//Timer that controls the animations, its public so that a slider etc.. can adjust the delay
 	public Timer timer;
 
 	//frames per second
 	public int fps = 30;
-	private int videoType = 1;
+	//the identifier of the FrameEncoder recordings are written with
+	private String encoderId = "gif";
 	private int videoResolution = 100;
 	private CyServiceRegistrar bundleContext;
 	private TaskManager<?,?> taskManager;
 	//keeps track of the current frame being displayed during animation
 	int frameIndex = 0;
+	//the frame shown by the last tick of the timer, so the next one only has to
+	//update what changed.  Reset whenever the user may have touched the view.
+	private CyFrame shownFrame = null;
+	//stand-ins for deleted nodes and edges, kept while the animation plays
+	private GhostElementPool ghosts = null;
+	//gets the next few frames ready in the background while the animation plays
+	private FramePrefetcher prefetcher = null;
+	private int prefetchDepth = 8;
+	//decides which frame should be showing, so playback keeps to the wall clock
+	private PlaybackClock clock = new PlaybackClock(fps);
+
+	//gets the frames asked for by seek() ready in the background
+	private FrameSeeker seeker = null;
+	//the frame last displayed by seek(), so the next one only has to change what differs
+	private CyFrame seekFrame = null;
+	//the frames of the animation that are recorded
+	private FrameRange recordingRange = FrameRange.ALL;
+	//if true, recordings keep their rendered frames until they complete, so a
+	//cancelled recording can be resumed.  Off unless asked for, since every frame
+	//is kept on disk uncompressed
+	private boolean resumableRecording = false;
+	//number of threads an encoder may encode frames on at once
+	private int encoderThreads = Runtime.getRuntime().availableProcessors();
 
 	static public FrameManager getFrameManager(CyServiceRegistrar bc, CyNetwork network) {
 		// Get the root network
@@ -150,29 +192,56 @@ public class FrameManager {
 	public void makeTimer(){
 	
 		frameIndex = 0;
+		shownFrame = null;
+		cancelSeek();
+		stopPrefetcher();
+		releaseGhosts();
 	
 		//Create a new interpolator
-		Interpolator lint = new Interpolator();
+		Interpolator lint;
+		if(parallelInterpolation){
+			lint = new Interpolator(Interpolator.getSharedExecutor());
+		}else{
+			lint = new Interpolator();
+		}
 	
-		//interpolate between all of the key frames in the list to fill the array
-		frames = lint.makeFrames(keyFrameList);
+		//set up the interpolation between all of the key frames in the list, keeping
+		//any segments of the previous timeline that the key frame edits didn't touch
+		timeline = new FrameTimeline(lint, keyFrameList, lazyTimeline, timeline);
 	
-		//timer delay is set in milliseconds, so 1000/fps gives delay per frame
-		int delay = 1000/fps; 
 	
 	
 		ActionListener taskPerformer = new ActionListener() {
 
 			public void actionPerformed(ActionEvent evt) {
-				if(frameIndex == frames.length){ frameIndex = 0;}
-
-				frames[frameIndex].display();
-				frames[frameIndex].clearDisplay();
-				frameIndex++;
+				if(timeline.getFrameCount() == 0){ return; }
+				if(frameIndex >= timeline.getFrameCount()){ frameIndex = 0;}
+
+				startPrefetcher();
+				FramePrefetcher.PreparedFrame prepared = prefetcher.poll(clock.currentFrame());
+
+				//no new frame is due (or ready) yet, so leave this one up
+				if(prepared == null){
+					RuntimeException failure = prefetcher.getFailure();
+					if(failure != null){
+						//no more frames are coming, so don't keep playing
+						logger.error("Playback stopped: unable to prepare frame", failure);
+						pause();
+					}
+					return;
+				}
+
+				CyFrame frame = prepared.frame;
+				frame.display(shownFrame, ghosts, prepared.batch);
+				frame.clearDisplay();
+				shownFrame = frame;
+				clock.frameShown(prepared.sequence);
+				frameIndex = prepared.index+1;
 			}
 		};
 
-		timer = new Timer(delay, taskPerformer);	
+		timer = new Timer(tickDelay(fps), taskPerformer);
+		timer.setInitialDelay(0);
 	}
 
 
@@ -198,7 +267,12 @@ public class FrameManager {
 	 * 
 	 */
 	public void recordAnimation(String directory) throws IOException {
-		WriteTask task = new WriteTask(this, "Writing output files", directory, videoType, videoResolution);
+		EncoderRegistry registry = bundleContext.getService(EncoderRegistry.class);
+		FrameEncoder encoder = registry == null ? null : registry.getEncoder(encoderId);
+		if (encoder == null)
+			throw new IOException("No encoder is available for "+encoderId);
+		WriteTask task = new WriteTask(this, "Writing output files", directory, encoder, videoResolution,
+		                               recordingRange);
 		taskManager.execute(new TaskIterator(task));
 	}
 
@@ -207,8 +281,10 @@ public class FrameManager {
 	 */
 	public void play(){
 		if(timer == null){ return; }
-		//1000ms in a second, so divided by frames per second gives ms interval 
-		timer.setDelay(1000/fps);
+		setPlaybackRate(fps);
+		shownFrame = null;
+		cancelSeek();
+		if(timeline.getFrameCount() > 0){ startPrefetcher(); }
 		timer.start();
 	}
 
@@ -227,36 +303,137 @@ public class FrameManager {
 	public void pause(){
 		if(timer == null){ return; }
 		timer.stop();
+		stopPrefetcher();
+		releaseGhosts();
+	}
+
+	/**
+	 * Starts getting frames ready in the background from the current frame on,
+	 * unless that is already happening.
+	 */
+	private void startPrefetcher(){
+		if(prefetcher != null){ return; }
+		if(ghosts == null){ ghosts = new GhostElementPool(bundleContext); }
+		clock.start(frameIndex);
+		prefetcher = new FramePrefetcher(timeline, ghosts.getView(), clock, frameIndex, prefetchDepth);
+		prefetcher.start();
+	}
+
+	/**
+	 * Stops getting frames ready in the background.
+	 */
+	private void stopPrefetcher(){
+		if(prefetcher == null){ return; }
+		prefetcher.stop();
+		prefetcher = null;
+		clock.stop();
+	}
+
+	/**
+	 * Removes the stand-ins for deleted nodes and edges that were added to the
+	 * network while the animation was playing.
+	 */
+	private void releaseGhosts(){
+		if(ghosts == null){ return; }
+		ghosts.dispose();
+		ghosts = null;
+		shownFrame = null;
 	}
 
 	/**
 	 * Steps forward one frame in the animation.
 	 */
 	public void stepForward(){
-		if(timer == null){ return; }
+		if(timer == null || timeline.getFrameCount() == 0){ return; }
 		timer.stop();
+		cancelSeek();
+		stopPrefetcher();
+		releaseGhosts();
 	
 		//check to see if we have reached the last frame
-		if(frameIndex == frames.length-1){ frameIndex = 0; }
+		if(frameIndex >= timeline.getFrameCount()-1){ frameIndex = 0; }
 		else{ frameIndex++; }
 	
-		frames[frameIndex].display();
-                frames[frameIndex].clearDisplay();
+		CyFrame frame = timeline.getFrame(frameIndex);
+		frame.display();
+		frame.clearDisplay();
 	}
 
 	/**
 	 * Steps backwards one frame in the animation.
 	 */
 	public void stepBackward(){
-		if(timer == null){ return; }
+		if(timer == null || timeline.getFrameCount() == 0){ return; }
 		timer.stop();
+		cancelSeek();
+		stopPrefetcher();
+		releaseGhosts();
 	
 		//check to see if we are back to the first frame
-		if(frameIndex == 0){ frameIndex = frames.length-1; }
+		if(frameIndex <= 0 || frameIndex >= timeline.getFrameCount()){ frameIndex = timeline.getFrameCount()-1; }
 		else{ frameIndex--; }
 	
-		frames[frameIndex].display();
-                frames[frameIndex].clearDisplay();
+		CyFrame frame = timeline.getFrame(frameIndex);
+		frame.display();
+		frame.clearDisplay();
+	}
+
+	/**
+	 * Jumps to a frame of the animation, stopping playback if it is running.  The
+	 * frame is interpolated in the background and displayed when it is ready, so
+	 * this returns straight away.  Calls made in quick succession (for example
+	 * while a slider is dragged) are coalesced: only the most recently requested
+	 * frame is worked out and displayed.  Only key frame data is read off the
+	 * event dispatch thread; stopping playback and displaying the frame are
+	 * always done on it, so this may be called from any thread.
+	 *
+	 * @param index the index of the frame, which is clamped to the animation
+	 */
+	public void seek(final int index){
+		if(!SwingUtilities.isEventDispatchThread()){
+			SwingUtilities.invokeLater(new Runnable() {
+				public void run() {
+					seek(index);
+				}
+			});
+			return;
+		}
+		if(timer == null || timeline.getFrameCount() == 0){ return; }
+		if(timer.isRunning() || prefetcher != null){
+			timer.stop();
+			stopPrefetcher();
+			releaseGhosts();
+		}
+
+		int clamped = Math.max(0, Math.min(index, timeline.getFrameCount()-1));
+		if(seeker == null){
+			seeker = new FrameSeeker(new FrameSeeker.Display() {
+				public void showFrame(int index, CyFrame frame) {
+					frame.display(seekFrame);
+					frame.clearDisplay();
+					seekFrame = frame;
+					frameIndex = index;
+				}
+			});
+		}
+		seeker.seek(timeline, clamped);
+	}
+
+	/**
+	 * Returns the index of the frame that was displayed last.
+	 *
+	 * @return the current frame
+	 */
+	public int getFrameIndex(){
+		return frameIndex;
+	}
+
+	/**
+	 * Drops any frames asked for by seek() that haven't been displayed yet.
+	 */
+	private void cancelSeek(){
+		if(seeker != null){ seeker.cancel(); }
+		seekFrame = null;
 	}
 
 	/**
@@ -283,6 +460,247 @@ public class FrameManager {
 		}
 	}
 
+	/**
+	 * Returns the number of frames in the animation, including the
+	 * interpolated ones.
+	 *
+	 * @return the number of frames
+	 */
+	public int getFrameCount(){
+		if(timeline == null){ return 0; }
+		return timeline.getFrameCount();
+	}
+
+	/**
+	 * Returns a frame of the animation.  In lazy mode the frame is
+	 * interpolated on demand.
+	 *
+	 * @param index the index of the frame
+	 * @return the frame
+	 */
+	public CyFrame getFrame(int index){
+		return timeline.getFrame(index);
+	}
+
+	/**
+	 * Returns a frame of the animation for a recording of only some of its
+	 * frames.  Frames outside the range are never interpolated.
+	 *
+	 * @param index the index of the frame in the animation
+	 * @param range the frames being recorded
+	 * @return the frame
+	 */
+	public CyFrame getFrame(int index, FrameRange range){
+		return timeline.getFrame(index, range);
+	}
+
+	/**
+	 * Chooses whether frames are interpolated on demand (the default) or
+	 * all at once whenever the key frames change.
+	 *
+	 * @param lazy true to interpolate frames only when they are needed
+	 */
+	public void setLazyTimeline(boolean lazy){
+		if(lazyTimeline == lazy){ return; }
+		lazyTimeline = lazy;
+		if(timer != null){
+			updateTimer();
+		}
+	}
+
+	/**
+	 * Returns true if frames are interpolated on demand.
+	 *
+	 * @return true if the timeline is lazy
+	 */
+	public boolean isLazyTimeline(){
+		return lazyTimeline;
+	}
+
+	/**
+	 * Chooses whether frames are interpolated on all of the available
+	 * processors (the default) or serially on the calling thread.  Both
+	 * produce exactly the same frames.
+	 *
+	 * @param parallel true to interpolate in parallel
+	 */
+	public void setParallelInterpolation(boolean parallel){
+		if(parallelInterpolation == parallel){ return; }
+		parallelInterpolation = parallel;
+		if(timer != null){
+			updateTimer();
+		}
+	}
+
+	/**
+	 * Returns true if frames are interpolated in parallel.
+	 *
+	 * @return true if interpolation is parallel
+	 */
+	public boolean isParallelInterpolation(){
+		return parallelInterpolation;
+	}
+
+	/**
+	 * Sets the speed the animation plays at.
+	 *
+	 * @param rate the number of frames per second
+	 */
+	public void setPlaybackRate(int rate){
+		if(rate <= 0){ return; }
+		clock.setRate(rate);
+		if(timer != null){
+			timer.setDelay(tickDelay(rate));
+		}
+	}
+
+	/**
+	 * Returns the number of frames that were skipped during playback because
+	 * they weren't ready in time.
+	 *
+	 * @return the number of dropped frames
+	 */
+	public long getDroppedFrames(){
+		return clock.getDroppedFrames();
+	}
+
+	/**
+	 * Returns the timer delay for a frame rate.  The timer ticks twice per
+	 * frame so that a late tick doesn't make the next frame look late too; the
+	 * clock decides which frame each tick shows.
+	 */
+	private static int tickDelay(int rate){
+		//timer delay is set in milliseconds, so 1000/fps gives delay per frame
+		return Math.max(1, 1000/(2*rate));
+	}
+
+	/**
+	 * Sets how many frames are got ready ahead of the one showing while the
+	 * animation plays.
+	 *
+	 * @param depth the number of frames to prepare ahead
+	 */
+	public void setPrefetchDepth(int depth){
+		prefetchDepth = Math.max(depth, 1);
+	}
+
+	/**
+	 * Returns how many frames are got ready ahead of the one showing.
+	 *
+	 * @return the number of frames prepared ahead
+	 */
+	public int getPrefetchDepth(){
+		return prefetchDepth;
+	}
+
+	/**
+	 * Sets how many threads encoders that can encode in parallel (the optimized
+	 * GIF, say) may use.  With one thread, frames are encoded one at a time as
+	 * they are written.
+	 *
+	 * @param threads the number of encoder threads
+	 */
+	public void setEncoderThreads(int threads){
+		encoderThreads = Math.max(threads, 1);
+	}
+
+	/**
+	 * Returns how many threads encoders that can encode in parallel may use.
+	 *
+	 * @return the number of encoder threads
+	 */
+	public int getEncoderThreads(){
+		return encoderThreads;
+	}
+
+	/**
+	 * Sets which frames of the animation are recorded, for a quick preview of
+	 * part of it.  Frames outside the range aren't interpolated or rendered.
+	 *
+	 * @param range the frames to record, or null to record all of them
+	 */
+	public void setRecordingRange(FrameRange range){
+		recordingRange = range == null ? FrameRange.ALL : range;
+	}
+
+	/**
+	 * Returns the frames of the animation that are recorded.
+	 *
+	 * @return the recorded frames
+	 */
+	public FrameRange getRecordingRange(){
+		return recordingRange;
+	}
+
+	/**
+	 * Sets whether recordings can be resumed.  A resumable recording keeps every
+	 * frame it renders in the output directory until it completes, so recording
+	 * the same animation again after a cancel (or a crash) only renders the frames
+	 * that weren't done; the frames are encoded from the start again.  Every frame
+	 * is kept uncompressed, which can take gigabytes of disk for a long recording,
+	 * so recordings aren't resumable unless this is turned on.
+	 *
+	 * @param resumable true if recordings should be resumable
+	 */
+	public void setResumableRecording(boolean resumable){
+		resumableRecording = resumable;
+	}
+
+	/**
+	 * Returns true if recordings can be resumed.
+	 *
+	 * @return true if recordings are resumable
+	 */
+	public boolean isResumableRecording(){
+		return resumableRecording;
+	}
+
+	/**
+	 * Returns a hash of the current timeline: the state of each key frame and the
+	 * number of frames between them.  Two timelines with the same hash produce the
+	 * same frames, and the hash only depends on what the key frames hold, so the
+	 * same animation has the same hash after the session is reloaded.
+	 *
+	 * @return the hash, as a hex string
+	 */
+	String getTimelineHash(){
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new DigestOutputStream(
+			new OutputStream() {
+				public void write(int b) {}
+			}, digest)));
+		try {
+			if(timeline != null){
+				for(CyFrame frame: timeline.getKeyFrames()){
+					frame.digest(out);
+				}
+			}
+			out.close();
+		} catch (IOException e) {
+			//nothing is actually written anywhere
+			throw new IllegalStateException(e);
+		}
+		StringBuilder hex = new StringBuilder();
+		for(byte b: digest.digest()){
+			hex.append(String.format("%02x", b & 0xff));
+		}
+		return hex.toString();
+	}
+
+	/**
+	 * Returns the service registrar this frame manager was created with.
+	 *
+	 * @return the service registrar
+	 */
+	public CyServiceRegistrar getBundleContext(){
+		return bundleContext;
+	}
+
 	/**
 	 * Returns the current timer.
 	 * 
@@ -296,9 +714,9 @@ public class FrameManager {
 	 * update frame and video related settings.
 	 * @return
 	 */
-	public void updateSettings(int frameCount, int videoType, int videoResolution){
+	public void updateSettings(int frameCount, String encoderId, int videoResolution){
 		this.fps = frameCount;
-		this.videoType = videoType;
+		this.encoderId = encoderId;
 		this.videoResolution = videoResolution;
 	}
 }
@@ -0,0 +1,146 @@
+package edu.ucsf.rbvi.CyAnimator.internal.model;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.cytoscape.view.model.CyNetworkView;
+
+/**
+ * Gets the frames of a playing animation ready ahead of time.  A background thread
+ * walks through the timeline from a starting frame (wrapping around at the end, as
+ * playback does), interpolating frames as needed and working out the visual
+ * property changes for each one against the frame before it.  Up to depth frames
+ * are kept ready; the playback timer then only has to apply them.  If the playback
+ * clock has already moved past the next frame, the frames in between are skipped.
+ *
+ * If a frame can't be got ready, the prefetcher stops and keeps the exception,
+ * so playback can be stopped rather than wait for frames that will never come.
+ */
+class FramePrefetcher {
+	private final FrameTimeline timeline;
+	private final CyNetworkView view;
+	private final PlaybackClock clock;
+	private final BlockingQueue<PreparedFrame> ready;
+	private final long startSequence;
+
+	private Thread worker = null;
+	private volatile boolean running = false;
+	private volatile RuntimeException failure = null;
+
+	/**
+	 * A frame that is ready to be displayed.
+	 */
+	static class PreparedFrame {
+		final long sequence;
+		final int index;
+		final CyFrame frame;
+		final PropertyBatch batch;
+
+		PreparedFrame(long sequence, int index, CyFrame frame, PropertyBatch batch) {
+			this.sequence = sequence;
+			this.index = index;
+			this.frame = frame;
+			this.batch = batch;
+		}
+	}
+
+	/**
+	 * Create a prefetcher.  Nothing happens until it is started.
+	 *
+	 * @param timeline the frames of the animation
+	 * @param view the network view the frames will be displayed on
+	 * @param clock the clock playback follows
+	 * @param startSequence the sequence number of the first frame to get ready
+	 * @param depth the number of frames to keep ready
+	 */
+	FramePrefetcher(FrameTimeline timeline, CyNetworkView view, PlaybackClock clock,
+	                long startSequence, int depth) {
+		this.timeline = timeline;
+		this.view = view;
+		this.clock = clock;
+		this.startSequence = startSequence;
+		this.ready = new ArrayBlockingQueue<PreparedFrame>(Math.max(depth, 1));
+	}
+
+	/**
+	 * Starts getting frames ready in the background.
+	 */
+	synchronized void start() {
+		if (running || timeline.getFrameCount() == 0)
+			return;
+		running = true;
+		worker = new Thread(new Runnable() {
+			public void run() {
+				prefetch();
+			}
+		}, "CyAnimator frame prefetcher");
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	/**
+	 * Returns the latest ready frame which is due at or before the given sequence
+	 * number, throwing away any earlier ones.
+	 *
+	 * @param due the sequence number of the frame that should be showing
+	 * @return the frame to show, or null if none is ready
+	 */
+	PreparedFrame poll(long due) {
+		PreparedFrame show = null;
+		PreparedFrame next;
+		while ((next = ready.peek()) != null && next.sequence <= due) {
+			show = ready.poll();
+		}
+		return show;
+	}
+
+	/**
+	 * Returns the exception that stopped the background thread from getting any
+	 * more frames ready, once the frames it did get ready have all been taken.
+	 *
+	 * @return the failure, or null if there are frames to come
+	 */
+	RuntimeException getFailure() {
+		return ready.isEmpty() ? failure : null;
+	}
+
+	/**
+	 * Stops the background thread and throws away whatever was ready.
+	 */
+	synchronized void stop() {
+		running = false;
+		if (worker != null) {
+			worker.interrupt();
+			worker = null;
+		}
+		ready.clear();
+	}
+
+	private void prefetch() {
+		int frameCount = timeline.getFrameCount();
+		long sequence = startSequence;
+		CyFrame previous = null;
+		try {
+			while (running) {
+				// Don't bother with frames that are already late
+				long due = clock.currentFrame();
+				if (sequence < due)
+					sequence = due;
+
+				int index = (int)(sequence % frameCount);
+				CyFrame frame = timeline.getFrame(index);
+				PropertyBatch batch = frame.prepare(previous, view);
+				ready.put(new PreparedFrame(sequence, index, frame, batch));
+				previous = frame;
+				sequence++;
+			}
+		} catch (InterruptedException e) {
+			// We've been stopped
+		} catch (RuntimeException e) {
+			// Stopping interrupts the thread, which may make the interpolation
+			// fail; otherwise the frame really couldn't be got ready
+			if (running)
+				failure = e;
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package edu.ucsf.rbvi.CyAnimator.internal.model;
+
+/**
+ * The frames of an animation a recording is made from: every stride'th frame
+ * from first to last (inclusive).  Recording a range, say frames 300 to 450 or
+ * every 4th frame, makes a quick preview of part of a long animation; frames
+ * outside the range are never interpolated, displayed or rendered.
+ */
+public class FrameRange {
+	/** Every frame of the animation */
+	public static final FrameRange ALL = new FrameRange(0, Integer.MAX_VALUE, 1);
+
+	private final int first;
+	private final int last;
+	private final int stride;
+
+	/**
+	 * Create a range.
+	 *
+	 * @param first the first frame
+	 * @param last the last frame, which is only included if the stride lands on it
+	 * @param stride the number of frames from one recorded frame to the next
+	 * @throws IllegalArgumentException if first is negative, last is before first
+	 * or stride is less than 1
+	 */
+	public FrameRange(int first, int last, int stride) {
+		if (first < 0 || last < first || stride < 1)
+			throw new IllegalArgumentException("Invalid frame range "+first+"-"+last+" step "+stride);
+		this.first = first;
+		this.last = last;
+		this.stride = stride;
+	}
+
+	public int getFirst() { return first; }
+
+	public int getLast() { return last; }
+
+	public int getStride() { return stride; }
+
+	/**
+	 * Returns the number of frames of an animation that are in the range.
+	 *
+	 * @param frameCount the number of frames in the animation
+	 * @return the number of frames to record
+	 */
+	public int size(int frameCount) {
+		int end = Math.min(last, frameCount-1);
+		if (end < first)
+			return 0;
+		return (end - first) / stride + 1;
+	}
+
+	/**
+	 * Returns the frame of the animation that is recorded as a given frame.
+	 *
+	 * @param index the index of the frame in the recording
+	 * @return the index of the frame in the animation
+	 */
+	public int frameAt(int index) {
+		return first + index * stride;
+	}
+
+	/**
+	 * Returns true if a frame of the animation is in the range.
+	 *
+	 * @param frame the index of the frame in the animation
+	 * @return true if the frame is recorded
+	 */
+	public boolean contains(int frame) {
+		return frame >= first && frame <= last && (frame - first) % stride == 0;
+	}
+
+	/**
+	 * Returns true if the range holds every frame of an animation.
+	 *
+	 * @param frameCount the number of frames in the animation
+	 * @return true if no frame is left out
+	 */
+	public boolean isComplete(int frameCount) {
+		return first == 0 && stride == 1 && last >= frameCount-1;
+	}
+
+	public boolean equals(Object o) {
+		if (!(o instanceof FrameRange))
+			return false;
+		FrameRange range = (FrameRange)o;
+		return first == range.first && last == range.last && stride == range.stride;
+	}
+
+	public int hashCode() {
+		return 31*(31*first + last) + stride;
+	}
+
+	public String toString() {
+		return first+"-"+last+"/"+stride;
+	}
+}
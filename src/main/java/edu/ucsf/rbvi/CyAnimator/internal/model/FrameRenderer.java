@@ -0,0 +1,147 @@
+package edu.ucsf.rbvi.CyAnimator.internal.model;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.Paint;
+import java.awt.image.BufferedImage;
+import java.util.Collection;
+
+import javax.swing.SwingUtilities;
+
+import org.cytoscape.service.util.CyServiceRegistrar;
+import org.cytoscape.view.model.CyNetworkView;
+import org.cytoscape.view.model.VisualProperty;
+import org.cytoscape.view.presentation.RenderingEngine;
+import org.cytoscape.view.presentation.RenderingEngineManager;
+import org.cytoscape.view.presentation.property.BasicVisualLexicon;
+
+/**
+ * Draws frames of the animation straight into an image in memory, using the
+ * rendering engine of the network view.  This replaces exporting each frame to
+ * a PNG file through the "view export" task and reading it back in.
+ *
+ * Unless the caller provides the image to draw into, the same image is drawn
+ * into for every frame (as long as the size of the view doesn't change), so
+ * whatever uses it must be done with it before the next frame is rendered.
+ */
+class FrameRenderer {
+	private final CyServiceRegistrar bundleContext;
+	private final CyNetworkView view;
+	private final double scale;
+	private BufferedImage image = null;
+
+	/**
+	 * Create a renderer for a network view.
+	 *
+	 * @param bundleContext the service registrar
+	 * @param view the network view the frames are displayed on
+	 * @param resolution the size of the image as a percentage of the size of the view
+	 */
+	FrameRenderer(CyServiceRegistrar bundleContext, CyNetworkView view, int resolution) {
+		this.bundleContext = bundleContext;
+		this.view = view;
+		this.scale = resolution / 100.0;
+	}
+
+	/**
+	 * Displays a frame and draws it.
+	 *
+	 * @param frame the frame to draw
+	 * @param ghostPool where to take stand-ins for deleted nodes and edges from
+	 * @return the image the frame was drawn into
+	 * @throws IllegalStateException if the view has no rendering engine to draw with
+	 */
+	BufferedImage render(CyFrame frame, GhostElementPool ghostPool) {
+		image = render(frame, ghostPool, image);
+		return image;
+	}
+
+	/**
+	 * Displays a frame and draws it into the given image, if it is the right size.
+	 *
+	 * @param frame the frame to draw
+	 * @param ghostPool where to take stand-ins for deleted nodes and edges from
+	 * @param target the image to draw into, or null to create one
+	 * @return the image the frame was drawn into, which is a new one if target
+	 * was null or the wrong size
+	 * @throws IllegalStateException if the view has no rendering engine to draw with
+	 */
+	BufferedImage render(CyFrame frame, GhostElementPool ghostPool, final BufferedImage target) {
+		frame.display(null, ghostPool);
+		final RenderingEngine<?> engine = getRenderingEngine();
+		if (engine == null)
+			throw new IllegalStateException("No rendering engine for network view");
+
+		final BufferedImage[] result = new BufferedImage[1];
+		Runnable paint = new Runnable() {
+			public void run() {
+				result[0] = paint(engine, target);
+			}
+		};
+
+		if (SwingUtilities.isEventDispatchThread()) {
+			paint.run();
+		} else {
+			try {
+				SwingUtilities.invokeAndWait(paint);
+			} catch (Exception e) {
+				throw new RuntimeException("Unable to render frame", e);
+			}
+		}
+		frame.clearDisplay();
+		return result[0];
+	}
+
+	/**
+	 * Returns the size of the images frames are drawn into, given the current
+	 * size of the view.
+	 *
+	 * @return the image size
+	 */
+	Dimension getImageSize() {
+		int width = (int)Math.ceil(getSize(BasicVisualLexicon.NETWORK_WIDTH) * scale);
+		int height = (int)Math.ceil(getSize(BasicVisualLexicon.NETWORK_HEIGHT) * scale);
+		return new Dimension(Math.max(width, 1), Math.max(height, 1));
+	}
+
+	private BufferedImage paint(RenderingEngine<?> engine, BufferedImage image) {
+		Dimension size = getImageSize();
+		int width = size.width;
+		int height = size.height;
+		if (image == null || image.getWidth() != width || image.getHeight() != height)
+			image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+
+		Graphics2D g = image.createGraphics();
+		try {
+			Paint background = view.getVisualProperty(BasicVisualLexicon.NETWORK_BACKGROUND_PAINT);
+			g.setPaint(background == null ? Color.WHITE : background);
+			g.fillRect(0, 0, width, height);
+			g.scale(scale, scale);
+			engine.printCanvas(g);
+		} finally {
+			g.dispose();
+		}
+		return image;
+	}
+
+	private double getSize(VisualProperty<Double> vp) {
+		Double size = view.getVisualProperty(vp);
+		return size == null ? 0.0 : size.doubleValue();
+	}
+
+	private RenderingEngine<?> getRenderingEngine() {
+		return getRenderingEngine(bundleContext, view);
+	}
+
+	/**
+	 * Returns the rendering engine that draws a view, or null if it has none.
+	 */
+	static RenderingEngine<?> getRenderingEngine(CyServiceRegistrar bundleContext, CyNetworkView view) {
+		RenderingEngineManager engineManager = bundleContext.getService(RenderingEngineManager.class);
+		Collection<RenderingEngine<?>> engines = engineManager.getRenderingEngines(view);
+		if (engines == null || engines.isEmpty())
+			return null;
+		return engines.iterator().next();
+	}
+}
@@ -0,0 +1,126 @@
+package edu.ucsf.rbvi.CyAnimator.internal.model;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * Jumps to arbitrary frames of an animation, for example while a timeline
+ * slider is being dragged.  The frame is interpolated on a background thread
+ * (only that one frame, unless its segment is already cached), then displayed
+ * on the event dispatch thread.  Interpolation only reads the key frames, so
+ * the network view is never touched off the event dispatch thread.  Requests
+ * are coalesced: while a frame is being worked out, newer requests simply
+ * replace each other, and once it is done only the most recent one is worked
+ * out next.  A frame that has been overtaken by a newer request by the time it
+ * is ready isn't displayed.
+ */
+class FrameSeeker {
+	/**
+	 * Displays the frames the seeker gets ready.  Always called on the event
+	 * dispatch thread.
+	 */
+	interface Display {
+		void showFrame(int index, CyFrame frame);
+	}
+
+	private final Display display;
+	// The request waiting to be worked out, if any
+	private final AtomicReference<Request> pending = new AtomicReference<Request>();
+	// The latest request made, which is the only one worth displaying
+	private volatile Request latest = null;
+
+	private Thread worker = null;
+
+	private static class Request {
+		final FrameTimeline timeline;
+		final int index;
+
+		Request(FrameTimeline timeline, int index) {
+			this.timeline = timeline;
+			this.index = index;
+		}
+	}
+
+	/**
+	 * Create a seeker.
+	 *
+	 * @param display what the frames are handed to once they're ready
+	 */
+	FrameSeeker(Display display) {
+		this.display = display;
+	}
+
+	/**
+	 * Asks for a frame to be displayed.  This returns straight away.
+	 *
+	 * @param timeline the frames of the animation
+	 * @param index the index of the frame, between 0 and timeline.getFrameCount()-1
+	 */
+	void seek(FrameTimeline timeline, int index) {
+		Request request = new Request(timeline, index);
+		latest = request;
+		if (pending.getAndSet(request) == null)
+			startWorker();
+	}
+
+	/**
+	 * Forgets about any requests that haven't been displayed yet.
+	 */
+	void cancel() {
+		latest = null;
+		pending.set(null);
+	}
+
+	private synchronized void startWorker() {
+		if (worker != null)
+			return;
+		worker = new Thread(new Runnable() {
+			public void run() {
+				work();
+			}
+		}, "CyAnimator frame seeker");
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	private void work() {
+		while (true) {
+			Request request;
+			synchronized (this) {
+				request = pending.getAndSet(null);
+				if (request == null) {
+					worker = null;
+					return;
+				}
+			}
+			if (request != latest)
+				continue;
+
+			final Request shown = request;
+			final CyFrame frame;
+			try {
+				frame = getFrame(request);
+			} catch (RuntimeException e) {
+				// A frame that can't be interpolated mustn't stop later seeks
+				continue;
+			}
+			SwingUtilities.invokeLater(new Runnable() {
+				public void run() {
+					if (shown == latest)
+						display.showFrame(shown.index, frame);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Returns the requested frame, interpolating only that one frame of its
+	 * segment if the segment isn't cached.  Called on the worker thread, so it
+	 * must not read the view.
+	 */
+	private static CyFrame getFrame(Request request) {
+		return request.timeline.getFrame(request.index,
+		                                 new FrameRange(request.index, request.index, 1));
+	}
+}
@@ -0,0 +1,379 @@
+package edu.ucsf.rbvi.CyAnimator.internal.model;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps rendered frames off the heap, as raw ARGB pixels in a memory-mapped
+ * file.  Frames are read back as images whose pixels are the mapped file
+ * itself, so nothing is copied onto the heap however many frames are waiting or
+ * however big they are.
+ *
+ * An ordinary spool is a ring of a fixed number of slots of one frame each, so
+ * the file never grows past that many frames and each slot is only mapped once.
+ * A frame's slot is reused by the frame that many frames after it, which it
+ * must have been finished with by then.  Every frame must be the same size.
+ *
+ * A durable spool instead appends frames one after another; a small index file
+ * alongside it records where each one starts and how big it is.  Frames are
+ * only recorded in the index once they have been forced out to disk, so a
+ * spool left behind by a cancelled recording (or a crash) can be reopened with
+ * every frame in its index intact.  Frames are forced out in batches rather
+ * than one at a time, so a crash may lose the last few frames.
+ *
+ * One thread may append frames while another reads the ones already written.
+ */
+class FrameSpool {
+	private static final DirectColorModel ARGB = (DirectColorModel) ColorModel.getRGBdefault();
+
+	private final File file;
+	private final File indexFile;
+	private final RandomAccessFile spool;
+	private final FileChannel channel;
+	// Each entry: the offset of a frame (a long), its width and its height (ints)
+	private static final int INDEX_ENTRY_SIZE = 16;
+	private final DataOutputStream index;
+
+	// {offset, width, height} of each frame of a durable spool
+	private final List<long[]> frames = new ArrayList<long[]>();
+	private final boolean durable;
+	private long end = 0;
+	private int[] row = null;
+
+	// The slots of an ordinary spool, each mapped the first time it is used, and
+	// the number of frames appended to it
+	private final IntBuffer[] slotPixels;
+	private final BufferedImage[] slotImages;
+	private int slotWidth = 0;
+	private int slotHeight = 0;
+	private int appended = 0;
+
+	// A durable spool forces its frames to disk and indexes them once this many
+	// frames, or this many bytes, have been appended since it last did
+	private static final int SYNC_FRAMES = 32;
+	private static final long SYNC_BYTES = 256L << 20;
+	// The most of the file forced out through a single mapping
+	private static final long SYNC_CHUNK = 1L << 30;
+	// The frames that haven't been forced out and indexed yet, and where they start
+	private int unsynced = 0;
+	private long syncedEnd = 0;
+
+	/**
+	 * An int data buffer whose elements are in an IntBuffer, so a raster can be
+	 * backed by a mapped file.
+	 */
+	private static class IntBufferDataBuffer extends DataBuffer {
+		private final IntBuffer buffer;
+
+		IntBufferDataBuffer(IntBuffer buffer) {
+			super(DataBuffer.TYPE_INT, buffer.capacity());
+			this.buffer = buffer;
+		}
+
+		public int getElem(int bank, int i) {
+			return buffer.get(i);
+		}
+
+		public void setElem(int bank, int i, int val) {
+			buffer.put(i, val);
+		}
+	}
+
+	/**
+	 * Creates an empty spool with room for a fixed number of frames, replacing the
+	 * spool file if it exists.
+	 *
+	 * @param file the spool file
+	 * @param slots the number of frames kept; each frame is overwritten by the
+	 * frame this many frames after it
+	 * @throws IOException if the file can't be created
+	 */
+	FrameSpool(File file, int slots) throws IOException {
+		this.file = file;
+		this.indexFile = null;
+		this.durable = false;
+		this.spool = new RandomAccessFile(file, "rw");
+		this.spool.setLength(0);
+		this.channel = spool.getChannel();
+		this.index = null;
+		this.slotPixels = new IntBuffer[Math.max(slots, 1)];
+		this.slotImages = new BufferedImage[slotPixels.length];
+	}
+
+	/**
+	 * Opens a durable spool, which keeps every frame appended to it.
+	 *
+	 * @param file the spool file
+	 * @param resume true to keep the frames already in the spool, if there is one
+	 * @throws IOException if the files can't be opened
+	 */
+	FrameSpool(File file, boolean resume) throws IOException {
+		this.file = file;
+		this.indexFile = new File(file.getPath() + ".idx");
+		this.durable = true;
+		this.spool = new RandomAccessFile(file, "rw");
+		if (resume && indexFile.exists()) {
+			readIndex();
+		} else {
+			this.spool.setLength(0);
+		}
+		this.channel = spool.getChannel();
+		this.index = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile, resume)));
+		this.slotPixels = null;
+		this.slotImages = null;
+	}
+
+	/**
+	 * Returns the number of frames appended to the spool, including any which
+	 * have since been overwritten.
+	 *
+	 * @return the frame count
+	 */
+	synchronized int getFrameCount() {
+		return durable ? frames.size() : appended;
+	}
+
+	/**
+	 * Copies a frame to the end of the spool.  The image may be reused as soon as
+	 * this returns.
+	 *
+	 * @param image the frame
+	 * @return the number of the frame in the spool
+	 * @throws IOException if the frame can't be written
+	 */
+	int append(BufferedImage image) throws IOException {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		if (!durable) {
+			IntBuffer pixels;
+			synchronized (this) {
+				pixels = slot(appended % slotPixels.length, width, height).duplicate();
+			}
+			copyPixels(image, pixels);
+			synchronized (this) {
+				return appended++;
+			}
+		}
+
+		long offset;
+		synchronized (this) {
+			offset = end;
+		}
+		copyPixels(image, map(FileChannel.MapMode.READ_WRITE, offset, width, height).asIntBuffer());
+
+		int number;
+		synchronized (this) {
+			frames.add(new long[] {offset, width, height});
+			end = offset + 4L * width * height;
+			number = frames.size() - 1;
+		}
+		if (++unsynced >= SYNC_FRAMES || end - syncedEnd >= SYNC_BYTES)
+			sync();
+		return number;
+	}
+
+	private void copyPixels(BufferedImage image, IntBuffer pixels) {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		int[] data = null;
+		if (image.getType() == BufferedImage.TYPE_INT_ARGB &&
+		    image.getRaster().getDataBuffer() instanceof DataBufferInt) {
+			data = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+			if (data.length != width * height)
+				data = null;
+		}
+		if (data != null) {
+			pixels.put(data);
+		} else {
+			if (row == null || row.length < width)
+				row = new int[width];
+			for (int y = 0; y < height; y++) {
+				image.getRGB(0, y, width, 1, row, 0, width);
+				pixels.put(row, 0, width);
+			}
+		}
+	}
+
+	/**
+	 * Forces the frames appended to a durable spool since the last sync out to
+	 * disk and then records them in the index.  Only the thread appending frames
+	 * may call this.
+	 *
+	 * @throws IOException if the frames can't be written
+	 */
+	void sync() throws IOException {
+		if (!durable || unsynced == 0)
+			return;
+		List<long[]> pending;
+		long to;
+		synchronized (this) {
+			pending = new ArrayList<long[]>(frames.subList(frames.size() - unsynced, frames.size()));
+			to = end;
+		}
+		for (long from = syncedEnd; from < to; from += SYNC_CHUNK)
+			channel.map(FileChannel.MapMode.READ_WRITE, from, Math.min(SYNC_CHUNK, to - from)).force();
+
+		for (long[] frame: pending)
+			writeIndex(frame[0], (int) frame[1], (int) frame[2]);
+		index.flush();
+		unsynced = 0;
+		syncedEnd = to;
+	}
+
+	/**
+	 * Returns a frame.  The image is backed by the spool file, so reading its
+	 * pixels doesn't copy the frame onto the heap; it must not be drawn into.  The
+	 * image of a frame in an ordinary spool changes once its slot is reused.
+	 *
+	 * @param number the number of the frame in the spool
+	 * @return the frame
+	 * @throws IOException if the frame can't be mapped, or has been overwritten
+	 */
+	BufferedImage read(int number) throws IOException {
+		if (!durable) {
+			synchronized (this) {
+				if (number < 0 || number >= appended)
+					throw new IndexOutOfBoundsException("No frame "+number+" in the spool");
+				if (number < appended - slotPixels.length)
+					throw new IOException("Frame "+number+" has been overwritten");
+				return slotImages[number % slotPixels.length];
+			}
+		}
+
+		long[] frame;
+		synchronized (this) {
+			frame = frames.get(number);
+		}
+		int width = (int) frame[1];
+		int height = (int) frame[2];
+		return image(map(FileChannel.MapMode.READ_ONLY, frame[0], width, height).asIntBuffer(), width, height);
+	}
+
+	/**
+	 * Closes the spool, leaving its files in place.  The frames of a durable spool
+	 * are forced out to disk and indexed first.  Images already read from the
+	 * spool must not be used afterwards.
+	 */
+	void close() {
+		try {
+			sync();
+		} catch (IOException e) {}
+		closeFiles();
+	}
+
+	private void closeFiles() {
+		try {
+			if (index != null)
+				index.close();
+		} catch (IOException e) {}
+		try {
+			channel.close();
+			spool.close();
+		} catch (IOException e) {}
+	}
+
+	/**
+	 * Closes the spool and deletes its files.  Images already read from the spool
+	 * must not be used afterwards.
+	 */
+	void delete() {
+		closeFiles();
+		// A file that is still mapped can't be deleted on some platforms
+		if (!file.delete())
+			file.deleteOnExit();
+		if (indexFile != null && !indexFile.delete())
+			indexFile.deleteOnExit();
+	}
+
+	/**
+	 * Reads the index of an existing spool, keeping the frames which are entirely
+	 * in the spool file and cutting off anything after them.
+	 */
+	private void readIndex() throws IOException {
+		long length = spool.length();
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+		try {
+			long entries = indexFile.length() / INDEX_ENTRY_SIZE;
+			for (long i = 0; i < entries; i++) {
+				long offset = in.readLong();
+				int width = in.readInt();
+				int height = in.readInt();
+				long frameEnd = offset + 4L * width * height;
+				if (offset != end || width <= 0 || height <= 0 || frameEnd > length)
+					break;
+				frames.add(new long[] {offset, width, height});
+				end = frameEnd;
+			}
+		} finally {
+			in.close();
+		}
+		spool.setLength(end);
+		syncedEnd = end;
+		RandomAccessFile indexAccess = new RandomAccessFile(indexFile, "rw");
+		try {
+			indexAccess.setLength((long) frames.size() * INDEX_ENTRY_SIZE);
+		} finally {
+			indexAccess.close();
+		}
+	}
+
+	private void writeIndex(long offset, int width, int height) throws IOException {
+		index.writeLong(offset);
+		index.writeInt(width);
+		index.writeInt(height);
+	}
+
+	/**
+	 * Returns the pixels of a slot of an ordinary spool, mapping it if it hasn't
+	 * been used yet.
+	 */
+	private IntBuffer slot(int slot, int width, int height) throws IOException {
+		if (slotWidth == 0) {
+			slotWidth = width;
+			slotHeight = height;
+		} else if (width != slotWidth || height != slotHeight) {
+			throw new IOException("Every frame in a spool must be "+slotWidth+"x"+slotHeight);
+		}
+		if (slotPixels[slot] == null) {
+			long offset = slot * 4L * width * height;
+			slotPixels[slot] = map(FileChannel.MapMode.READ_WRITE, offset, width, height).asIntBuffer();
+			slotImages[slot] = image(slotPixels[slot], width, height);
+		}
+		return slotPixels[slot];
+	}
+
+	private static BufferedImage image(IntBuffer pixels, int width, int height) {
+		SinglePixelPackedSampleModel model =
+			new SinglePixelPackedSampleModel(DataBuffer.TYPE_INT, width, height, ARGB.getMasks());
+		WritableRaster raster = Raster.createWritableRaster(model, new IntBufferDataBuffer(pixels), null);
+		return new BufferedImage(ARGB, raster, false, null);
+	}
+
+	private MappedByteBuffer map(FileChannel.MapMode mode, long offset, int width, int height) throws IOException {
+		long size = 4L * width * height;
+		MappedByteBuffer buffer = channel.map(mode, offset, size);
+		buffer.order(ByteOrder.nativeOrder());
+		return buffer;
+	}
+}
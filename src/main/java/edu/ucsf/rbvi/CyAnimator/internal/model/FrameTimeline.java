@@ -0,0 +1,256 @@
+package edu.ucsf.rbvi.CyAnimator.internal.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The FrameTimeline holds the key frames of an animation together with the
+ * plan of where each key frame sits in the final sequence of frames.  Rather
+ * than interpolating every frame up front, the frames between two key frames
+ * (a segment) are only interpolated when one of them is asked for, and only
+ * a handful of segments are kept around at any time.  This keeps the memory
+ * use proportional to the number of key frames rather than to the total
+ * number of frames in the animation.
+ */
+public class FrameTimeline {
+	// Number of interpolated segments we keep around in lazy mode.  Two is
+	// enough to hold the segment being played and the one that follows it.
+	private static final int LAZY_SEGMENT_CACHE = 2;
+
+	private final Interpolator interpolator;
+	private final List<CyFrame> keyFrames;
+
+	// segmentStart[i] is the index of key frame i in the full animation
+	private final int[] segmentStart;
+	private final int frameCount;
+
+	// segmentKeys[i] identifies the segment from key frame i to key frame i+1
+	private final SegmentKey[] segmentKeys;
+	private final Map<SegmentKey, CyFrame[]> segmentCache;
+
+	// The last segment interpolated for a FrameRange that only wanted some of it
+	private SegmentKey partialKey = null;
+	private FrameRange partialRange = null;
+	private CyFrame[] partialSegment = null;
+
+	/**
+	 * Create a new timeline for the given key frames.
+	 *
+	 * @param interpolator the interpolator used to build the frames of each segment
+	 * @param frameList the key frames of the animation
+	 * @param lazy if true, segments are only interpolated when a frame in them is
+	 * requested, otherwise all of the frames are interpolated immediately
+	 */
+	public FrameTimeline(Interpolator interpolator, List<CyFrame> frameList, boolean lazy) {
+		this(interpolator, frameList, lazy, null);
+	}
+
+	/**
+	 * Create a new timeline for the given key frames, reusing the segments of a
+	 * previous timeline that are still valid.  A segment can be reused if it runs
+	 * between the same two key frames with the same number of frames, so adding,
+	 * deleting or moving a single key frame only costs the interpolation of the one
+	 * or two segments next to it.
+	 *
+	 * @param interpolator the interpolator used to build the frames of each segment
+	 * @param frameList the key frames of the animation
+	 * @param lazy if true, segments are only interpolated when a frame in them is
+	 * requested, otherwise all of the frames are interpolated immediately
+	 * @param previous the timeline these key frames were edited from, or null
+	 */
+	public FrameTimeline(Interpolator interpolator, List<CyFrame> frameList, boolean lazy,
+	                     FrameTimeline previous) {
+		this.interpolator = interpolator;
+		this.keyFrames = new ArrayList<CyFrame>(frameList);
+
+		segmentStart = new int[keyFrames.size()];
+		segmentKeys = new SegmentKey[Math.max(keyFrames.size()-1, 0)];
+		for (int i = 1; i < keyFrames.size(); i++) {
+			segmentStart[i] = segmentStart[i-1] + Interpolator.segmentLength(keyFrames.get(i));
+			segmentKeys[i-1] = new SegmentKey(keyFrames.get(i-1), keyFrames.get(i));
+		}
+		frameCount = Interpolator.countFrames(keyFrames);
+
+		if (lazy) {
+			segmentCache = new LinkedHashMap<SegmentKey, CyFrame[]>(LAZY_SEGMENT_CACHE+1, 0.75f, true) {
+				protected boolean removeEldestEntry(Map.Entry<SegmentKey, CyFrame[]> eldest) {
+					return size() > LAZY_SEGMENT_CACHE;
+				}
+			};
+		} else {
+			segmentCache = new LinkedHashMap<SegmentKey, CyFrame[]>();
+		}
+
+		if (previous != null)
+			previous.copySegments(this);
+
+		if (!lazy) {
+			// Interpolate whatever we couldn't reuse in one go
+			List<SegmentKey> missing = new ArrayList<SegmentKey>();
+			for (SegmentKey key: segmentKeys) {
+				if (!segmentCache.containsKey(key))
+					missing.add(key);
+			}
+
+			CyFrame[] fromFrames = new CyFrame[missing.size()];
+			CyFrame[] toFrames = new CyFrame[missing.size()];
+			for (int i = 0; i < missing.size(); i++) {
+				fromFrames[i] = missing.get(i).frameOne;
+				toFrames[i] = missing.get(i).frameTwo;
+			}
+			CyFrame[][] segments = interpolator.makeSegments(fromFrames, toFrames);
+			for (int i = 0; i < segments.length; i++)
+				segmentCache.put(missing.get(i), segments[i]);
+		}
+	}
+
+	/**
+	 * Returns the total number of frames in the animation.
+	 *
+	 * @return the number of frames
+	 */
+	public int getFrameCount() {
+		return frameCount;
+	}
+
+	/**
+	 * Returns the key frames this timeline was built from.
+	 *
+	 * @return the key frames
+	 */
+	public List<CyFrame> getKeyFrames() {
+		return keyFrames;
+	}
+
+	/**
+	 * Returns a frame of the animation, interpolating the segment that contains
+	 * it if that hasn't been done yet.
+	 *
+	 * @param index the index of the frame, between 0 and getFrameCount()-1
+	 * @return the frame at that index
+	 */
+	public synchronized CyFrame getFrame(int index) {
+		if (index < 0 || index >= frameCount)
+			throw new IndexOutOfBoundsException("Frame "+index+" is not in the animation");
+
+		int segment = findSegment(index);
+
+		// The last key frame doesn't start a segment
+		if (segment == keyFrames.size()-1)
+			return keyFrames.get(segment);
+
+		return getSegment(segment)[index - segmentStart[segment]];
+	}
+
+	/**
+	 * Returns a frame of the animation that is part of a recording of some of its
+	 * frames.  Only the frames of the segment which are in the range are
+	 * interpolated; the segment isn't kept in the cache for playback since it is
+	 * incomplete.
+	 *
+	 * @param index the index of the frame, which must be in the range
+	 * @param range the frames being recorded
+	 * @return the frame at that index
+	 */
+	public synchronized CyFrame getFrame(int index, FrameRange range) {
+		if (index < 0 || index >= frameCount)
+			throw new IndexOutOfBoundsException("Frame "+index+" is not in the animation");
+
+		int segment = findSegment(index);
+		if (segment == keyFrames.size()-1)
+			return keyFrames.get(segment);
+
+		SegmentKey key = segmentKeys[segment];
+		int offset = index - segmentStart[segment];
+		CyFrame[] frames = segmentCache.get(key);
+		if (frames == null && key.equals(partialKey) && range.equals(partialRange))
+			frames = partialSegment;
+		if (frames != null && frames[offset] != null)
+			return frames[offset];
+
+		boolean[] wanted = new boolean[key.length];
+		boolean all = true;
+		for (int k = 0; k < wanted.length; k++) {
+			wanted[k] = range.contains(segmentStart[segment] + k) || k == offset;
+			all &= wanted[k];
+		}
+		if (all)
+			return getSegment(segment)[offset];
+
+		partialKey = key;
+		partialRange = range;
+		partialSegment = interpolator.makeSegment(key.frameOne, key.frameTwo, wanted);
+		return partialSegment[offset];
+	}
+
+	/**
+	 * Returns the index of the segment that holds the given frame, i.e. the index of
+	 * the last key frame at or before that frame.
+	 */
+	private int findSegment(int index) {
+		int low = 0;
+		int high = segmentStart.length-1;
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if (segmentStart[mid] <= index)
+				low = mid;
+			else
+				high = mid - 1;
+		}
+		return low;
+	}
+
+	private CyFrame[] getSegment(int segment) {
+		SegmentKey key = segmentKeys[segment];
+		CyFrame[] frames = segmentCache.get(key);
+		if (frames == null) {
+			frames = interpolator.makeSegment(key.frameOne, key.frameTwo);
+			segmentCache.put(key, frames);
+		}
+		return frames;
+	}
+
+	/**
+	 * Hands the segments we have already interpolated that are also part of
+	 * another timeline over to it.
+	 */
+	private synchronized void copySegments(FrameTimeline timeline) {
+		Set<SegmentKey> wanted = new HashSet<SegmentKey>(Arrays.asList(timeline.segmentKeys));
+		for (Map.Entry<SegmentKey, CyFrame[]> entry: segmentCache.entrySet()) {
+			if (wanted.contains(entry.getKey()))
+				timeline.segmentCache.put(entry.getKey(), entry.getValue());
+		}
+	}
+
+	/**
+	 * Identifies a segment by the two key frames it runs between and the number
+	 * of frames in it, which is all its interpolated frames depend on.
+	 */
+	private static class SegmentKey {
+		final CyFrame frameOne;
+		final CyFrame frameTwo;
+		final int length;
+
+		SegmentKey(CyFrame frameOne, CyFrame frameTwo) {
+			this.frameOne = frameOne;
+			this.frameTwo = frameTwo;
+			this.length = Interpolator.segmentLength(frameTwo);
+		}
+
+		public boolean equals(Object o) {
+			if (!(o instanceof SegmentKey))
+				return false;
+			SegmentKey key = (SegmentKey)o;
+			return frameOne == key.frameOne && frameTwo == key.frameTwo && length == key.length;
+		}
+
+		public int hashCode() {
+			return 31*(31*System.identityHashCode(frameOne) + System.identityHashCode(frameTwo)) + length;
+		}
+	}
+}
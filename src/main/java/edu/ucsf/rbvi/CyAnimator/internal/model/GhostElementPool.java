@@ -0,0 +1,186 @@
+package edu.ucsf.rbvi.CyAnimator.internal.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.swing.SwingUtilities;
+
+import org.cytoscape.application.CyApplicationManager;
+import org.cytoscape.event.CyEventHelper;
+import org.cytoscape.model.CyEdge;
+import org.cytoscape.model.CyIdentifiable;
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.model.CyNode;
+import org.cytoscape.service.util.CyServiceRegistrar;
+import org.cytoscape.view.model.CyNetworkView;
+
+/**
+ * Nodes and edges that are part of a frame but have been deleted from the network
+ * are drawn through "ghost" elements: stand-ins added to the network for as long as
+ * they are needed.  The pool keeps one ghost per deleted element for a whole run of
+ * frames (playing or recording the animation) instead of adding and removing them
+ * for every frame.  A frame that doesn't need a ghost simply leaves it hidden, since
+ * CyFrame hides every element of the view which isn't part of the frame.
+ *
+ * The ghosts are removed from the network again by dispose().  While they exist,
+ * isGhost() lets a frame being captured leave them out.
+ */
+class GhostElementPool {
+	// The SUIDs of the ghosts of every pool which hasn't been disposed of yet
+	private static final Set<Long> ghostSUIDs = Collections.synchronizedSet(new HashSet<Long>());
+
+	private final CyServiceRegistrar bundleContext;
+	private final CyNetworkView view;
+	private final Map<CyNode, CyNode> nodes = new HashMap<CyNode, CyNode>();
+	private final Map<CyEdge, CyEdge> edges = new HashMap<CyEdge, CyEdge>();
+
+	// true if ghosts have been added since the last flush
+	private boolean added = false;
+	private boolean disposed = false;
+
+	/**
+	 * Create an empty pool for the current network view.
+	 *
+	 * @param bundleContext the service registrar
+	 */
+	GhostElementPool(CyServiceRegistrar bundleContext) {
+		this.bundleContext = bundleContext;
+		CyApplicationManager appManager = bundleContext.getService(CyApplicationManager.class);
+		this.view = appManager.getCurrentNetworkView();
+	}
+
+	/**
+	 * Returns the view the ghosts are added to.
+	 *
+	 * @return the network view
+	 */
+	CyNetworkView getView() {
+		return view;
+	}
+
+	/**
+	 * Returns the ghost of a node, adding it to the network if there isn't one yet.
+	 *
+	 * @param node the deleted node
+	 * @return its ghost
+	 */
+	CyNode getNode(CyNode node) {
+		CyNode ghost = nodes.get(node);
+		if (ghost == null) {
+			ghost = view.getModel().addNode();
+			ghostSUIDs.add(ghost.getSUID());
+			nodes.put(node, ghost);
+			added = true;
+		}
+		return ghost;
+	}
+
+	/**
+	 * Returns the ghost of an edge, adding it to the network between the given nodes
+	 * if there isn't one yet.
+	 *
+	 * @param edge the deleted edge
+	 * @param source the node (or ghost node) the ghost should start from
+	 * @param target the node (or ghost node) the ghost should end at
+	 * @return its ghost
+	 */
+	CyEdge getEdge(CyEdge edge, CyNode source, CyNode target) {
+		CyEdge ghost = edges.get(edge);
+		if (ghost == null) {
+			ghost = view.getModel().addEdge(source, target, true);
+			ghostSUIDs.add(ghost.getSUID());
+			edges.put(edge, ghost);
+			added = true;
+		}
+		return ghost;
+	}
+
+	/**
+	 * Makes sure the view has caught up with any ghosts added since the last call.
+	 */
+	void flush() {
+		if (!added)
+			return;
+		CyEventHelper eventHelper = bundleContext.getService(CyEventHelper.class);
+		eventHelper.flushPayloadEvents();
+		added = false;
+	}
+
+	/**
+	 * Removes all of the ghosts from the network.  The pool can't be used afterwards.
+	 */
+	void dispose() {
+		if (disposed)
+			return;
+		disposed = true;
+		if (nodes.isEmpty() && edges.isEmpty())
+			return;
+
+		Runnable remove = new Runnable() {
+			public void run() {
+				CyNetwork network = view.getModel();
+				Collection<Long> edgeKeys = suids(edges.values());
+				network.removeEdges(edges.values());
+				network.getDefaultEdgeTable().deleteRows(edgeKeys);
+
+				Collection<Long> nodeKeys = suids(nodes.values());
+				network.removeNodes(nodes.values());
+				network.getDefaultNodeTable().deleteRows(nodeKeys);
+				view.updateView();
+
+				ghostSUIDs.removeAll(edgeKeys);
+				ghostSUIDs.removeAll(nodeKeys);
+				edges.clear();
+				nodes.clear();
+			}
+		};
+
+		if (SwingUtilities.isEventDispatchThread()) {
+			remove.run();
+			return;
+		}
+		try {
+			SwingUtilities.invokeAndWait(remove);
+		} catch (Exception e) {}
+	}
+
+	/**
+	 * Returns true if a node or edge is a ghost.
+	 *
+	 * @param suid the SUID of the node or edge
+	 * @return true if it is a ghost
+	 */
+	static boolean isGhost(long suid) {
+		return !ghostSUIDs.isEmpty() && ghostSUIDs.contains(suid);
+	}
+
+	/**
+	 * Returns the given nodes or edges without any ghosts.
+	 *
+	 * @param elements a list of nodes or edges
+	 * @return the list itself if it doesn't hold any ghosts, otherwise a copy without them
+	 */
+	static <T extends CyIdentifiable> List<T> removeGhosts(List<T> elements) {
+		if (ghostSUIDs.isEmpty())
+			return elements;
+		List<T> result = new ArrayList<T>(elements.size());
+		for (T element: elements) {
+			if (!ghostSUIDs.contains(element.getSUID()))
+				result.add(element);
+		}
+		return result;
+	}
+
+	private static Collection<Long> suids(Collection<? extends CyIdentifiable> elements) {
+		Collection<Long> keys = new ArrayList<Long>(elements.size());
+		for (CyIdentifiable element: elements)
+			keys.add(element.getSUID());
+		return keys;
+	}
+}
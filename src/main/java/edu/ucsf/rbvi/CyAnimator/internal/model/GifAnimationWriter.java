@@ -0,0 +1,279 @@
+package edu.ucsf.rbvi.CyAnimator.internal.model;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Writes an animated GIF that only stores what changes from frame to frame.
+ * Each frame is compared with the one before it: only the rectangle holding the
+ * changed pixels is written, pixels inside it that didn't change are made
+ * transparent (which compresses much better), and the frame is left in place
+ * for the next one to be drawn over.  A frame that doesn't change anything just
+ * makes the previous one stay up longer.  Every frame uses the same global
+ * palette.
+ *
+ * Unlike GifSequenceWriter, this doesn't go through ImageIO, so each frame isn't
+ * quantized separately.
+ */
+class GifAnimationWriter {
+	// Graphic control extension disposal method: leave the frame in place
+	private static final int DISPOSE_NONE = 1;
+
+	private final OutputStream out;
+	private final int width;
+	private final int height;
+	private final GifPalette palette;
+	private final double frameRate;
+	private final GifLzwEncoder lzw = new GifLzwEncoder();
+
+	private int[] previous = null;
+	private int[] current;
+	private int frameCount = 0;
+
+	// The last frame is only written once we know how long it stays up
+	private EncodedFrame pending = null;
+	private int pendingDelay = 0;
+
+	/**
+	 * The changed part of a frame, ready to be written.
+	 */
+	static class EncodedFrame {
+		final int left, top, width, height;
+		final boolean transparent;
+		final byte[] data;
+
+		EncodedFrame(int left, int top, int width, int height, boolean transparent, byte[] data) {
+			this.left = left;
+			this.top = top;
+			this.width = width;
+			this.height = height;
+			this.transparent = transparent;
+			this.data = data;
+		}
+	}
+
+	/**
+	 * Starts an animation: writes the header, the global color table and (if the
+	 * animation loops) the looping extension.
+	 *
+	 * @param out where to write the GIF
+	 * @param width the width of the animation
+	 * @param height the height of the animation
+	 * @param palette the colors every frame is drawn with
+	 * @param frameRate the number of frames per second
+	 * @param loop true if the animation should loop forever
+	 * @throws IOException if the stream can't be written
+	 */
+	GifAnimationWriter(OutputStream out, int width, int height, GifPalette palette,
+	                   double frameRate, boolean loop) throws IOException {
+		this.out = out;
+		this.width = width;
+		this.height = height;
+		this.palette = palette;
+		this.frameRate = frameRate;
+		this.current = new int[width * height];
+
+		writeString("GIF89a");
+		// Logical screen descriptor, with a global color table of 256 entries
+		writeShort(width);
+		writeShort(height);
+		out.write(0x80 | 0x70 | 0x07);
+		out.write(GifPalette.TRANSPARENT);
+		out.write(0);
+		out.write(palette.getColorTable());
+
+		if (loop) {
+			out.write(0x21);
+			out.write(0xff);
+			out.write(11);
+			writeString("NETSCAPE2.0");
+			out.write(3);
+			out.write(1);
+			writeShort(0);
+			out.write(0);
+		}
+	}
+
+	/**
+	 * Adds a frame to the animation.  The image isn't kept, so it may be reused as
+	 * soon as this returns.
+	 *
+	 * @param image the frame, which should be the size of the animation
+	 * @throws IOException if the stream can't be written
+	 */
+	void writeFrame(BufferedImage image) throws IOException {
+		readPixels(image, current, width, height);
+		EncodedFrame frame = encodeFrame(current, previous, width, height, palette, lzw);
+
+		int[] swap = previous == null ? new int[width * height] : previous;
+		previous = current;
+		current = swap;
+
+		addEncodedFrame(frame);
+	}
+
+	/**
+	 * Adds a frame which has already been encoded against the frame before it.
+	 *
+	 * @param frame the changed part of the frame, or null if nothing changed
+	 * @throws IOException if the stream can't be written
+	 */
+	void addEncodedFrame(EncodedFrame frame) throws IOException {
+		int delay = frameDelay(frameCount++);
+		if (frame == null) {
+			// Nothing changed, so the previous frame just stays up longer
+			pendingDelay += delay;
+			return;
+		}
+		flushPending();
+		pending = frame;
+		pendingDelay = delay;
+	}
+
+	/**
+	 * Finishes off the GIF.  This doesn't close the underlying stream.
+	 *
+	 * @throws IOException if the stream can't be written
+	 */
+	void close() throws IOException {
+		flushPending();
+		out.write(0x3b);
+		out.flush();
+	}
+
+	/**
+	 * Works out the part of a frame which changed from the previous frame and
+	 * compresses it.
+	 *
+	 * @param current the pixels of the frame
+	 * @param previous the pixels of the previous frame, or null for the first frame
+	 * @param width the width of the frames
+	 * @param height the height of the frames
+	 * @param palette the colors to draw with
+	 * @param lzw the compressor to use
+	 * @return the changed part of the frame, or null if nothing changed
+	 */
+	static EncodedFrame encodeFrame(int[] current, int[] previous, int width, int height,
+	                                GifPalette palette, GifLzwEncoder lzw) {
+		int left = 0, top = 0, right = width-1, bottom = height-1;
+		if (previous != null) {
+			// Find the bounding box of the changed pixels
+			top = -1;
+			for (int y = 0; y < height && top < 0; y++) {
+				if (!rowEquals(current, previous, y*width, width))
+					top = y;
+			}
+			if (top < 0)
+				return null;
+			for (int y = height-1; y > top; y--) {
+				if (!rowEquals(current, previous, y*width, width)) {
+					bottom = y;
+					break;
+				}
+				bottom = y-1;
+			}
+			left = width;
+			right = -1;
+			for (int y = top; y <= bottom; y++) {
+				int row = y*width;
+				for (int x = 0; x < left; x++) {
+					if (current[row+x] != previous[row+x]) {
+						left = x;
+						break;
+					}
+				}
+				for (int x = width-1; x > right; x--) {
+					if (current[row+x] != previous[row+x]) {
+						right = x;
+						break;
+					}
+				}
+			}
+		}
+
+		int w = right - left + 1;
+		int h = bottom - top + 1;
+		byte[] indices = new byte[w * h];
+		int i = 0;
+		for (int y = top; y <= bottom; y++) {
+			int row = y*width;
+			for (int x = left; x <= right; x++) {
+				int p = row + x;
+				if (previous != null && current[p] == previous[p])
+					indices[i++] = GifPalette.TRANSPARENT;
+				else
+					indices[i++] = palette.indexOf(current[p]);
+			}
+		}
+		return new EncodedFrame(left, top, w, h, previous != null, lzw.encode(indices, 8));
+	}
+
+	/**
+	 * Reads the pixels of an image into an array the size of the animation.  Any
+	 * part of the animation the image doesn't cover is left black.
+	 */
+	static void readPixels(BufferedImage image, int[] pixels, int width, int height) {
+		int w = Math.min(width, image.getWidth());
+		int h = Math.min(height, image.getHeight());
+		if (w < width || h < height)
+			Arrays.fill(pixels, 0xff000000);
+		image.getRGB(0, 0, w, h, pixels, 0, width);
+	}
+
+	private static boolean rowEquals(int[] a, int[] b, int offset, int length) {
+		for (int i = offset; i < offset + length; i++) {
+			if (a[i] != b[i])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns how long a frame stays up, in hundredths of a second.  Rounding each
+	 * frame's start time (rather than each delay) keeps the animation in time.
+	 */
+	private int frameDelay(int index) {
+		return (int)(Math.round((index+1) * 100.0 / frameRate) - Math.round(index * 100.0 / frameRate));
+	}
+
+	private void flushPending() throws IOException {
+		if (pending == null)
+			return;
+		writeEncodedFrame(pending, pendingDelay);
+		pending = null;
+	}
+
+	/**
+	 * Writes the graphic control extension, image descriptor and image data of a
+	 * frame.
+	 */
+	private void writeEncodedFrame(EncodedFrame frame, int delay) throws IOException {
+		out.write(0x21);
+		out.write(0xf9);
+		out.write(4);
+		out.write((DISPOSE_NONE << 2) | (frame.transparent ? 1 : 0));
+		writeShort(Math.min(delay, 0xffff));
+		out.write(GifPalette.TRANSPARENT);
+		out.write(0);
+
+		out.write(0x2c);
+		writeShort(frame.left);
+		writeShort(frame.top);
+		writeShort(frame.width);
+		writeShort(frame.height);
+		out.write(0);
+		out.write(frame.data);
+	}
+
+	private void writeShort(int value) throws IOException {
+		out.write(value & 0xff);
+		out.write((value >> 8) & 0xff);
+	}
+
+	private void writeString(String s) throws IOException {
+		for (int i = 0; i < s.length(); i++)
+			out.write((byte) s.charAt(i));
+	}
+}
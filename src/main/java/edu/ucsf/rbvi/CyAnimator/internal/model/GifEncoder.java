@@ -0,0 +1,65 @@
+package edu.ucsf.rbvi.CyAnimator.internal.model;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.Set;
+
+import javax.imageio.stream.FileImageOutputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.cytoscape.work.TaskMonitor.Level;
+
+import edu.ucsf.rbvi.CyAnimator.api.EncoderContext;
+import edu.ucsf.rbvi.CyAnimator.api.FrameEncoder;
+import edu.ucsf.rbvi.CyAnimator.api.FrameSink;
+
+/**
+ * Writes an animated GIF through the ImageIO GIF writer (see GifSequenceWriter).
+ */
+public class GifEncoder implements FrameEncoder {
+	public String getId() { return "gif"; }
+
+	public String getName() { return "GIF"; }
+
+	public Set<Capability> getCapabilities() {
+		return EnumSet.of(Capability.STREAMING, Capability.TIMED);
+	}
+
+	public FrameSink open(EncoderContext context) throws IOException {
+		context.getTaskMonitor().showMessage(Level.INFO, "Creating animated GIF");
+		final File file = new File(context.getDirectory(), "video.gif");
+		//the delay between frames is in milliseconds
+		final int delay = 1000/context.getFrameRate();
+		return new FrameSink() {
+			private ImageOutputStream output = null;
+			private GifSequenceWriter writer = null;
+
+			public void addFrame(int index, BufferedImage image) throws IOException {
+				if (writer == null) {
+					//frames read back from a spool don't have a standard type
+					int type = image.getType();
+					if (type == BufferedImage.TYPE_CUSTOM)
+						type = BufferedImage.TYPE_INT_ARGB;
+					output = new FileImageOutputStream(file);
+					writer = new GifSequenceWriter(output, type, delay, true);
+				}
+				writer.writeToSequence(image);
+			}
+
+			public void close() throws IOException {
+				if (writer != null)
+					writer.close();
+				if (output != null)
+					output.close();
+			}
+
+			public void abort() {
+				try {
+					close();
+				} catch (IOException e) {}
+			}
+		};
+	}
+}
@@ -0,0 +1,178 @@
+package edu.ucsf.rbvi.CyAnimator.internal.model;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * Compresses the color indices of a GIF image with the variable-length LZW
+ * scheme GIF uses, and splits the result into data sub-blocks.  This follows the
+ * classic encoder by Kevin Weiner (itself adapted from the Unix compress), with
+ * an open-addressed hash table for the string table.
+ *
+ * An encoder holds its own tables, so it may be reused for any number of images
+ * but not used by more than one thread at a time.
+ */
+class GifLzwEncoder {
+	private static final int BITS = 12;
+	private static final int MAX_MAX_CODE = 1 << BITS;
+	private static final int HSIZE = 5003;
+	private static final int HSHIFT = 4;
+
+	private final int[] htab = new int[HSIZE];
+	private final int[] codetab = new int[HSIZE];
+
+	private int initBits;
+	private int nBits;
+	private int maxCode;
+	private int clearCode;
+	private int eofCode;
+	private int freeEnt;
+	private boolean clearFlag;
+
+	private int curAccum;
+	private int curBits;
+
+	private final byte[] accum = new byte[256];
+	private int aCount;
+	private ByteArrayOutputStream out;
+
+	/**
+	 * Compresses the color indices of an image.
+	 *
+	 * @param pixels the color index of each pixel, a row at a time
+	 * @param colorDepth the number of bits per color index (2 to 8)
+	 * @return the LZW minimum code size byte, followed by the data sub-blocks and
+	 * the block terminator
+	 */
+	byte[] encode(byte[] pixels, int colorDepth) {
+		int initCodeSize = Math.max(2, colorDepth);
+		out = new ByteArrayOutputStream(pixels.length / 2 + 16);
+		out.write(initCodeSize);
+		compress(pixels, initCodeSize + 1);
+		out.write(0);
+		byte[] result = out.toByteArray();
+		out = null;
+		return result;
+	}
+
+	private void compress(byte[] pixels, int bits) {
+		initBits = bits;
+		clearFlag = false;
+		nBits = initBits;
+		maxCode = maxCode(nBits);
+		clearCode = 1 << (initBits - 1);
+		eofCode = clearCode + 1;
+		freeEnt = clearCode + 2;
+		curAccum = 0;
+		curBits = 0;
+		aCount = 0;
+
+		Arrays.fill(htab, -1);
+		output(clearCode);
+		if (pixels.length == 0) {
+			output(eofCode);
+			return;
+		}
+
+		int ent = pixels[0] & 0xff;
+		outer:
+		for (int p = 1; p < pixels.length; p++) {
+			int c = pixels[p] & 0xff;
+			int fcode = (c << BITS) + ent;
+			int i = (c << HSHIFT) ^ ent;
+
+			if (htab[i] == fcode) {
+				ent = codetab[i];
+				continue;
+			} else if (htab[i] >= 0) {
+				int disp = HSIZE - i;
+				if (i == 0)
+					disp = 1;
+				do {
+					if ((i -= disp) < 0)
+						i += HSIZE;
+					if (htab[i] == fcode) {
+						ent = codetab[i];
+						continue outer;
+					}
+				} while (htab[i] >= 0);
+			}
+			output(ent);
+			ent = c;
+			if (freeEnt < MAX_MAX_CODE) {
+				codetab[i] = freeEnt++;
+				htab[i] = fcode;
+			} else {
+				clearBlock();
+			}
+		}
+		output(ent);
+		output(eofCode);
+	}
+
+	private void clearBlock() {
+		Arrays.fill(htab, -1);
+		freeEnt = clearCode + 2;
+		clearFlag = true;
+		output(clearCode);
+	}
+
+	private void output(int code) {
+		curAccum &= (1 << curBits) - 1;
+		if (curBits > 0)
+			curAccum |= (code << curBits);
+		else
+			curAccum = code;
+		curBits += nBits;
+
+		while (curBits >= 8) {
+			charOut((byte) (curAccum & 0xff));
+			curAccum >>= 8;
+			curBits -= 8;
+		}
+
+		// If the next entry is going to be too big for the code size,
+		// then increase it, if possible.
+		if (freeEnt > maxCode || clearFlag) {
+			if (clearFlag) {
+				nBits = initBits;
+				maxCode = maxCode(nBits);
+				clearFlag = false;
+			} else {
+				++nBits;
+				if (nBits == BITS)
+					maxCode = MAX_MAX_CODE;
+				else
+					maxCode = maxCode(nBits);
+			}
+		}
+
+		if (code == eofCode) {
+			// At EOF, write the rest of the buffer.
+			while (curBits > 0) {
+				charOut((byte) (curAccum & 0xff));
+				curAccum >>= 8;
+				curBits -= 8;
+			}
+			flushChars();
+		}
+	}
+
+	private void charOut(byte c) {
+		accum[aCount++] = c;
+		if (aCount >= 254)
+			flushChars();
+	}
+
+	private void flushChars() {
+		if (aCount > 0) {
+			out.write(aCount);
+			out.write(accum, 0, aCount);
+			aCount = 0;
+		}
+	}
+
+	private static int maxCode(int bits) {
+		return (1 << bits) - 1;
+	}
+}
@@ -0,0 +1,228 @@
+package edu.ucsf.rbvi.CyAnimator.internal.model;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A single color table shared by every frame of a GIF animation.  It is built
+ * with median cut from the colors of a few sample frames, so frames don't each
+ * need their own palette (and don't flicker between palettes).  Index 0 is kept
+ * free to mark transparent pixels; the colors take up indices 1 to 255.
+ *
+ * Colors are looked up through a table indexed by their top 5 bits per
+ * channel, so mapping a pixel to its index is a single array access.
+ */
+class GifPalette {
+	/** The index used for transparent pixels */
+	static final int TRANSPARENT = 0;
+
+	private static final int MAX_COLORS = 255;
+	private static final int KEYS = 1 << 15;
+
+	private final int[] colors;
+	private final byte[] lookup = new byte[KEYS];
+
+	/**
+	 * Collects the colors of sample frames to build a palette from.
+	 */
+	static class Builder {
+		private final int[] histogram = new int[KEYS];
+		private int[] row = null;
+
+		/**
+		 * Adds the colors of a frame.
+		 *
+		 * @param image the frame
+		 */
+		void addSample(BufferedImage image) {
+			int width = image.getWidth();
+			if (row == null || row.length < width)
+				row = new int[width];
+			for (int y = 0; y < image.getHeight(); y++) {
+				image.getRGB(0, y, width, 1, row, 0, width);
+				for (int x = 0; x < width; x++)
+					histogram[key(row[x])]++;
+			}
+		}
+
+		/**
+		 * Builds the palette.
+		 *
+		 * @return the palette
+		 */
+		GifPalette build() {
+			return new GifPalette(histogram);
+		}
+	}
+
+	private GifPalette(int[] histogram) {
+		colors = medianCut(histogram);
+		for (int key = 0; key < KEYS; key++)
+			lookup[key] = (byte) nearest(expand(key));
+	}
+
+	/**
+	 * Returns the index of the palette color closest to a color.
+	 *
+	 * @param rgb the color, as an RGB int (the alpha is ignored)
+	 * @return the index, which is never TRANSPARENT
+	 */
+	byte indexOf(int rgb) {
+		return lookup[key(rgb)];
+	}
+
+	/**
+	 * Returns the GIF color table: 256 RGB triples.
+	 *
+	 * @return the color table
+	 */
+	byte[] getColorTable() {
+		byte[] table = new byte[256 * 3];
+		for (int i = 0; i < colors.length; i++) {
+			table[i*3] = (byte) (colors[i] >> 16);
+			table[i*3+1] = (byte) (colors[i] >> 8);
+			table[i*3+2] = (byte) colors[i];
+		}
+		return table;
+	}
+
+	private int nearest(int rgb) {
+		int r = (rgb >> 16) & 0xff, g = (rgb >> 8) & 0xff, b = rgb & 0xff;
+		int best = 1;
+		int bestDistance = Integer.MAX_VALUE;
+		for (int i = 1; i < colors.length; i++) {
+			int dr = r - ((colors[i] >> 16) & 0xff);
+			int dg = g - ((colors[i] >> 8) & 0xff);
+			int db = b - (colors[i] & 0xff);
+			int distance = dr*dr + dg*dg + db*db;
+			if (distance < bestDistance) {
+				bestDistance = distance;
+				best = i;
+				if (distance == 0)
+					break;
+			}
+		}
+		return best;
+	}
+
+	/*
+	 * Median cut: start with one box holding every color in the histogram and
+	 * keep splitting the most populated box at the median of its widest channel.
+	 */
+	private static int[] medianCut(int[] histogram) {
+		int count = 0;
+		for (int key = 0; key < KEYS; key++)
+			if (histogram[key] > 0) count++;
+
+		int[] keys = new int[count];
+		int n = 0;
+		for (int key = 0; key < KEYS; key++)
+			if (histogram[key] > 0) keys[n++] = key;
+
+		// Each box is {first key, end key, number of pixels}
+		List<long[]> boxes = new ArrayList<long[]>();
+		if (count > 0)
+			boxes.add(box(keys, histogram, 0, count));
+
+		while (boxes.size() < MAX_COLORS) {
+			// Find the most populated box that can still be split
+			int best = -1;
+			for (int i = 0; i < boxes.size(); i++) {
+				long[] box = boxes.get(i);
+				if (box[1] - box[0] < 2)
+					continue;
+				if (best < 0 || box[2] > boxes.get(best)[2])
+					best = i;
+			}
+			if (best < 0)
+				break;
+
+			long[] box = boxes.get(best);
+			int from = (int) box[0], to = (int) box[1];
+			int channel = widestChannel(keys, from, to);
+			sortByChannel(keys, from, to, channel);
+
+			// Split where half the pixels are on each side
+			long half = 0;
+			int split = from;
+			while (split < to - 1 && half + histogram[keys[split]] <= box[2] / 2) {
+				half += histogram[keys[split]];
+				split++;
+			}
+			if (split == from)
+				split++;
+			boxes.set(best, box(keys, histogram, from, split));
+			boxes.add(box(keys, histogram, split, to));
+		}
+
+		int[] colors = new int[boxes.size() + 1];
+		for (int i = 0; i < boxes.size(); i++) {
+			long[] box = boxes.get(i);
+			long r = 0, g = 0, b = 0, total = 0;
+			for (int k = (int) box[0]; k < box[1]; k++) {
+				int rgb = expand(keys[k]);
+				long weight = histogram[keys[k]];
+				r += ((rgb >> 16) & 0xff) * weight;
+				g += ((rgb >> 8) & 0xff) * weight;
+				b += (rgb & 0xff) * weight;
+				total += weight;
+			}
+			colors[i+1] = (int)(r/total) << 16 | (int)(g/total) << 8 | (int)(b/total);
+		}
+		if (colors.length == 1) {
+			// Nothing was sampled
+			colors = new int[] {0, 0};
+		}
+		return colors;
+	}
+
+	private static long[] box(int[] keys, int[] histogram, int from, int to) {
+		long population = 0;
+		for (int k = from; k < to; k++)
+			population += histogram[keys[k]];
+		return new long[] {from, to, population};
+	}
+
+	private static int widestChannel(int[] keys, int from, int to) {
+		int[] min = {31, 31, 31};
+		int[] max = {0, 0, 0};
+		for (int k = from; k < to; k++) {
+			for (int c = 0; c < 3; c++) {
+				int v = channel(keys[k], c);
+				if (v < min[c]) min[c] = v;
+				if (v > max[c]) max[c] = v;
+			}
+		}
+		int widest = 0;
+		for (int c = 1; c < 3; c++)
+			if (max[c] - min[c] > max[widest] - min[widest]) widest = c;
+		return widest;
+	}
+
+	private static void sortByChannel(int[] keys, int from, int to, int channel) {
+		// Put the channel value above the key so a plain sort orders by it
+		for (int k = from; k < to; k++)
+			keys[k] |= channel(keys[k], channel) << 15;
+		Arrays.sort(keys, from, to);
+		for (int k = from; k < to; k++)
+			keys[k] &= KEYS - 1;
+	}
+
+	private static int channel(int key, int channel) {
+		return (key >> (10 - channel*5)) & 0x1f;
+	}
+
+	private static int key(int rgb) {
+		return ((rgb >> 9) & 0x7c00) | ((rgb >> 6) & 0x3e0) | ((rgb >> 3) & 0x1f);
+	}
+
+	private static int expand(int key) {
+		int r = (key >> 10) & 0x1f, g = (key >> 5) & 0x1f, b = key & 0x1f;
+		r = (r << 3) | (r >> 2);
+		g = (g << 3) | (g >> 2);
+		b = (b << 3) | (b >> 2);
+		return (r << 16) | (g << 8) | b;
+	}
+}
@@ -0,0 +1,52 @@
+package edu.ucsf.rbvi.CyAnimator.internal.model;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.text.DecimalFormat;
+import java.util.EnumSet;
+import java.util.Set;
+
+import javax.imageio.ImageIO;
+
+import org.cytoscape.work.TaskMonitor;
+import org.cytoscape.work.TaskMonitor.Level;
+
+import edu.ucsf.rbvi.CyAnimator.api.EncoderContext;
+import edu.ucsf.rbvi.CyAnimator.api.FrameEncoder;
+import edu.ucsf.rbvi.CyAnimator.api.FrameSink;
+
+/**
+ * Writes each frame to its own PNG file, Frame_000.png onwards.
+ */
+public class ImageSequenceEncoder implements FrameEncoder {
+	public String getId() { return "frames"; }
+
+	public String getName() { return "Frames"; }
+
+	public Set<Capability> getCapabilities() {
+		return EnumSet.of(Capability.STREAMING, Capability.LOSSLESS);
+	}
+
+	public FrameSink open(EncoderContext context) throws IOException {
+		final File directory = context.getDirectory();
+		final TaskMonitor monitor = context.getTaskMonitor();
+		return new FrameSink() {
+			private final DecimalFormat frame = new DecimalFormat("#000");
+
+			public void addFrame(int index, BufferedImage image) throws IOException {
+				File file = new File(directory, "Frame_"+frame.format(index)+".png");
+				try {
+					ImageIO.write(image, "png", file);
+				} catch (IOException e) {
+					monitor.showMessage(Level.ERROR, "Failed to write file "+file.getPath());
+					throw e;
+				}
+			}
+
+			public void close() {}
+
+			public void abort() {}
+		};
+	}
+}
@@ -26,6 +26,14 @@ package edu.ucsf.rbvi.CyAnimator.internal.model;
 
 import java.awt.Color;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import org.cytoscape.model.CyEdge;
 import org.cytoscape.model.CyNode;
 import org.cytoscape.view.presentation.annotations.Annotation;
@@ -41,8 +49,26 @@ public class Interpolator {
 	List<FrameInterpolator> edgeInterpolators = new ArrayList<FrameInterpolator>();	
 	List<FrameInterpolator> annotationInterpolators = new ArrayList<FrameInterpolator>();
 	List<FrameInterpolator> networkInterpolators = new ArrayList<FrameInterpolator>();
+
+	// Number of node or edge ids handed to a single interpolation task
+	private static final int CHUNK_SIZE = 256;
+	private static ExecutorService sharedExecutor = null;
+
+	// If null, everything is interpolated on the calling thread
+	private final ExecutorService executor;
 	
 	public Interpolator(){
+		this(null);
+	}
+
+	/**
+	 * Create an interpolator that runs the interpolation on an executor.
+	 *
+	 * @param executor the executor to run the interpolation tasks on, or null
+	 * to interpolate serially on the calling thread
+	 */
+	public Interpolator(ExecutorService executor){
+		this.executor = executor;
 		
 		//add any desired interpolators to their respective interpolator lists
 		nodeInterpolators.add(new interpolateNodeShape());
@@ -82,27 +108,10 @@ public class Interpolator {
 
 		if(frameList.isEmpty()){ return null; }
 		
-		//initialize the framecount to the number of key frames
-		int framecount = frameList.size();
-		
-		//add on the number of frames to be interpolated
-		for(int i=1; i<frameList.size(); i++){ 
-			
-			//each frame contains the number of frames which will be interpolated after it which is the interCount
-			framecount = framecount + frameList.get(i).getInterCount() - 1;
-		}
-
-		//create the main CyFrame array which will then be run through all of the interpolators
-		CyFrame[] cyFrameArray = new CyFrame[framecount]; //(frameList.size()-1)*framecount + 1];
-
-		//initialize the CyFrame array
-		for(int i=0; i<cyFrameArray.length; i++){
-			cyFrameArray[i] = new CyFrame(frameList.get(0).getBundleContext());
-			cyFrameArray[i].populate();
-		}
+		//create the main CyFrame array which will then be filled segment by segment
+		CyFrame[] cyFrameArray = new CyFrame[countFrames(frameList)];
 
 		int start = 0;
-		int end = 0;
 
 		/*
 		 * Runs through the key frame list and adds to the CyFrame array by interpolating between 
@@ -112,71 +121,324 @@ public class Interpolator {
 		 * two and frame three, then frame three and frame four, etc... until the key frames are fully
 		 * interpolated.
 		 */
-		for(int i=0; i < frameList.size()-1; i++) {
-			
-			//set framecount for this round of interpolation
-			framecount = frameList.get(i+1).getInterCount();
-			
-			//set ending point for frames to be made
-			end = start + framecount;
-			
-			//set the first frame to the the first key frame
-			cyFrameArray[start] = frameList.get(i);
-			List<CyNode> nodeList = nodeViewUnionize(frameList.get(i), frameList.get(i+1));
-			List<CyEdge> edgeList = edgeViewUnionize(frameList.get(i), frameList.get(i+1));
-			List<Annotation> annotationList = annotationUnionize(frameList.get(i), frameList.get(i+1));
-
-			List<Long> nodeIdList = nodeIdUnionize(frameList.get(i), frameList.get(i+1));
-			List<Long> edgeIdList = edgeIdUnionize(frameList.get(i), frameList.get(i+1));
-			List<Long> annotationIdList = annotationsIdUnionize(frameList.get(i), frameList.get(i+1));
-
-      //reset the nodeLists once the unionizer has updated them
-			for (int k = start+1; k < end; k++) {
-				cyFrameArray[k].setNodeList(nodeList);
-				cyFrameArray[k].setEdgeList(edgeList);
-				cyFrameArray[k].setAnnotationList(annotationList);
-			}
+		CyFrame[][] segments = makeSegments(frameList);
+		for(int i=0; i < segments.length; i++) {
+			CyFrame[] segment = segments[i];
 
-      //reset the nodeLists once the unionizer has updated them
-			for (int k = start+1; k < end; k++) {
-				cyFrameArray[k].setNodeIdList(nodeIdList);
-				cyFrameArray[k].setEdgeIdList(edgeIdList);
-			}
+			//the last frame of a segment is the first frame of the next one
+			System.arraycopy(segment, 0, cyFrameArray, start, segment.length-1);
+			start = start + segment.length-1;
+		}
+	   		
+		cyFrameArray[start] = frameList.get(frameList.size()-1);
+	   	
+		return cyFrameArray;
+	}
 
-			/*
-			 * Interpolates all of the node, edge, and network visual properties, this happens by 
-			 * iterating through the respective lists of FrameInterpolators which are classes that
-			 * implement FrameInterpolator.  This allows for modularization of the interpolation as
-			 * you can easily change which FrameInterpolators are in the node, edge, and network 
-			 * interpolation lists.
-			 */
-			for(FrameInterpolator interp: nodeInterpolators){
-				cyFrameArray = interp.interpolate(nodeIdList, frameList.get(i), frameList.get(i+1), 
-				                                  start, end, cyFrameArray);
-			}
+	/**
+	 * Returns the total number of frames in the animation once the key frames
+	 * in frameList have been interpolated.
+	 *
+	 * @param frameList is a list of CyFrames which are key frames in the animation
+	 * @return the number of frames, including the key frames themselves
+	 */
+	public static int countFrames(List<CyFrame> frameList) {
+		if(frameList.isEmpty()){ return 0; }
 
-			for(FrameInterpolator interp: edgeInterpolators){
-				cyFrameArray = interp.interpolate(edgeIdList, frameList.get(i), frameList.get(i+1), 
-				                                  start, end, cyFrameArray);
-			}
+		//each frame contains the number of frames which will be interpolated after it which is the interCount
+		int framecount = 1;
+		for(int i=1; i<frameList.size(); i++){ 
+			framecount = framecount + segmentLength(frameList.get(i));
+		}
+		return framecount;
+	}
 
-			for(FrameInterpolator interp: annotationInterpolators){
-				cyFrameArray = interp.interpolate(annotationIdList, frameList.get(i), frameList.get(i+1), 
-				                                  start, end, cyFrameArray);
-			}
+	/**
+	 * Returns the number of frames the segment ending at the given key frame adds
+	 * to the animation, i.e. the interpolated frames plus the key frame itself.
+	 *
+	 * @param frameTwo the key frame that ends the segment
+	 * @return the number of frames in the segment
+	 */
+	static int segmentLength(CyFrame frameTwo) {
+		return Math.max(frameTwo.getInterCount(), 0);
+	}
+
+	/**
+	 * Interpolates a single segment of the animation, that is the frames between
+	 * two successive key frames.
+	 *
+	 * @param frameOne is the key frame the segment starts from
+	 * @param frameTwo is the key frame the segment ends at
+	 * @return an array of CyFrames whose first element is frameOne, whose last element 
+	 * is frameTwo and whose middle elements hold the interpolated frames
+	 */
+	public CyFrame[] makeSegment(CyFrame frameOne, CyFrame frameTwo) {
+		return makeSegments(Arrays.asList(frameOne, frameTwo))[0];
+	}
+
+	/**
+	 * Interpolates only some of the frames of a segment.  The frames that aren't
+	 * wanted are never created or filled in: the interpolators write their values
+	 * for all of them into a single scratch frame, which is thrown away.
+	 *
+	 * @param frameOne is the key frame the segment starts from
+	 * @param frameTwo is the key frame the segment ends at
+	 * @param wanted for each frame of the segment (starting with frameOne), whether
+	 * it is needed
+	 * @return an array like the one makeSegment returns, holding null where the
+	 * frame wasn't wanted
+	 */
+	public CyFrame[] makeSegment(CyFrame frameOne, CyFrame frameTwo, boolean[] wanted) {
+		List<InterpolationTask> tasks = new ArrayList<InterpolationTask>();
+		CyFrame[] segment = prepareSegment(frameOne, frameTwo, wanted, tasks);
+		runTasks(tasks);
+
+		for (int k = 1; k < segment.length-1; k++) {
+			if (k < wanted.length && !wanted[k])
+				segment[k] = null;
+		}
+		return segment;
+	}
+
+	/**
+	 * Interpolates every segment between successive key frames in frameList.  The
+	 * frames are created one after the other, but once they all exist the
+	 * interpolation itself is handed to the executor (if there is one): every
+	 * interpolator of every segment is run as a separate task, and the node and edge
+	 * interpolators are further split into chunks of ids.  Since no two tasks write
+	 * the same property of the same element of the same frame, the result doesn't
+	 * depend on the order in which the tasks run.
+	 *
+	 * @param frameList is a list of CyFrames which are key frames in the animation
+	 * @return one array per segment, as returned by makeSegment
+	 */
+	public CyFrame[][] makeSegments(List<CyFrame> frameList) {
+		if(frameList.size() < 2){ return new CyFrame[0][]; }
+
+		CyFrame[] fromFrames = frameList.subList(0, frameList.size()-1).toArray(new CyFrame[0]);
+		CyFrame[] toFrames = frameList.subList(1, frameList.size()).toArray(new CyFrame[0]);
+		return makeSegments(fromFrames, toFrames);
+	}
+
+	/**
+	 * Interpolates a set of segments which needn't follow each other, for example
+	 * the segments around the key frames that were edited.
+	 *
+	 * @param fromFrames the key frame each segment starts from
+	 * @param toFrames the key frame each segment ends at
+	 * @return one array per segment, as returned by makeSegment
+	 */
+	public CyFrame[][] makeSegments(CyFrame[] fromFrames, CyFrame[] toFrames) {
+		CyFrame[][] segments = new CyFrame[fromFrames.length][];
+		List<InterpolationTask> tasks = new ArrayList<InterpolationTask>();
+		for(int i=0; i < segments.length; i++) {
+			segments[i] = prepareSegment(fromFrames[i], toFrames[i], null, tasks);
+		}
 
-			for(FrameInterpolator interp: networkInterpolators){
-				cyFrameArray = interp.interpolate(nodeIdList, frameList.get(i), frameList.get(i+1), 
-				                                  start, end, cyFrameArray);
+		runTasks(tasks);
+		return segments;
+	}
+
+	/**
+	 * Creates the frames of a single segment and adds the work needed to interpolate
+	 * them to the task list.  The tasks are added in the order the interpolators have
+	 * always been run in, so running them one after the other is the same as the
+	 * original serial interpolation.  If only some of the frames are wanted, the
+	 * others all share one scratch frame.
+	 */
+	private CyFrame[] prepareSegment(CyFrame frameOne, CyFrame frameTwo, boolean[] wanted,
+	                                 List<InterpolationTask> tasks) {
+
+		//set framecount for this round of interpolation
+		int framecount = segmentLength(frameTwo);
+		if (framecount == 0) {
+			CyFrame[] cyFrameArray = { frameTwo };
+			return cyFrameArray;
+		}
+
+		int start = 0;
+		int end = framecount;
+
+		CyFrame[] cyFrameArray = new CyFrame[framecount+1];
+
+		//initialize the frames which will be interpolated.  Rather than each one
+		//populating itself from the view, they share a baseline made from the key
+		//frames and only store what the interpolators set to something else.  None
+		//of this touches the network view, so segments can be built on any thread
+		CyFrame baseline = null;
+		if (end > start+1)
+			baseline = CyFrame.createBaseline(frameOne, frameTwo);
+		CyFrame scratch = null;
+		for(int k=start+1; k<end; k++){
+			if (wanted != null && k < wanted.length && !wanted[k]) {
+				if (scratch == null) {
+					scratch = new CyFrame(frameOne);
+					scratch.setBaseline(baseline);
+				}
+				cyFrameArray[k] = scratch;
+				continue;
 			}
+			cyFrameArray[k] = new CyFrame(frameOne);
+			cyFrameArray[k].setBaseline(baseline);
+		}
 
-			start = end;
+		//set the first frame to the the first key frame and the last one to the second
+		cyFrameArray[start] = frameOne;
+		cyFrameArray[end] = frameTwo;
+
+		List<CyNode> nodeList = nodeViewUnionize(frameOne, frameTwo);
+		List<CyEdge> edgeList = edgeViewUnionize(frameOne, frameTwo);
+		List<Annotation> annotationList = annotationUnionize(frameOne, frameTwo);
+
+		List<Long> nodeIdList = nodeIdUnionize(frameOne, frameTwo);
+		List<Long> edgeIdList = edgeIdUnionize(frameOne, frameTwo);
+		List<Long> annotationIdList = annotationsIdUnionize(frameOne, frameTwo);
+
+		//reset the nodeLists once the unionizer has updated them
+		for (int k = start+1; k < end; k++) {
+			cyFrameArray[k].setNodeList(nodeList);
+			cyFrameArray[k].setEdgeList(edgeList);
+			cyFrameArray[k].setAnnotationList(annotationList);
+			cyFrameArray[k].setNodeIdList(nodeIdList);
+			cyFrameArray[k].setEdgeIdList(edgeIdList);
+			cyFrameArray[k].setAnnotationIdList(annotationIdList);
+
+			//the columns mustn't grow while the tasks are writing them, whichever
+			//thread they run on and whatever else is added to the index meanwhile
+			if (cyFrameArray[k] != scratch)
+				cyFrameArray[k].reserveColumns();
 		}
-	   		
-		cyFrameArray[end] = frameList.get(frameList.size()-1);
-	   	
+		//the scratch frame stands in for every unwanted frame, so it is only
+		//reserved once
+		if (scratch != null)
+			scratch.reserveColumns();
+
+		/*
+		 * Interpolates all of the node, edge, and network visual properties, this happens by 
+		 * iterating through the respective lists of FrameInterpolators which are classes that
+		 * implement FrameInterpolator.  This allows for modularization of the interpolation as
+		 * you can easily change which FrameInterpolators are in the node, edge, and network 
+		 * interpolation lists.
+		 */
+		for(FrameInterpolator interp: nodeInterpolators){
+			addTasks(tasks, interp, nodeIdList, frameOne, frameTwo, start, end, cyFrameArray);
+		}
+
+		for(FrameInterpolator interp: edgeInterpolators){
+			addTasks(tasks, interp, edgeIdList, frameOne, frameTwo, start, end, cyFrameArray);
+		}
+
+		// The annotation and network interpolators are cheap and keep their values
+		// in plain maps, so each of those lists runs as a single task
+		tasks.add(new InterpolationTask(annotationInterpolators, annotationIdList,
+		                                frameOne, frameTwo, start, end, cyFrameArray));
+		tasks.add(new InterpolationTask(networkInterpolators, nodeIdList,
+		                                frameOne, frameTwo, start, end, cyFrameArray));
+
 		return cyFrameArray;
 	}
+
+	/**
+	 * Adds the tasks for a node or edge interpolator, splitting the ids into
+	 * chunks if we are going to run in parallel.
+	 */
+	private void addTasks(List<InterpolationTask> tasks, FrameInterpolator interp, List<Long> idList,
+	                      CyFrame frameOne, CyFrame frameTwo, int start, int end, CyFrame[] cyFrameArray) {
+		List<FrameInterpolator> interps = Collections.singletonList(interp);
+		if (executor == null || idList.size() <= CHUNK_SIZE) {
+			tasks.add(new InterpolationTask(interps, idList, frameOne, frameTwo, start, end, cyFrameArray));
+			return;
+		}
+
+		for (int first = 0; first < idList.size(); first += CHUNK_SIZE) {
+			List<Long> chunk = idList.subList(first, Math.min(first+CHUNK_SIZE, idList.size()));
+			tasks.add(new InterpolationTask(interps, chunk, frameOne, frameTwo, start, end, cyFrameArray));
+		}
+	}
+
+	/**
+	 * Runs the interpolation tasks, either one after the other on this thread or
+	 * all at once on the executor, and waits for them to finish.
+	 */
+	private void runTasks(List<InterpolationTask> tasks) {
+		if (executor == null || tasks.size() < 2) {
+			for (InterpolationTask task: tasks)
+				task.call();
+			return;
+		}
+
+		try {
+			for (Future<Object> result: executor.invokeAll(tasks)) {
+				result.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interpolation was interrupted", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException)cause;
+			if (cause instanceof Error)
+				throw (Error)cause;
+			throw new RuntimeException(cause);
+		}
+	}
+
+	/**
+	 * Returns an executor suitable for parallel interpolation, with one thread per
+	 * processor.  The threads are daemon threads and go away when they have been
+	 * idle for a while, so the executor never needs to be shut down.
+	 *
+	 * @return the shared interpolation executor
+	 */
+	public static synchronized ExecutorService getSharedExecutor() {
+		if (sharedExecutor == null) {
+			int threads = Runtime.getRuntime().availableProcessors();
+			ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 30L, TimeUnit.SECONDS,
+			                                                 new LinkedBlockingQueue<Runnable>(),
+			                                                 new ThreadFactory() {
+				private int count = 0;
+				public synchronized Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "CyAnimator interpolator "+(++count));
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			pool.allowCoreThreadTimeOut(true);
+			sharedExecutor = pool;
+		}
+		return sharedExecutor;
+	}
+
+	/**
+	 * Runs a list of interpolators over a list of ids for one segment.
+	 */
+	static class InterpolationTask implements Callable<Object> {
+		private final List<FrameInterpolator> interpolators;
+		private final List<Long> idList;
+		private final CyFrame frameOne, frameTwo;
+		private final int start, end;
+		private final CyFrame[] cyFrameArray;
+
+		InterpolationTask(List<FrameInterpolator> interpolators, List<Long> idList,
+		                  CyFrame frameOne, CyFrame frameTwo, int start, int end, CyFrame[] cyFrameArray) {
+			this.interpolators = interpolators;
+			this.idList = idList;
+			this.frameOne = frameOne;
+			this.frameTwo = frameTwo;
+			this.start = start;
+			this.end = end;
+			this.cyFrameArray = cyFrameArray;
+		}
+
+		public Object call() {
+			for(FrameInterpolator interp: interpolators){
+				interp.interpolate(idList, frameOne, frameTwo, start, end, cyFrameArray);
+			}
+			return null;
+		}
+	}
 	
 	
 	/**
@@ -0,0 +1,265 @@
+package edu.ucsf.rbvi.CyAnimator.internal.model;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+/**
+ * Writes a Motion JPEG video in an AVI file, using nothing but the JDK.  Each
+ * frame is compressed to a JPEG and written straight to the file through a
+ * FileChannel; the header is written with placeholder sizes to begin with and
+ * filled in when the file is closed, once the number of frames is known.  This
+ * is what video exports fall back on when the xuggle native libraries aren't
+ * available.
+ *
+ * This writes a plain AVI 1.0 file, whose sizes and offsets are 32 bit, so it
+ * can't be larger than 2 GB.  A frame that would take the file past that isn't
+ * written: addFrame() throws instead, and the file can still be closed to get a
+ * valid video of the frames before it.
+ */
+class MjpegAviWriter implements VideoWriter {
+	// Offsets in the header of the fields filled in by close()
+	private static final int RIFF_SIZE = 4;
+	private static final int AVIH_TOTAL_FRAMES = 48;
+	private static final int AVIH_BUFFER_SIZE = 60;
+	private static final int STRH_LENGTH = 140;
+	private static final int STRH_BUFFER_SIZE = 144;
+	private static final int MOVI_SIZE = 216;
+	// The 'movi' list type, which index offsets are relative to
+	private static final int MOVI_START = 220;
+	private static final int HEADER_SIZE = 224;
+
+	private static final int AVIF_HASINDEX = 0x10;
+	private static final int AVIIF_KEYFRAME = 0x10;
+
+	// The largest file whose sizes and offsets fit in the header and the index
+	private static final long MAX_FILE_SIZE = Integer.MAX_VALUE;
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final double frameRate;
+	private final float quality;
+	private final long maxFileSize;
+
+	private ByteBuffer header = null;
+	private BufferedImage bgrFrame = null;
+	private ImageWriter jpegWriter = null;
+	private ImageWriteParam jpegParam = null;
+	private final JpegBuffer jpeg = new JpegBuffer();
+	private final ByteBuffer chunkHeader = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+	private final ByteBuffer padding = ByteBuffer.allocate(1);
+
+	// The idx1 entries: 16 bytes per frame
+	private ByteBuffer index = ByteBuffer.allocate(16 * 256).order(ByteOrder.LITTLE_ENDIAN);
+	private int frameCount = 0;
+	private int largestFrame = 0;
+
+	/**
+	 * An output buffer whose contents can be written without copying them.
+	 */
+	private static class JpegBuffer extends ByteArrayOutputStream {
+		ByteBuffer contents() {
+			return ByteBuffer.wrap(buf, 0, count);
+		}
+	}
+
+	/**
+	 * Create a writer.  The video is the size of the first frame.
+	 *
+	 * @param output the AVI file to write
+	 * @param frameRate the number of frames per second
+	 * @param quality the JPEG quality, from 0 to 1
+	 * @throws IOException if the file can't be created
+	 */
+	MjpegAviWriter(File output, double frameRate, float quality) throws IOException {
+		this(output, frameRate, quality, MAX_FILE_SIZE);
+	}
+
+	/**
+	 * Create a writer which stops at a given file size.
+	 *
+	 * @param output the AVI file to write
+	 * @param frameRate the number of frames per second
+	 * @param quality the JPEG quality, from 0 to 1
+	 * @param maxFileSize the largest the file may get, at most 2 GB
+	 * @throws IOException if the file can't be created
+	 */
+	MjpegAviWriter(File output, double frameRate, float quality, long maxFileSize) throws IOException {
+		this.file = new RandomAccessFile(output, "rw");
+		this.file.setLength(0);
+		this.channel = file.getChannel();
+		this.frameRate = frameRate;
+		this.quality = quality;
+		this.maxFileSize = Math.min(maxFileSize, MAX_FILE_SIZE);
+	}
+
+	public void addFrame(BufferedImage image) throws IOException {
+		if (header == null)
+			open(image.getWidth(), image.getHeight());
+
+		// JPEG has no alpha, so draw the frame onto an opaque image first
+		Graphics2D g = bgrFrame.createGraphics();
+		g.drawImage(image, 0, 0, null);
+		g.dispose();
+
+		jpeg.reset();
+		ImageOutputStream stream = new MemoryCacheImageOutputStream(jpeg);
+		jpegWriter.setOutput(stream);
+		jpegWriter.write(null, new IIOImage(bgrFrame, null, null), jpegParam);
+		stream.close();
+
+		int size = jpeg.size();
+		long offset = channel.position() - MOVI_START;
+
+		// The file has to hold the frame, its index entry and the index header
+		long fileEnd = channel.position() + 8 + size + (size & 1) + 8 + index.position() + 16;
+		if (fileEnd > maxFileSize)
+			throw new IOException("The video can't hold frame "+(frameCount+1)+": an AVI file can't be larger than "+
+			                      (maxFileSize >> 20)+" MB.  Try exporting fewer frames, a smaller size or a lower quality.");
+		chunkHeader.clear();
+		chunkHeader.put(fourCC("00dc")).putInt(size).flip();
+		writeFully(chunkHeader);
+		writeFully(jpeg.contents());
+		// Chunks are padded to an even length
+		if ((size & 1) != 0) {
+			padding.clear();
+			writeFully(padding);
+		}
+
+		if (index.remaining() < 16) {
+			ByteBuffer bigger = ByteBuffer.allocate(index.capacity() * 2).order(ByteOrder.LITTLE_ENDIAN);
+			index.flip();
+			bigger.put(index);
+			index = bigger;
+		}
+		index.put(fourCC("00dc")).putInt(AVIIF_KEYFRAME).putInt((int) offset).putInt(size);
+		frameCount++;
+		largestFrame = Math.max(largestFrame, size);
+	}
+
+	/**
+	 * Writes the index, fills in the header and closes the file.
+	 *
+	 * @throws IOException if the file can't be written
+	 */
+	public void close() throws IOException {
+		try {
+			if (header == null)
+				return;
+			long moviEnd = channel.position();
+
+			chunkHeader.clear();
+			chunkHeader.put(fourCC("idx1")).putInt(index.position()).flip();
+			writeFully(chunkHeader);
+			index.flip();
+			writeFully(index);
+
+			long fileEnd = channel.position();
+			header.putInt(RIFF_SIZE, (int) (fileEnd - 8));
+			header.putInt(AVIH_TOTAL_FRAMES, frameCount);
+			header.putInt(AVIH_BUFFER_SIZE, largestFrame + 8);
+			header.putInt(STRH_LENGTH, frameCount);
+			header.putInt(STRH_BUFFER_SIZE, largestFrame + 8);
+			header.putInt(MOVI_SIZE, (int) (moviEnd - MOVI_START));
+			header.rewind();
+			channel.position(0);
+			writeFully(header);
+		} finally {
+			if (jpegWriter != null)
+				jpegWriter.dispose();
+			channel.close();
+			file.close();
+		}
+	}
+
+	private void open(int width, int height) throws IOException {
+		bgrFrame = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+
+		Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("jpeg");
+		if (!writers.hasNext())
+			throw new IOException("No JPEG image writer available");
+		jpegWriter = writers.next();
+		jpegParam = jpegWriter.getDefaultWriteParam();
+		jpegParam.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+		jpegParam.setCompressionQuality(quality);
+
+		// The frame rate as a fraction: rate/scale frames per second
+		int scale = 1000;
+		int rate = (int) Math.round(frameRate * scale);
+
+		header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		header.put(fourCC("RIFF")).putInt(0).put(fourCC("AVI "));
+		header.put(fourCC("LIST")).putInt(192).put(fourCC("hdrl"));
+
+		// Main AVI header
+		header.put(fourCC("avih")).putInt(56);
+		header.putInt((int) Math.round(1000000.0 / frameRate));
+		header.putInt(0);
+		header.putInt(0);
+		header.putInt(AVIF_HASINDEX);
+		header.putInt(0);
+		header.putInt(0);
+		header.putInt(1);
+		header.putInt(0);
+		header.putInt(width);
+		header.putInt(height);
+		header.putInt(0).putInt(0).putInt(0).putInt(0);
+
+		// Stream header and format
+		header.put(fourCC("LIST")).putInt(116).put(fourCC("strl"));
+		header.put(fourCC("strh")).putInt(56);
+		header.put(fourCC("vids")).put(fourCC("MJPG"));
+		header.putInt(0);
+		header.putShort((short) 0).putShort((short) 0);
+		header.putInt(0);
+		header.putInt(scale);
+		header.putInt(rate);
+		header.putInt(0);
+		header.putInt(0);
+		header.putInt(0);
+		header.putInt(-1);
+		header.putInt(0);
+		header.putShort((short) 0).putShort((short) 0).putShort((short) width).putShort((short) height);
+
+		header.put(fourCC("strf")).putInt(40);
+		header.putInt(40);
+		header.putInt(width);
+		header.putInt(height);
+		header.putShort((short) 1);
+		header.putShort((short) 24);
+		header.put(fourCC("MJPG"));
+		header.putInt(width * height * 3);
+		header.putInt(0).putInt(0).putInt(0).putInt(0);
+
+		header.put(fourCC("LIST")).putInt(0).put(fourCC("movi"));
+		header.flip();
+		channel.position(0);
+		writeFully(header);
+	}
+
+	private void writeFully(ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+	}
+
+	private static byte[] fourCC(String code) {
+		byte[] bytes = new byte[4];
+		for (int i = 0; i < 4; i++)
+			bytes[i] = (byte) code.charAt(i);
+		return bytes;
+	}
+}
@@ -0,0 +1,138 @@
+package edu.ucsf.rbvi.CyAnimator.internal.model;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.cytoscape.work.TaskMonitor.Level;
+
+import edu.ucsf.rbvi.CyAnimator.api.EncoderContext;
+import edu.ucsf.rbvi.CyAnimator.api.FrameEncoder;
+import edu.ucsf.rbvi.CyAnimator.api.FrameSink;
+
+/**
+ * Writes an animated GIF with GifAnimationWriter: one palette sampled from the
+ * whole animation, only the changed part of each frame stored, and the frames
+ * encoded on several threads.
+ */
+public class OptimizedGifEncoder implements FrameEncoder {
+	//the number of frames the palette is built from
+	private static final int PALETTE_SAMPLES = 8;
+
+	public String getId() { return "gif-optimized"; }
+
+	public String getName() { return "GIF (optimized)"; }
+
+	public Set<Capability> getCapabilities() {
+		return EnumSet.of(Capability.STREAMING, Capability.PARALLEL, Capability.TIMED);
+	}
+
+	public FrameSink open(EncoderContext context) throws IOException {
+		context.getTaskMonitor().showMessage(Level.INFO, "Building GIF palette");
+		final GifPalette palette = samplePalette(context);
+		context.getTaskMonitor().showMessage(Level.INFO, "Creating optimized animated GIF");
+
+		final File file = new File(context.getDirectory(), "video.gif");
+		final int frameRate = context.getFrameRate();
+		final int threads = context.getEncoderThreads();
+		return new FrameSink() {
+			private OutputStream stream = null;
+			private GifAnimationWriter writer = null;
+			private ExecutorService executor = null;
+			private ParallelGifWriter parallelWriter = null;
+
+			public void addFrame(int index, BufferedImage image) throws IOException {
+				if (writer == null) {
+					stream = new BufferedOutputStream(new FileOutputStream(file));
+					writer = new GifAnimationWriter(stream, image.getWidth(), image.getHeight(),
+					                                palette, frameRate, true);
+					if (threads > 1) {
+						executor = createExecutor(threads);
+						parallelWriter = new ParallelGifWriter(writer, image.getWidth(), image.getHeight(),
+						                                       palette, executor, 2*threads);
+					}
+				}
+				if (parallelWriter != null)
+					parallelWriter.writeFrame(image);
+				else
+					writer.writeFrame(image);
+			}
+
+			public void close() throws IOException {
+				try {
+					if (parallelWriter != null)
+						parallelWriter.finish();
+					if (writer != null)
+						writer.close();
+				} finally {
+					release();
+				}
+			}
+
+			public void abort() {
+				//frames still being encoded aren't worth waiting for
+				if (parallelWriter != null)
+					parallelWriter.discard();
+				try {
+					if (writer != null)
+						writer.close();
+				} catch (IOException e) {
+				} finally {
+					release();
+				}
+			}
+
+			private void release() {
+				if (executor != null) {
+					executor.shutdownNow();
+					executor = null;
+				}
+				if (stream != null) {
+					try {
+						stream.close();
+					} catch (IOException e) {}
+					stream = null;
+				}
+			}
+		};
+	}
+
+	/**
+	 * Builds the palette from frames spread evenly through the animation.
+	 */
+	private static GifPalette samplePalette(EncoderContext context) throws IOException {
+		GifPalette.Builder builder = new GifPalette.Builder();
+		int frameCount = context.getFrameCount();
+		int samples = Math.min(PALETTE_SAMPLES, frameCount);
+		for (int k = 0; k < samples; k++) {
+			int index = samples == 1 ? 0 : (int)((long)k * (frameCount-1) / (samples-1));
+			try {
+				builder.addSample(context.renderFrame(index));
+			} catch (IOException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new IOException("Unable to render frame "+index, e);
+			}
+		}
+		return builder.build();
+	}
+
+	private static ExecutorService createExecutor(int threads) {
+		return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private int count = 0;
+			public synchronized Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "CyAnimator GIF encoder "+(++count));
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+}
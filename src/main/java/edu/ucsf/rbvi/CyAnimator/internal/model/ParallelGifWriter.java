@@ -0,0 +1,132 @@
+package edu.ucsf.rbvi.CyAnimator.internal.model;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Encodes the frames of a GifAnimationWriter on a pool of worker threads.
+ * Working out the changed part of a frame, mapping it to the palette and LZW
+ * compressing it only depends on the frame and the one before it, so several
+ * frames can be encoded at once.  The encoded frames are then handed to the
+ * writer in order, on the thread calling writeFrame().
+ *
+ * At most maxPending frames are being encoded at a time; writeFrame() waits for
+ * the oldest one to be written before taking on any more.
+ */
+class ParallelGifWriter {
+	// Each worker thread compresses with its own tables
+	private static final ThreadLocal<GifLzwEncoder> encoders = new ThreadLocal<GifLzwEncoder>() {
+		protected GifLzwEncoder initialValue() {
+			return new GifLzwEncoder();
+		}
+	};
+
+	private final GifAnimationWriter writer;
+	private final int width;
+	private final int height;
+	private final GifPalette palette;
+	private final ExecutorService executor;
+	private final int maxPending;
+
+	// The frames being encoded, oldest first
+	private final LinkedList<Future<GifAnimationWriter.EncodedFrame>> pending =
+		new LinkedList<Future<GifAnimationWriter.EncodedFrame>>();
+	// The pixels of those frames, plus those of the frame before the oldest one
+	// while its pixels may still be being compared against
+	private final LinkedList<int[]> pixelArrays = new LinkedList<int[]>();
+	// Pixel arrays which are free to reuse
+	private final LinkedList<int[]> spare = new LinkedList<int[]>();
+	private int[] previous = null;
+
+	/**
+	 * Create a writer.
+	 *
+	 * @param writer the animation the frames are added to
+	 * @param width the width of the animation
+	 * @param height the height of the animation
+	 * @param palette the colors every frame is drawn with
+	 * @param executor the worker threads to encode on
+	 * @param maxPending the number of frames that may be encoded at once
+	 */
+	ParallelGifWriter(GifAnimationWriter writer, int width, int height, GifPalette palette,
+	                  ExecutorService executor, int maxPending) {
+		this.writer = writer;
+		this.width = width;
+		this.height = height;
+		this.palette = palette;
+		this.executor = executor;
+		this.maxPending = Math.max(maxPending, 1);
+	}
+
+	/**
+	 * Queues a frame to be encoded.  The image isn't kept, so it may be reused as
+	 * soon as this returns.
+	 *
+	 * @param image the frame
+	 * @throws IOException if an earlier frame couldn't be encoded or written
+	 */
+	void writeFrame(BufferedImage image) throws IOException {
+		final int[] current = spare.isEmpty() ? new int[width * height] : spare.removeFirst();
+		GifAnimationWriter.readPixels(image, current, width, height);
+		final int[] before = previous;
+
+		pending.addLast(executor.submit(new Callable<GifAnimationWriter.EncodedFrame>() {
+			public GifAnimationWriter.EncodedFrame call() {
+				return GifAnimationWriter.encodeFrame(current, before, width, height, palette,
+				                                      encoders.get());
+			}
+		}));
+		pixelArrays.addLast(current);
+		previous = current;
+
+		while (pending.size() >= maxPending)
+			writeNext();
+	}
+
+	/**
+	 * Waits for every queued frame to be encoded and written.  This doesn't close
+	 * the animation.
+	 *
+	 * @throws IOException if a frame couldn't be encoded or written
+	 */
+	void finish() throws IOException {
+		while (!pending.isEmpty())
+			writeNext();
+	}
+
+	/**
+	 * Throws away any frames which haven't been written yet.
+	 */
+	void discard() {
+		for (Future<GifAnimationWriter.EncodedFrame> future: pending)
+			future.cancel(false);
+		pending.clear();
+		pixelArrays.clear();
+		spare.clear();
+	}
+
+	private void writeNext() throws IOException {
+		Future<GifAnimationWriter.EncodedFrame> future = pending.removeFirst();
+		GifAnimationWriter.EncodedFrame frame;
+		try {
+			frame = future.get();
+		} catch (InterruptedException e) {
+			discard();
+			throw new InterruptedIOException("Interrupted while encoding GIF frame");
+		} catch (ExecutionException e) {
+			discard();
+			throw new IOException("Unable to encode GIF frame", e.getCause());
+		}
+		writer.addEncodedFrame(frame);
+
+		// Once a frame is encoded, the pixels of the frame before it aren't needed
+		while (pixelArrays.size() > pending.size() + 1)
+			spare.addLast(pixelArrays.removeFirst());
+	}
+}
@@ -0,0 +1,139 @@
+package edu.ucsf.rbvi.CyAnimator.internal.model;
+
+/**
+ * Keeps playback in step with the wall clock.  Rather than advancing one frame per
+ * timer tick, the frame to show is worked out from the time elapsed since playback
+ * started, so a slow frame makes the animation skip ahead instead of slowing it
+ * down.  Frames are numbered by a sequence number which keeps counting up when the
+ * animation wraps around; the frame index is the sequence number modulo the number
+ * of frames.
+ *
+ * The clock is used from both the event dispatch thread and the prefetch thread.
+ */
+class PlaybackClock {
+	/**
+	 * Where the clock gets the time from.
+	 */
+	interface TimeSource {
+		/**
+		 * Returns the current time, as System.nanoTime() does.
+		 *
+		 * @return the time in nanoseconds
+		 */
+		long nanoTime();
+	}
+
+	private static final TimeSource SYSTEM_TIME = new TimeSource() {
+		public long nanoTime() {
+			return System.nanoTime();
+		}
+	};
+
+	private final TimeSource time;
+	private double rate;
+	private boolean running = false;
+	private long startNanos = 0;
+	private long startSequence = 0;
+
+	private long lastShown = -1;
+	private long droppedFrames = 0;
+
+	/**
+	 * Create a stopped clock.
+	 *
+	 * @param rate the number of frames per second
+	 */
+	PlaybackClock(double rate) {
+		this(rate, SYSTEM_TIME);
+	}
+
+	/**
+	 * Create a stopped clock which gets the time from somewhere other than the
+	 * system clock.
+	 *
+	 * @param rate the number of frames per second
+	 * @param time the source of the time
+	 */
+	PlaybackClock(double rate, TimeSource time) {
+		this.rate = rate;
+		this.time = time;
+	}
+
+	/**
+	 * Starts the clock, with the given frame due now.
+	 *
+	 * @param sequence the sequence number of the first frame
+	 */
+	synchronized void start(long sequence) {
+		startNanos = time.nanoTime();
+		startSequence = sequence;
+		lastShown = sequence-1;
+		running = true;
+	}
+
+	/**
+	 * Stops the clock.  The frame that is due stays where it was.
+	 */
+	synchronized void stop() {
+		if (!running)
+			return;
+		startSequence = currentFrame();
+		running = false;
+	}
+
+	/**
+	 * Changes the number of frames per second without making the current frame jump.
+	 *
+	 * @param rate the number of frames per second
+	 */
+	synchronized void setRate(double rate) {
+		if (running) {
+			startSequence = currentFrame();
+			startNanos = time.nanoTime();
+		}
+		this.rate = rate;
+	}
+
+	/**
+	 * Returns the number of frames per second.
+	 *
+	 * @return the frame rate
+	 */
+	synchronized double getRate() {
+		return rate;
+	}
+
+	/**
+	 * Returns the sequence number of the frame that should be showing now.
+	 *
+	 * @return the sequence number of the current frame
+	 */
+	synchronized long currentFrame() {
+		if (!running)
+			return startSequence;
+		long elapsed = time.nanoTime() - startNanos;
+		return startSequence + (long)(elapsed * rate / 1000000000.0);
+	}
+
+	/**
+	 * Records that a frame has been shown, counting any frames that were skipped
+	 * to get to it.
+	 *
+	 * @param sequence the sequence number of the frame
+	 */
+	synchronized void frameShown(long sequence) {
+		if (sequence > lastShown+1)
+			droppedFrames += sequence - lastShown - 1;
+		lastShown = sequence;
+	}
+
+	/**
+	 * Returns the number of frames skipped since the clock was created, because
+	 * they weren't ready by the time they were due.
+	 *
+	 * @return the number of dropped frames
+	 */
+	synchronized long getDroppedFrames() {
+		return droppedFrames;
+	}
+}
@@ -0,0 +1,132 @@
+package edu.ucsf.rbvi.CyAnimator.internal.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.cytoscape.model.CyEdge;
+import org.cytoscape.model.CyNode;
+import org.cytoscape.view.model.CyNetworkView;
+import org.cytoscape.view.model.View;
+import org.cytoscape.view.model.VisualProperty;
+
+/**
+ * A list of visual property changes for the node and edge views of a network
+ * view, worked out ahead of time and applied in one go.  This lets the expensive
+ * part of displaying a frame (deciding what to change) happen off the event
+ * dispatch thread, leaving only the changes themselves to be made on it.
+ *
+ * A batch worked out against a base frame only holds the properties that differ
+ * from that frame, so it may only be applied while the base frame is showing.
+ *
+ * The changes can be made either to a view or to a node or edge.  A node or edge
+ * is only looked up in the network view when the batch is applied, so a batch can
+ * be worked out without reading the view, which mustn't be done off the event
+ * dispatch thread.  Changes to a node or edge which has no view by then are
+ * skipped.
+ */
+class PropertyBatch {
+	// Marks an entry which only clears the lock on a property
+	private static final Object CLEAR_LOCK = new Object();
+
+	private final CyFrame base;
+	private final CyNetworkView networkView;
+
+	// Each change is to a View, or to the view of a CyNode or CyEdge
+	private final List<Object> targets = new ArrayList<Object>();
+	private final List<VisualProperty<?>> properties = new ArrayList<VisualProperty<?>>();
+	private final List<Object> values = new ArrayList<Object>();
+
+	/**
+	 * Create an empty batch.
+	 *
+	 * @param base the frame the changes are relative to, or null if the batch sets
+	 * every property
+	 * @param networkView the view the changes are for
+	 */
+	PropertyBatch(CyFrame base, CyNetworkView networkView) {
+		this.base = base;
+		this.networkView = networkView;
+	}
+
+	/**
+	 * Returns the frame that must be showing for this batch to be applied.
+	 *
+	 * @return the base frame, or null if the batch doesn't depend on what is showing
+	 */
+	CyFrame getBase() {
+		return base;
+	}
+
+	/**
+	 * Returns the network view this batch is for.
+	 *
+	 * @return the network view
+	 */
+	CyNetworkView getNetworkView() {
+		return networkView;
+	}
+
+	/**
+	 * Adds a property change: the lock on the property is cleared and the value set.
+	 *
+	 * @param target the view to change, or the node or edge whose view to change
+	 */
+	<T, V extends T> void set(Object target, VisualProperty<? extends T> vp, V value) {
+		targets.add(target);
+		properties.add(vp);
+		values.add(value);
+	}
+
+	/**
+	 * Adds a change which only clears the lock on a property.
+	 *
+	 * @param target the view to change, or the node or edge whose view to change
+	 */
+	void clearLock(Object target, VisualProperty<?> vp) {
+		targets.add(target);
+		properties.add(vp);
+		values.add(CLEAR_LOCK);
+	}
+
+	/**
+	 * Returns the number of changes in the batch.
+	 *
+	 * @return the number of changes
+	 */
+	int size() {
+		return targets.size();
+	}
+
+	/**
+	 * Makes all of the changes.  This must be called on the event dispatch thread.
+	 */
+	void apply() {
+		// The changes to an element come one after the other, so only look up its
+		// view once
+		Object target = null;
+		View<?> view = null;
+		for (int i = 0; i < targets.size(); i++) {
+			if (targets.get(i) != target) {
+				target = targets.get(i);
+				view = getView(target);
+			}
+			if (view == null)
+				continue;
+			VisualProperty<?> vp = properties.get(i);
+			if (view.isValueLocked(vp)) {
+				view.clearValueLock(vp);
+			}
+			Object value = values.get(i);
+			if (value != CLEAR_LOCK)
+				view.setVisualProperty(vp, value);
+		}
+	}
+
+	private View<?> getView(Object target) {
+		if (target instanceof CyNode)
+			return networkView.getNodeView((CyNode)target);
+		if (target instanceof CyEdge)
+			return networkView.getEdgeView((CyEdge)target);
+		return (View<?>)target;
+	}
+}
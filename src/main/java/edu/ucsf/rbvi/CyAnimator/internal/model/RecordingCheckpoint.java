@@ -0,0 +1,120 @@
+package edu.ucsf.rbvi.CyAnimator.internal.model;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/**
+ * Lets a recording pick up where an earlier one of the same animation stopped.
+ * Rendered frames are kept in a durable FrameSpool in the .CyAnimator directory
+ * under the output directory, whose index is the list of frames completed so
+ * far.  Next to it, a manifest records a hash of the timeline (see
+ * FrameManager.getTimelineHash()) and of the recording settings that affect the
+ * frames.  When a recording starts and the manifest matches, the frames already
+ * in the spool are reused and only the rest are rendered; otherwise the spool is
+ * started afresh.
+ *
+ * The directory is removed once a recording completes, and left in place when
+ * one is cancelled or fails.
+ */
+class RecordingCheckpoint {
+	static final String DIRECTORY = ".CyAnimator";
+	private static final String MANIFEST = "manifest.properties";
+	private static final String SPOOL = "frames.spool";
+	private static final String HASH = "timeline";
+	private static final String FRAME_COUNT = "frames";
+
+	private final File directory;
+	private final String hash;
+	private final int frameCount;
+	private FrameSpool spool = null;
+
+	/**
+	 * Create a checkpoint for a recording.  Nothing is read or written until
+	 * openSpool() is called.
+	 *
+	 * @param outputDirectory the directory the recording is written to
+	 * @param hash identifies the frames being recorded
+	 * @param frameCount the number of frames in the recording
+	 */
+	RecordingCheckpoint(File outputDirectory, String hash, int frameCount) {
+		this.directory = new File(outputDirectory, DIRECTORY);
+		this.hash = hash;
+		this.frameCount = frameCount;
+	}
+
+	/**
+	 * Opens the spool of rendered frames.  If an earlier recording of the same
+	 * frames left a spool behind, its frames are kept.
+	 *
+	 * @return the spool, whose frame count is the number of frames already done
+	 * @throws IOException if the spool can't be opened
+	 */
+	FrameSpool openSpool() throws IOException {
+		if (!directory.exists() && !directory.mkdirs())
+			throw new IOException("Unable to create "+directory.getPath());
+
+		File manifest = new File(directory, MANIFEST);
+		boolean resume = matches(manifest);
+		if (!resume) {
+			//the manifest goes first, so the spool is never mistaken for another one
+			Properties props = new Properties();
+			props.setProperty(HASH, hash);
+			props.setProperty(FRAME_COUNT, Integer.toString(frameCount));
+			OutputStream out = new FileOutputStream(manifest);
+			try {
+				props.store(out, "CyAnimator recording checkpoint");
+			} finally {
+				out.close();
+			}
+		}
+		spool = new FrameSpool(new File(directory, SPOOL), resume);
+		if (spool.getFrameCount() > frameCount) {
+			spool.close();
+			spool = new FrameSpool(new File(directory, SPOOL), false);
+		}
+		return spool;
+	}
+
+	/**
+	 * Closes the spool, keeping the frames in it for the next recording.
+	 */
+	void suspend() {
+		if (spool != null)
+			spool.close();
+		spool = null;
+	}
+
+	/**
+	 * Deletes the spool and the checkpoint directory once the recording is done.
+	 */
+	void complete() {
+		if (spool != null)
+			spool.delete();
+		spool = null;
+		new File(directory, MANIFEST).delete();
+		directory.delete();
+	}
+
+	private boolean matches(File manifest) {
+		if (!manifest.exists())
+			return false;
+		Properties props = new Properties();
+		try {
+			InputStream in = new FileInputStream(manifest);
+			try {
+				props.load(in);
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			return false;
+		}
+		return hash.equals(props.getProperty(HASH)) &&
+		       Integer.toString(frameCount).equals(props.getProperty(FRAME_COUNT));
+	}
+}
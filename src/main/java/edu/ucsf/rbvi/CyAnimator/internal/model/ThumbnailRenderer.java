@@ -0,0 +1,77 @@
+package edu.ucsf.rbvi.CyAnimator.internal.model;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Paint;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+
+import javax.swing.SwingUtilities;
+
+import org.cytoscape.service.util.CyServiceRegistrar;
+import org.cytoscape.view.model.CyNetworkView;
+import org.cytoscape.view.model.VisualProperty;
+import org.cytoscape.view.presentation.RenderingEngine;
+import org.cytoscape.view.presentation.property.BasicVisualLexicon;
+
+/**
+ * Draws a network view, as it is now, straight into a small image for the key
+ * frame thumbnails.  The view is drawn at thumbnail size by its rendering engine,
+ * so nothing is drawn at full size and no files are written.
+ */
+class ThumbnailRenderer {
+	private ThumbnailRenderer() {}
+
+	/**
+	 * Draws a view into a thumbnail.  If the view has no rendering engine, the
+	 * thumbnail is just the background.
+	 *
+	 * @param bundleContext the service registrar
+	 * @param view the view to draw
+	 * @param width the width of the thumbnail
+	 * @param height the height of the thumbnail
+	 * @return the thumbnail
+	 */
+	static BufferedImage render(CyServiceRegistrar bundleContext, final CyNetworkView view,
+	                            final int width, final int height) {
+		final RenderingEngine<?> engine = FrameRenderer.getRenderingEngine(bundleContext, view);
+		final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		Runnable paint = new Runnable() {
+			public void run() {
+				Graphics2D g = image.createGraphics();
+				try {
+					Paint background = view.getVisualProperty(BasicVisualLexicon.NETWORK_BACKGROUND_PAINT);
+					g.setPaint(background == null ? Color.WHITE : background);
+					g.fillRect(0, 0, width, height);
+					if (engine == null)
+						return;
+					double viewWidth = getSize(view, BasicVisualLexicon.NETWORK_WIDTH);
+					double viewHeight = getSize(view, BasicVisualLexicon.NETWORK_HEIGHT);
+					if (viewWidth <= 0 || viewHeight <= 0)
+						return;
+					g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+					g.scale(width / viewWidth, height / viewHeight);
+					engine.printCanvas(g);
+				} finally {
+					g.dispose();
+				}
+			}
+		};
+
+		if (SwingUtilities.isEventDispatchThread()) {
+			paint.run();
+		} else {
+			try {
+				SwingUtilities.invokeAndWait(paint);
+			} catch (Exception e) {
+				throw new RuntimeException("Unable to draw thumbnail", e);
+			}
+		}
+		return image;
+	}
+
+	private static double getSize(CyNetworkView view, VisualProperty<Double> vp) {
+		Double size = view.getVisualProperty(vp);
+		return size == null ? 0.0 : size.doubleValue();
+	}
+}
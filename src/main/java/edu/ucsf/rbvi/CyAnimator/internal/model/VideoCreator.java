@@ -9,6 +9,7 @@ package edu.ucsf.rbvi.CyAnimator.internal.model;
  *
  * @author vijay13
  */
+import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
 import java.util.concurrent.TimeUnit;
 import javax.imageio.ImageIO;
@@ -21,7 +22,7 @@ import com.xuggle.xuggler.ICodec;
 import com.xuggle.xuggler.IRational;
 import java.text.DecimalFormat;
 
-public class VideoCreator {
+public class VideoCreator implements VideoWriter {
 	private int IMAGE_WIDTH = 880, IMAGE_HEIGHT = 440;
 	
 	private double FRAME_RATE = 20;
@@ -31,6 +32,15 @@ public class VideoCreator {
 	private String outputFilename = "";
 
 	private ICodec.ID type;
+
+	private IMediaWriter writer = null;
+	// the index of the next frame, which gives its presentation time
+	private long frameIndex = 0;
+	// frames are converted to BGR in here, at the size of the video stream
+	private BufferedImage bgrScreen = null;
+
+	// null until we've checked whether xuggle can be used
+	private static Boolean available = null;
 	
 	public VideoCreator(ICodec.ID videoType, String inputImgDirPath, 
 	                    String outputVideoPath, double frameRate){
@@ -40,12 +50,125 @@ public class VideoCreator {
 		this.type = videoType;
 	}
 
-	public void CreateVideo() {
+	/**
+	 * Create a video from frames handed over in memory with addFrame, rather than
+	 * read from a directory.
+	 *
+	 * @param videoType the codec to encode with
+	 * @param outputVideoPath the video file to write
+	 * @param frameRate the number of frames per second
+	 */
+	public VideoCreator(ICodec.ID videoType, String outputVideoPath, double frameRate){
+		this(videoType, null, outputVideoPath, frameRate);
+	}
+
+	/**
+	 * Returns true if xuggle can be used here.  Its native libraries are loaded
+	 * along with its classes, and are missing on many systems.
+	 *
+	 * @return true if videos can be encoded with xuggle
+	 */
+	public static synchronized boolean isAvailable() {
+		if (available == null) {
+			try {
+				available = ICodec.findEncodingCodec(ICodec.ID.CODEC_ID_MPEG4) != null;
+			} catch (LinkageError e) {
+				available = false;
+			} catch (RuntimeException e) {
+				available = false;
+			}
+		}
+		return available;
+	}
+
+	/**
+	 * Create a video from frames handed over in memory, without the caller having
+	 * to refer to any xuggle classes.
+	 *
+	 * @param h264 true for H.264, false for MPEG-4
+	 * @param outputVideoPath the video file to write
+	 * @param frameRate the number of frames per second
+	 * @return the video creator
+	 */
+	public static VideoCreator create(boolean h264, String outputVideoPath, double frameRate) {
+		ICodec.ID codec = h264 ? ICodec.ID.CODEC_ID_H264 : ICodec.ID.CODEC_ID_MPEG4;
+		return new VideoCreator(codec, outputVideoPath, frameRate);
+	}
+
+	/**
+	 * Opens the video file for frames of the given size.
+	 *
+	 * @param width the width of the frames
+	 * @param height the height of the frames
+	 */
+	public void open(int width, int height) {
   // let's make a IMediaWriter to write the file.
-		final IMediaWriter writer = ToolFactory.makeWriter(outputFilename);
+		writer = ToolFactory.makeWriter(outputFilename);
+		frameIndex = 0;
 
-		long startTime = System.nanoTime();
-		
+		IMAGE_WIDTH = width;
+		IMAGE_HEIGHT = height;
+
+  // We tell it we're going to add one video stream, with id 0,
+  // at position 0, and that it will have a fixed frame rate of FRAME_RATE.
+		IRational rate = IRational.make(FRAME_RATE);
+		if (type == ICodec.ID.CODEC_ID_H264) {
+			if ((double)IMAGE_WIDTH%2 != 0)
+				IMAGE_WIDTH += 1;
+			if ((double)IMAGE_HEIGHT%2 != 0)
+				IMAGE_HEIGHT += 1;
+		}
+		writer.addVideoStream(0, 0, type, rate, IMAGE_WIDTH, IMAGE_HEIGHT);
+		bgrScreen = new BufferedImage(IMAGE_WIDTH, IMAGE_HEIGHT, BufferedImage.TYPE_3BYTE_BGR);
+	}
+
+	/**
+	 * Encodes the next frame, opening the video file for frames of its size if
+	 * that hasn't been done yet.  The image isn't kept, so it may be reused as soon
+	 * as this returns.
+	 *
+	 * @param screen the frame
+	 */
+	public void addFrame(BufferedImage screen) {
+		addFrame(screen, frameIndex);
+	}
+
+	/**
+	 * Encodes a frame, shown at index/frame rate seconds into the video.  Frames
+	 * are encoded as fast as they are handed over; their timing comes from the
+	 * index alone.
+	 *
+	 * @param screen the frame
+	 * @param index the number of the frame in the video
+	 */
+	public void addFrame(BufferedImage screen, long index) {
+		if (writer == null)
+			open(screen.getWidth(), screen.getHeight());
+
+// convert to the right image type and size
+		Graphics2D g = bgrScreen.createGraphics();
+		g.drawImage(screen, 0, 0, null);
+		g.dispose();
+
+// encode the image to stream #0
+		long timeStamp = Math.round(index * 1000000.0 / FRAME_RATE);
+		writer.encodeVideo(0, bgrScreen, timeStamp, TimeUnit.MICROSECONDS);
+		frameIndex = index+1;
+	}
+
+	/**
+	 * Finishes off the video file.
+	 */
+	public void close() {
+		if (writer == null)
+			return;
+  // tell the writer to close and write the trailer if  needed
+		writer.close();
+		writer = null;
+		bgrScreen = null;
+	}
+
+	public void CreateVideo() {
 		int filesCount = new File(inputImgDirPath).list().length;
 		DecimalFormat frame = new DecimalFormat("#000");
 
@@ -65,16 +188,7 @@ public class VideoCreator {
 			}
 		}
 
-  // We tell it we're going to add one video stream, with id 0,
-  // at position 0, and that it will have a fixed frame rate of FRAME_RATE.
-		IRational rate = IRational.make(FRAME_RATE);
-		if (type == ICodec.ID.CODEC_ID_H264) {
-			if ((double)IMAGE_WIDTH%2 != 0)
-				IMAGE_WIDTH += 1;
-			if ((double)IMAGE_HEIGHT%2 != 0)
-				IMAGE_HEIGHT += 1;
-		}
-		writer.addVideoStream(0, 0, type, rate, IMAGE_WIDTH, IMAGE_HEIGHT);
+		open(IMAGE_WIDTH, IMAGE_HEIGHT);
 		
 		for (int index = 0; index < filesCount - 1; index++) {
 // read image
@@ -86,29 +200,10 @@ public class VideoCreator {
 				continue;
 			}
 
-// convert to the right image type
-			BufferedImage bgrScreen = convertToType(screen,
-				    BufferedImage.TYPE_3BYTE_BGR);
-
-// encode the image to stream #0
-			writer.encodeVideo(0, bgrScreen, System.nanoTime() - startTime,
-				    TimeUnit.NANOSECONDS);
-
-// sleep for frame rate milliseconds
-			try {
-
-				Thread.sleep((long) (1000 / FRAME_RATE));
-
-			} catch (InterruptedException e) {
-
-	// ignore
-			}
-
+			addFrame(screen);
 		}
 
-  // tell the writer to close and write the trailer if  needed
-		writer.close();
-
+		close();
 	}
 
 	public static BufferedImage convertToType(BufferedImage sourceImage, int targetType) {
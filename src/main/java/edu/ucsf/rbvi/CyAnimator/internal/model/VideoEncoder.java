@@ -0,0 +1,99 @@
+package edu.ucsf.rbvi.CyAnimator.internal.model;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.Set;
+
+import org.cytoscape.work.TaskMonitor;
+import org.cytoscape.work.TaskMonitor.Level;
+
+import edu.ucsf.rbvi.CyAnimator.api.EncoderContext;
+import edu.ucsf.rbvi.CyAnimator.api.FrameEncoder;
+import edu.ucsf.rbvi.CyAnimator.api.FrameSink;
+
+/**
+ * Writes a video through a VideoWriter.  The MP4 and H.264 types use xuggle
+ * (VideoCreator), falling back on a Motion JPEG AVI if its native libraries
+ * aren't available; the Motion JPEG type always writes an AVI.
+ */
+public class VideoEncoder implements FrameEncoder {
+	public enum Format { MP4, H264, MJPEG }
+
+	//JPEG quality of Motion JPEG videos
+	private static final float MJPEG_QUALITY = 0.9f;
+
+	private final Format format;
+
+	public VideoEncoder(Format format) {
+		this.format = format;
+	}
+
+	public String getId() {
+		switch (format) {
+		case MP4: return "mp4";
+		case H264: return "h264";
+		default: return "avi-mjpeg";
+		}
+	}
+
+	public String getName() {
+		switch (format) {
+		case MP4: return "MP4";
+		case H264: return "MOV/H264";
+		default: return "AVI (Motion JPEG)";
+		}
+	}
+
+	public Set<Capability> getCapabilities() {
+		return EnumSet.of(Capability.STREAMING, Capability.TIMED);
+	}
+
+	public FrameSink open(EncoderContext context) throws IOException {
+		final VideoWriter writer = createVideoWriter(context);
+		return new FrameSink() {
+			public void addFrame(int index, BufferedImage image) throws IOException {
+				writer.addFrame(image);
+			}
+
+			public void close() throws IOException {
+				writer.close();
+			}
+
+			public void abort() {
+				try {
+					writer.close();
+				} catch (IOException e) {}
+			}
+		};
+	}
+
+	private VideoWriter createVideoWriter(EncoderContext context) throws IOException {
+		TaskMonitor monitor = context.getTaskMonitor();
+		File directory = context.getDirectory();
+		if (format != Format.MJPEG) {
+			boolean xuggle;
+			try {
+				xuggle = VideoCreator.isAvailable();
+			} catch (LinkageError e) {
+				xuggle = false;
+			}
+
+			if (xuggle) {
+				if (format == Format.H264) {
+					monitor.showMessage(Level.INFO, "Creating H.264 Video");
+					return VideoCreator.create(true, new File(directory, "video.mov").getPath(),
+					                           context.getFrameRate());
+				}
+				monitor.showMessage(Level.INFO, "Creating MP4 Video");
+				return VideoCreator.create(false, new File(directory, "video.mp4").getPath(),
+				                           context.getFrameRate());
+			}
+			monitor.showMessage(Level.WARN, "Video encoding libraries are not available; creating Motion JPEG AVI instead");
+		} else {
+			monitor.showMessage(Level.INFO, "Creating Motion JPEG AVI");
+		}
+		return new MjpegAviWriter(new File(directory, "video.avi"), context.getFrameRate(), MJPEG_QUALITY);
+	}
+}
@@ -0,0 +1,25 @@
+package edu.ucsf.rbvi.CyAnimator.internal.model;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+/**
+ * Something that writes a video a frame at a time, as the frames are rendered.
+ */
+interface VideoWriter {
+	/**
+	 * Adds the next frame.  The image isn't kept, so it may be reused as soon as
+	 * this returns.
+	 *
+	 * @param image the frame
+	 * @throws IOException if the frame can't be written
+	 */
+	void addFrame(BufferedImage image) throws IOException;
+
+	/**
+	 * Finishes off the video.
+	 *
+	 * @throws IOException if the video can't be written
+	 */
+	void close() throws IOException;
+}
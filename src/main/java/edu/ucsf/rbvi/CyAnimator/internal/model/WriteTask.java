@@ -1,15 +1,16 @@
 package edu.ucsf.rbvi.CyAnimator.internal.model;
 
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
 import java.io.File;
-import java.io.IOException;
-import java.text.DecimalFormat;
 
 import org.cytoscape.work.AbstractTask;
 import org.cytoscape.work.TaskMonitor;
 import org.cytoscape.work.TaskMonitor.Level;
-import org.apache.commons.io.FileUtils;
 
-import com.xuggle.xuggler.ICodec;
+import edu.ucsf.rbvi.CyAnimator.api.EncoderContext;
+import edu.ucsf.rbvi.CyAnimator.api.FrameEncoder;
+import edu.ucsf.rbvi.CyAnimator.api.FrameSink;
 
 public class WriteTask extends AbstractTask {
 	/**
@@ -17,19 +18,33 @@ public class WriteTask extends AbstractTask {
 	 */
 	private final FrameManager frameManager;
 	TaskMonitor monitor;
-	boolean canceled = false;
+	volatile boolean canceled = false;
 	String title;
 	String directory;
-	int videoType;
+	FrameEncoder encoder;
 	int videoResolution;
+	FrameRange range;
 
-	public WriteTask(FrameManager frameManager, String title, String directory, int videoType, int videoResolution) {
+	//the number of rendered frames that may wait to be encoded
+	private static final int PIPELINE_DEPTH = 4;
+	//frames at least this big are spooled to a memory-mapped file rather than
+	//kept on the heap while they wait, and many more of them may wait
+	private static final long SPOOL_FRAME_BYTES = 16L << 20;
+	private static final int SPOOL_DEPTH = 64;
+	private volatile ExportPipeline pipeline = null;
+
+	//time spent in the encoder, so encoders can be compared on the same frames
+	private long encodeNanos = 0;
+
+	public WriteTask(FrameManager frameManager, String title, String directory, FrameEncoder encoder, int videoResolution,
+	                 FrameRange range) {
 		super();
 		this.frameManager = frameManager;
 		this.title = title;
 		this.directory = directory;
-		this.videoType = videoType;
+		this.encoder = encoder;
 		this.videoResolution = videoResolution;
+		this.range = range;
 	}
 
 	public String getTitle() {
@@ -38,16 +53,8 @@ public class WriteTask extends AbstractTask {
 
 	@Override
 	public void run(TaskMonitor monitor) throws Exception {
-		//gets the directory from which cytoscape is running
-		String curDir = System.getProperty("user.dir");
-		curDir = directory;
-
-		if(videoType != 0){
-		    curDir += "/.CyAnimator";
-		}
-
-		//assigns the output directory, for now it is by default cytoscape/outputImgs
-		File file = new File(curDir); //+"/outputImgs");
+		//assigns the output directory
+		File file = new File(directory);
 
 		//make the directory
 		if(!file.exists()){
@@ -57,53 +64,173 @@ public class WriteTask extends AbstractTask {
 		monitor.showMessage(Level.INFO, "Writing frames");
 		monitor.setProgress(0.0);
 
-		for(int i=0; i<this.frameManager.frames.length; i++) {
-			DecimalFormat frame = new DecimalFormat("#000");
-			
-			//assign the appropriate path and extension
-			//String name = curDir+"/outputImgs/Frame_"+frame.format(i)+".png";
-			String name = curDir+"/Frame_"+frame.format(i)+".png";
+		//each frame is drawn into an image in memory and handed straight to the
+		//encoder, on another thread while the next ones are rendered
+		final int frameCount = range.size(this.frameManager.getFrameCount());
+		final TaskMonitor taskMonitor = monitor;
+		GhostElementPool ghosts = new GhostElementPool(this.frameManager.getBundleContext());
+		FrameRenderer renderer = new FrameRenderer(this.frameManager.getBundleContext(),
+		                                           ghosts.getView(), videoResolution);
+		RecordingContext context = new RecordingContext(file, frameCount, renderer, ghosts, monitor);
+		FrameSink sink = null;
+		ExportPipeline exportPipeline = null;
+		FrameSpool spool = null;
+		RecordingCheckpoint checkpoint = null;
+		boolean completed = false;
+		try {
+			Dimension size = renderer.getImageSize();
+			if (this.frameManager.isResumableRecording()) {
+				//frames rendered by an earlier, unfinished recording of the same
+				//animation at the same size are picked up from its spool
+				String hash = this.frameManager.getTimelineHash()+"/"+range+"/"+videoResolution+"/"+
+				              size.width+"x"+size.height;
+				checkpoint = new RecordingCheckpoint(file, hash, frameCount);
+				spool = checkpoint.openSpool();
+				if (spool.getFrameCount() > 0)
+					monitor.showMessage(Level.INFO, "Resuming after frame "+spool.getFrameCount());
+			} else if (4L * size.width * size.height >= SPOOL_FRAME_BYTES) {
+				monitor.showMessage(Level.INFO, "Spooling frames to disk");
+				//a frame's slot is only reused once the pipeline is done with it
+				spool = new FrameSpool(new File(file, ".frames.spool"), ExportPipeline.capacity(SPOOL_DEPTH)+1);
+			}
+			context.spool = spool;
+
+			sink = encoder.open(context);
+			context.opened = true;
+
+			final FrameSink frameSink = sink;
+			exportPipeline = new ExportPipeline(new ExportPipeline.FrameWriter() {
+				public void write(int index, BufferedImage image) throws Exception {
+					long start = System.nanoTime();
+					frameSink.addFrame(index, image);
+					encodeNanos += System.nanoTime() - start;
+					taskMonitor.setProgress(((double)(index+1))/((double)frameCount));
+				}
+			}, spool == null ? PIPELINE_DEPTH : SPOOL_DEPTH);
+			pipeline = exportPipeline;
 			if (canceled) return;
-		
+
+			exportPipeline.start();
+			for(int i=0; i<frameCount; i++) {
+				if (canceled) return;
+
+				BufferedImage image;
+				if (spool != null && i < spool.getFrameCount()) {
+					//already rendered, so only the encoding is done again
+					image = spool.read(i);
+				} else if (spool == null) {
+					image = renderer.render(getFrame(i), ghosts, exportPipeline.nextImage());
+				} else {
+					//the same image is rendered into every time, and the frame
+					//waits in the spool instead
+					image = renderer.render(getFrame(i), ghosts);
+					image = spool.read(spool.append(image));
+				}
+				exportPipeline.put(i, image);
+			}
+			exportPipeline.finish();
+			completed = true;
+		} catch (Exception e) {
+			//rendering or encoding may be interrupted by a cancel
+			if (!canceled) throw e;
+		} finally {
+			//make sure the encoder has stopped before the output is closed
+			if (exportPipeline != null) {
+				exportPipeline.cancel();
+				exportPipeline.awaitTermination();
+			}
+			pipeline = null;
+			ghosts.dispose();
+			//the checkpoint is only done with once the output has been closed
+			//successfully; until then its frames may be needed to try again
+			boolean closed = false;
 			try {
-				BooleanWrapper finished = new BooleanWrapper(false);
-				this.frameManager.frames[i].writeImage(name, videoResolution,finished);
-				while (!finished.getValue())
-					try {
-						Thread.sleep(200);
-					} catch (InterruptedException e) {
-						// TODO Auto-generated catch block
-						e.printStackTrace();
-					};
-
-			} catch (IOException e) {
-				monitor.showMessage(Level.ERROR, "Failed to write file "+name);
-				return;
+				if (sink != null) {
+					if (completed) {
+						long start = System.nanoTime();
+						sink.close();
+						closed = true;
+						encodeNanos += System.nanoTime() - start;
+						monitor.showMessage(Level.INFO, encoder.getName()+": encoded "+frameCount+" frames in "+
+						                    (encodeNanos/1000000)+" ms");
+					} else {
+						sink.abort();
+					}
+				}
+			} finally {
+				if (checkpoint != null) {
+					if (closed)
+						checkpoint.complete();
+					else
+						checkpoint.suspend();
+				} else if (spool != null) {
+					spool.delete();
+				}
 			}
-			monitor.setProgress(((double)i)/((double)this.frameManager.frames.length));
 		}
-		
-		for (CyFrame frame : this.frameManager.frames) {
-		    frame.clearDisplay();
+	}
+
+	@Override
+	public void cancel() {
+		super.cancel();
+		canceled = true;
+		ExportPipeline exportPipeline = pipeline;
+		if (exportPipeline != null)
+			exportPipeline.cancel();
+	}
+
+	/**
+	 * Returns a frame of the recording, which is only interpolated if the whole
+	 * animation is being recorded or the frame is in the range.
+	 */
+	private CyFrame getFrame(int index) {
+		int frame = range.frameAt(index);
+		if (range.isComplete(this.frameManager.getFrameCount()))
+			return this.frameManager.getFrame(frame);
+		return this.frameManager.getFrame(frame, range);
+	}
+
+	/**
+	 * What the encoder is told about the recording.
+	 */
+	private class RecordingContext implements EncoderContext {
+		private final File directory;
+		private final int frameCount;
+		private final FrameRenderer renderer;
+		private final GhostElementPool ghosts;
+		private final TaskMonitor monitor;
+		//frames may only be rendered ahead while the encoder is being opened
+		boolean opened = false;
+		//frames which have already been rendered, if they are being spooled
+		FrameSpool spool = null;
+
+		RecordingContext(File directory, int frameCount, FrameRenderer renderer,
+		                 GhostElementPool ghosts, TaskMonitor monitor) {
+			this.directory = directory;
+			this.frameCount = frameCount;
+			this.renderer = renderer;
+			this.ghosts = ghosts;
+			this.monitor = monitor;
 		}
 
-		if(videoType == 1){
-				monitor.showMessage(Level.INFO, "Creating animated GIF");
-		    GifSequenceWriter wr = new GifSequenceWriter();
-		    wr.createGIF(curDir, directory, this.frameManager.fps);
-		    FileUtils.deleteDirectory(file);
-		}else if ( videoType == 2 ){
-				monitor.showMessage(Level.INFO, "Creating MP4 Video");
-		    VideoCreator vc = new VideoCreator(ICodec.ID.CODEC_ID_MPEG4, curDir, 
-				                                   directory+"/video.mp4", this.frameManager.fps);
-		    vc.CreateVideo();
-		    FileUtils.deleteDirectory(file);
-		}else if ( videoType == 3 ){
-				monitor.showMessage(Level.INFO, "Creating H.264 Video");
-		    VideoCreator vc = new VideoCreator(ICodec.ID.CODEC_ID_H264, curDir, 
-				                                   directory+"/video.mov", this.frameManager.fps);
-		    vc.CreateVideo();
-		    FileUtils.deleteDirectory(file);
+		public File getDirectory() { return directory; }
+
+		public int getFrameRate() { return frameManager.fps; }
+
+		public int getFrameCount() { return frameCount; }
+
+		public int getEncoderThreads() { return frameManager.getEncoderThreads(); }
+
+		public BufferedImage renderFrame(int index) throws Exception {
+			if (opened)
+				throw new IllegalStateException("Frames can only be rendered while the encoder is opened");
+			if (canceled)
+				throw new InterruptedException("Recording cancelled");
+			if (spool != null && index < spool.getFrameCount())
+				return spool.read(index);
+			return renderer.render(getFrame(index), ghosts);
 		}
+
+		public TaskMonitor getTaskMonitor() { return monitor; }
 	}
 }
@@ -12,10 +12,14 @@
 
 package edu.ucsf.rbvi.CyAnimator.internal.ui;
 
+import edu.ucsf.rbvi.CyAnimator.api.FrameEncoder;
 import edu.ucsf.rbvi.CyAnimator.internal.model.CyFrame;
+import edu.ucsf.rbvi.CyAnimator.internal.model.EncoderRegistry;
 import edu.ucsf.rbvi.CyAnimator.internal.model.FrameManager;
+import edu.ucsf.rbvi.CyAnimator.internal.model.FrameRange;
 
 import javax.swing.JButton;
+import javax.swing.JCheckBox;
 import javax.swing.JDialog;
 import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
@@ -50,6 +54,7 @@ import java.awt.FlowLayout;
 import java.awt.GridLayout;
 import java.beans.PropertyChangeEvent;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import javax.swing.BorderFactory;
@@ -83,6 +88,8 @@ public class CyAnimatorDialog extends JDialog
 	private JButton browseButton;
 
 	private JComboBox choicesList;
+	//the encoders listed in choicesList, in the same order
+	private List<FrameEncoder> encoders;
 	private JComboBox resolutionsList;
 	private JComboBox frameCountList;
 
@@ -95,16 +102,25 @@ public class CyAnimatorDialog extends JDialog
 	private JPanel outputSettingPanel;
 	private JPanel settingButtonPanel;
 	private JTextField directoryText;
+	private JCheckBox resumableBox;
+	private JPanel rangeSettingPanel;
+	private JTextField firstFrameText;
+	private JTextField lastFrameText;
+	private JTextField strideText;
 	private JPopupMenu thumbnailMenu;
 	private JSlider speedSlider;
+	//scrubs through the frames of the animation
+	private JSlider timelineSlider;
+	//true while the dialog itself is moving timelineSlider
+	private boolean updatingTimeline = false;
 	final JFileChooser fc = new JFileChooser();
 
-	private ArrayList<JPopupMenu> menuList;
 
 	private JScrollPane framePane;
-	private JPanel framePanel;
+	private KeyFrameStrip framePanel;
 
 	private DragAndDropManager dragnDrop;
+
 	private FrameManager frameManager;
 
 	private CyServiceRegistrar bc;
@@ -125,12 +141,13 @@ public class CyAnimatorDialog extends JDialog
 
 		frameList = frameManager.getKeyFrameList();
 
-		menuList = new ArrayList<JPopupMenu>();
-
-		framePane = new JScrollPane();
-		framePanel = new JPanel();
-
 		dragnDrop = new DragAndDropManager();
+		thumbnailMenu = createThumbnailMenu();
+		List<MouseListener> thumbnailListeners = new ArrayList<MouseListener>();
+		thumbnailListeners.add(dragnDrop);
+		thumbnailListeners.add(new PopupListener());
+		framePanel = new KeyFrameStrip(thumbnailListeners);
+		framePane = new JScrollPane(framePanel);
 		addWindowListener(this);
 
 		filePath = System.getProperty("user.home");	// Set a reasonable default
@@ -212,17 +229,31 @@ public class CyAnimatorDialog extends JDialog
 
 		mainPanel.add(controlPanel);
 
+		timelineSlider = new JSlider(0, 0, 0);
+		timelineSlider.setToolTipText("Drag to Go to a Frame");
+		timelineSlider.addChangeListener(new TimelineListener());
+		mainPanel.add(timelineSlider);
+
 		updateThumbnails(); 
 		mainPanel.add(framePane);
 						
-			String[] choices = { "Frames" , "GIF", "MP4", "MOV/H264"};
+			EncoderRegistry registry = bc.getService(EncoderRegistry.class);
+			encoders = registry == null ? new ArrayList<FrameEncoder>() : registry.getEncoders();
+			String[] choices = new String[encoders.size()];
+			int defaultChoice = 0;
+			for (int i = 0; i < choices.length; i++) {
+				choices[i] = encoders.get(i).getName();
+				if (encoders.get(i).getId().equals("gif"))
+					defaultChoice = i;
+			}
 			String[] resolutions = { "100", "200", "300", "400", "500"};
 			String[] frameCount = { "10", "20", "30", "40", "50"};
 
 			choicesList = new JComboBox(choices);
 			resolutionsList = new JComboBox(resolutions);
 			frameCountList = new JComboBox(frameCount);
-			choicesList.setSelectedIndex(1);
+			if (choices.length > 0)
+				choicesList.setSelectedIndex(defaultChoice);
 			resolutionsList.setSelectedIndex(0);
 			frameCountList.setSelectedIndex(2);
 
@@ -230,7 +261,7 @@ public class CyAnimatorDialog extends JDialog
 				public void actionPerformed(ActionEvent e) {
 					int type = choicesList.getSelectedIndex();
 					// No frames/second in just images
-					if (type == 0)
+					if (type >= 0 && !encoders.get(type).getCapabilities().contains(FrameEncoder.Capability.TIMED))
 						frameCountList.setEnabled(false);
 					else
 						frameCountList.setEnabled(true);
@@ -264,16 +295,39 @@ public class CyAnimatorDialog extends JDialog
 			frameSettingPanel.add(frameCountList);
 			frameSettingPanel.add(new JLabel("Resolution: "));
 			frameSettingPanel.add(resolutionsList);
+			// Keeping every rendered frame on disk lets a cancelled recording be
+			// resumed, but takes a lot of space, so it's only done if asked for
+			resumableBox = new JCheckBox("Resumable", frameManager.isResumableRecording());
+			resumableBox.setToolTipText("Keep rendered frames on disk until the recording completes, "+
+			                            "so that a cancelled recording can be resumed");
+			frameSettingPanel.add(resumableBox);
+
+			// Record part of the animation, for a quick preview.  Blank fields
+			// mean from the start, to the end and every frame.
+			rangeSettingPanel = new JPanel();
+			rangeSettingPanel.setPreferredSize(new Dimension(600, 60));
+			rangeSettingPanel.setBorder(BorderFactory.createTitledBorder("Frame Range"));
+			rangeSettingPanel.setLayout(new FlowLayout(FlowLayout.LEFT));
+			firstFrameText = new JTextField(5);
+			lastFrameText = new JTextField(5);
+			strideText = new JTextField(3);
+			rangeSettingPanel.add(new JLabel("From frame: "));
+			rangeSettingPanel.add(firstFrameText);
+			rangeSettingPanel.add(new JLabel("To frame: "));
+			rangeSettingPanel.add(lastFrameText);
+			rangeSettingPanel.add(new JLabel("Every: "));
+			rangeSettingPanel.add(strideText);
 		
 			settingButtonPanel = new JPanel();
 			settingButtonPanel.setPreferredSize(new Dimension(600, 50));
 			settingButtonPanel.setLayout(new FlowLayout(FlowLayout.RIGHT));
 		
-			settingPanel.setPreferredSize(new Dimension(600, 200));
+			settingPanel.setPreferredSize(new Dimension(600, 260));
 			settingPanel.setLayout(new BoxLayout(settingPanel, BoxLayout.Y_AXIS));
 			settingPanel.add(directorySettingPanel);
 			settingPanel.add(outputSettingPanel);
 			settingPanel.add(frameSettingPanel);
+			settingPanel.add(rangeSettingPanel);
 			settingPanel.add(settingButtonPanel);
 		this.setSize(new Dimension(600,300));
 		this.setLocation(900, 100);
@@ -285,6 +339,16 @@ public class CyAnimatorDialog extends JDialog
 	}
 
 
+	/**
+	 * Reads a frame number from a text field, which may be left blank.
+	 */
+	private static int parseFrame(JTextField field, int blank) {
+		String text = field.getText().trim();
+		if (text.length() == 0)
+			return blank;
+		return Integer.parseInt(text);
+	}
+
 	public void actionPerformed(ActionEvent e){
 
 		String command = "";
@@ -321,9 +385,21 @@ public class CyAnimatorDialog extends JDialog
 			if (result != JOptionPane.OK_OPTION) return;
 				
 			int choice = choicesList.getSelectedIndex();
+			if (choice < 0) return;
 			int resolution = (resolutionsList.getSelectedIndex() + 1)*100;
 			int frameCount = (frameCountList.getSelectedIndex() + 1)*10;
-			frameManager.updateSettings(frameCount, choice, resolution);
+			frameManager.updateSettings(frameCount, encoders.get(choice).getId(), resolution);
+			frameManager.setResumableRecording(resumableBox.isSelected());
+			try {
+				int first = parseFrame(firstFrameText, 0);
+				int last = parseFrame(lastFrameText, Integer.MAX_VALUE);
+				int stride = parseFrame(strideText, 1);
+				frameManager.setRecordingRange(new FrameRange(first, last, stride));
+			} catch (IllegalArgumentException iae) {
+				JOptionPane.showMessageDialog(this, "Invalid frame range: "+iae.getMessage(),
+				                              "Output Options", JOptionPane.ERROR_MESSAGE);
+				return;
+			}
 			
 			if( ! new File(filePath).exists() ){
 				fc.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY );
@@ -403,140 +479,97 @@ public class CyAnimatorDialog extends JDialog
 			frameManager.setKeyFrameList(frameList);
 			updateThumbnails();
 		}
+		updateTimelineSlider();
 		setVisible(true);
 	}
 
-
 	/**
-	 * Takes the current frameList and cycles through it to create a JButton
-	 * for each frame with the corresponding thumbnail image.  It also creates
-	 * a JPopupMenu for each frame in the frameList so that the right click controls
-	 * for interpolate and delete can be tied to each JButton.
-	 * 
+	 * Matches the timeline slider to the number of frames in the animation and
+	 * the frame showing, without seeking.
 	 */
-	public void updateThumbnails(){
-
-		//remove the framePane so that a new one can be made with the updated thumbnails
-		mainPanel.remove(framePane);
-		framePanel = new JPanel();
+	private void updateTimelineSlider(){
+		updatingTimeline = true;
+		timelineSlider.setMaximum(Math.max(frameManager.getFrameCount()-1, 0));
+		timelineSlider.setValue(frameManager.getFrameIndex());
+		updatingTimeline = false;
+	}
 
-		//make a horizontal box layout
-		BoxLayout box = new BoxLayout(framePanel, BoxLayout.X_AXIS);
-		framePanel.setLayout(box);
 
-		MouseListener popupListener = new PopupListener();
+	/**
+	 * Brings the thumbnail strip up to date with the current frameList.  Only
+	 * the thumbnails of key frames which were added, deleted or moved are
+	 * touched, so this costs next to nothing when the list hasn't changed.
+	 */
+	public void updateThumbnails(){
 
 		//update the frameList
  		frameList = frameManager.getKeyFrameList();
-		int i = 0;
+		if (!framePanel.update(frameList))
+			return;
 
 		//drag and drop code, not fully implemented
-		int totalFrameWidth = 0;
-		//dragnDrop = new DragAndDropManager();
-		dragnDrop.setFrameCount(frameList.size());
-
-
-
-		for(CyFrame frame: frameList){
-
-			//get the thumbnail image
-			while (frame.getFrameImage() == null)
-				try {
-					Thread.sleep(200);
-				} catch (InterruptedException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				};
-			ImageIcon ic = new ImageIcon(frame.getFrameImage());
-
-			//put the image on the thumbnail button
-			JButton thumbnailButton = new JButton(ic);
-			thumbnailButton.addMouseListener(dragnDrop);
-			// thumbnailButton.addActionListener(this);
-			// System.out.println("FrameID = "+frame.getID());
-			// thumbnailButton.setActionCommand(frame.getID());
-
-
-			//for some reason thumbnailButton.getWidth() returns 0 so I had
-			//to improvise and use the icon width plus 13 pixels for the border. 
-			totalFrameWidth = totalFrameWidth + ic.getIconWidth() + 13;
-			dragnDrop.setFrameHeight(ic.getIconHeight());
-
-
-			//create a popupmenu for each thumbnail and add the menu items
-			thumbnailMenu = new JPopupMenu();
-			JMenu interpolateMenu = new JMenu("Interpolate");
-			menuItem = new JMenuItem("10 Frames");
-			menuItem.addActionListener(this);
-			menuItem.setActionCommand("interpolate10_");
-			interpolateMenu.add(menuItem);
-
-			menuItem = new JMenuItem("20 Frames");
-			menuItem.addActionListener(this);
-			menuItem.setActionCommand("interpolate20_");
-			interpolateMenu.add(menuItem);
-
-			menuItem = new JMenuItem("50 Frames");
-			menuItem.addActionListener(this);
-			menuItem.setActionCommand("interpolate50_");
-			interpolateMenu.add(menuItem);
-
-			menuItem = new JMenuItem("100 Frames");
-			menuItem.addActionListener(this);
-			menuItem.setActionCommand("interpolate100_");
-			interpolateMenu.add(menuItem);
-
-			menuItem = new JMenuItem("Custom...");
-			menuItem.addActionListener(this);
-			menuItem.setActionCommand("interpolate0_");
-			interpolateMenu.add(menuItem);
-
-			thumbnailMenu.add(interpolateMenu);
-
-			menuItem = new JMenuItem("Delete");
-			menuItem.addActionListener(this);
-			menuItem.setActionCommand("delete");
-			menuItem.addMouseListener(popupListener);
-			thumbnailMenu.add(menuItem);
-
-
-			menuItem = new JMenuItem("Move Right");
-			menuItem.addActionListener(this);
-			menuItem.setActionCommand("move right");
-			menuItem.addMouseListener(popupListener);
-			thumbnailMenu.add(menuItem);
-
-
-
-			menuItem = new JMenuItem("Move Left");
-			menuItem.addActionListener(this);
-			menuItem.setActionCommand("move left");
-			menuItem.addMouseListener(popupListener);
-			thumbnailMenu.add(menuItem);
-
-
-			menuList.add(thumbnailMenu);
-
-			//set the name of the button to the integer position of the frame in the list
-			thumbnailButton.setName(i+"");
-			i++;
-
-			thumbnailButton.addMouseListener(popupListener);
-			framePanel.add(thumbnailButton);
-
-		}
-
-
-		dragnDrop.setFrameWidth(totalFrameWidth);
-
-		//recreate the scrollpane with the updated framePanel
-		framePane = new JScrollPane(framePanel);
-
-		//add it to the main dialog panel
-		mainPanel.add(framePane);
-
+		dragnDrop.setFrameCount(framePanel.getFrameCount());
+		dragnDrop.setFrameHeight(framePanel.getFrameHeight());
+		dragnDrop.setFrameWidth(framePanel.getTotalFrameWidth());
+		updateTimelineSlider();
 	}
 
+	/**
+	 * Creates the right click menu shared by the thumbnails, with the interpolate
+	 * and delete controls.  The thumbnail it acts on is the one the menu was last
+	 * shown for (see PopupListener).
+	 */
+	private JPopupMenu createThumbnailMenu(){
+		MouseListener popupListener = new PopupListener();
+		JPopupMenu menu = new JPopupMenu();
+		JMenu interpolateMenu = new JMenu("Interpolate");
+		menuItem = new JMenuItem("10 Frames");
+		menuItem.addActionListener(this);
+		menuItem.setActionCommand("interpolate10_");
+		interpolateMenu.add(menuItem);
+
+		menuItem = new JMenuItem("20 Frames");
+		menuItem.addActionListener(this);
+		menuItem.setActionCommand("interpolate20_");
+		interpolateMenu.add(menuItem);
+
+		menuItem = new JMenuItem("50 Frames");
+		menuItem.addActionListener(this);
+		menuItem.setActionCommand("interpolate50_");
+		interpolateMenu.add(menuItem);
+
+		menuItem = new JMenuItem("100 Frames");
+		menuItem.addActionListener(this);
+		menuItem.setActionCommand("interpolate100_");
+		interpolateMenu.add(menuItem);
+
+		menuItem = new JMenuItem("Custom...");
+		menuItem.addActionListener(this);
+		menuItem.setActionCommand("interpolate0_");
+		interpolateMenu.add(menuItem);
+
+		menu.add(interpolateMenu);
+
+		menuItem = new JMenuItem("Delete");
+		menuItem.addActionListener(this);
+		menuItem.setActionCommand("delete");
+		menuItem.addMouseListener(popupListener);
+		menu.add(menuItem);
+
+		menuItem = new JMenuItem("Move Right");
+		menuItem.addActionListener(this);
+		menuItem.setActionCommand("move right");
+		menuItem.addMouseListener(popupListener);
+		menu.add(menuItem);
+
+		menuItem = new JMenuItem("Move Left");
+		menuItem.addActionListener(this);
+		menuItem.setActionCommand("move left");
+		menuItem.addMouseListener(popupListener);
+		menu.add(menuItem);
+
+		return menu;
+	}
 
 	public void propertyChange ( PropertyChangeEvent e ) {
 		if(e.getPropertyName().equals("ATTRIBUTES_CHANGED")){
@@ -568,13 +601,24 @@ public class CyAnimatorDialog extends JDialog
 				if(frameManager.timer == null){ return; }
 				// System.out.println("FPS: "+fps);
 			
-				//timer delay is set in milliseconds, so 1000/fps gives delay per frame
-				frameManager.timer.setDelay(1000/fps);
+				frameManager.setPlaybackRate(fps);
 			
 			}
 		}
 	}
 
+	/**
+	 * Listens for changes to the timeline slider and jumps to the chosen frame.
+	 * Every change is passed on while the slider is dragged; the FrameManager
+	 * only works out the latest one.
+	 */
+	class TimelineListener implements ChangeListener {
+		public void stateChanged(ChangeEvent e) {
+			if (updatingTimeline) { return; }
+			frameManager.seek(timelineSlider.getValue());
+		}
+	}
+
 	/*
 	 * Contains all of the code for managing mouse selections in relation to the drag and drop features.
 	 * 
@@ -762,7 +806,7 @@ public class CyAnimatorDialog extends JDialog
 			int currentIndex = Integer.parseInt(e.getComponent().getName());
 			thumbnailPopupIndex = currentIndex;
 			// System.out.println("CI: "+currentIndex);
-			menuList.get(currentIndex).show(e.getComponent(), e.getX(), e.getY());
+			thumbnailMenu.show(e.getComponent(), e.getX(), e.getY());
 		}
 		}
 	}
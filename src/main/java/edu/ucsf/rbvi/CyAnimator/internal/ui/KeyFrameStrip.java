@@ -0,0 +1,221 @@
+package edu.ucsf.rbvi.CyAnimator.internal.ui;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.event.MouseListener;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.BoxLayout;
+import javax.swing.ImageIcon;
+import javax.swing.JButton;
+import javax.swing.JPanel;
+import javax.swing.SwingWorker;
+
+import edu.ucsf.rbvi.CyAnimator.internal.model.CyFrame;
+
+/**
+ * The strip of key frame thumbnails in the CyAnimator dialog.  Each key frame
+ * has one thumbnail button, which is kept for as long as the frame is in the
+ * list: update() compares the key frames with the ones shown last time and only
+ * adds, removes or moves the buttons that changed, so calling it when nothing
+ * has changed costs nothing.  Thumbnails that aren't ready yet are shown as
+ * placeholders and filled in in the background, by a single loader which is
+ * cancelled and replaced whenever the list changes.
+ *
+ * The name of each button is its position in the list, which is what the
+ * dialog's mouse listeners go by.
+ */
+class KeyFrameStrip extends JPanel {
+	private static final long serialVersionUID = 1L;
+
+	//how long to wait for a thumbnail before giving up on it
+	private static final long THUMBNAIL_TIMEOUT = 30;
+
+	private final List<MouseListener> listeners;
+	//the key frames shown, in order, and the button for each one
+	private final List<CyFrame> frames = new ArrayList<CyFrame>();
+	private final Map<CyFrame, JButton> cells = new IdentityHashMap<CyFrame, JButton>();
+	private ImageIcon placeholderIcon = null;
+	//the frames whose buttons still show the placeholder, and the loader waiting
+	//for their thumbnails
+	private final Map<CyFrame, JButton> loading = new IdentityHashMap<CyFrame, JButton>();
+	private ThumbnailLoader loader = null;
+
+	/**
+	 * Create an empty strip.
+	 *
+	 * @param listeners the mouse listeners added to every thumbnail button
+	 */
+	KeyFrameStrip(List<MouseListener> listeners) {
+		this.listeners = listeners;
+		setLayout(new BoxLayout(this, BoxLayout.X_AXIS));
+	}
+
+	/**
+	 * Brings the strip up to date with the key frame list.
+	 *
+	 * @param keyFrames the key frames, in order
+	 * @return true if anything changed
+	 */
+	boolean update(List<CyFrame> keyFrames) {
+		if (sameFrames(keyFrames))
+			return false;
+
+		//drop the buttons of frames which have been deleted
+		Map<CyFrame, Boolean> kept = new IdentityHashMap<CyFrame, Boolean>();
+		for (CyFrame frame: keyFrames)
+			kept.put(frame, Boolean.TRUE);
+		boolean reload = false;
+		for (CyFrame frame: frames) {
+			if (!kept.containsKey(frame)) {
+				remove(cells.remove(frame));
+				reload |= loading.remove(frame) != null;
+			}
+		}
+
+		//add new frames and move the others into place
+		for (int i = 0; i < keyFrames.size(); i++) {
+			CyFrame frame = keyFrames.get(i);
+			JButton cell = cells.get(frame);
+			if (cell == null) {
+				cell = createCell(frame);
+				cells.put(frame, cell);
+				if (frame.getFrameImage() == null) {
+					loading.put(frame, cell);
+					reload = true;
+				}
+			}
+			if (i >= getComponentCount() || getComponent(i) != cell)
+				add(cell, i);
+			cell.setName(Integer.toString(i));
+		}
+		while (getComponentCount() > keyFrames.size())
+			remove(getComponentCount()-1);
+
+		frames.clear();
+		frames.addAll(keyFrames);
+
+		//the loader is only replaced if it has anything new to wait for, or is
+		//waiting for a frame that has gone
+		if (reload) {
+			if (loader != null)
+				loader.cancel(true);
+			loader = null;
+			if (!loading.isEmpty()) {
+				loader = new ThumbnailLoader(new ArrayList<CyFrame>(loading.keySet()));
+				loader.execute();
+			}
+		}
+
+		revalidate();
+		repaint();
+		return true;
+	}
+
+	/**
+	 * Returns the number of thumbnails in the strip.
+	 *
+	 * @return the number of key frames shown
+	 */
+	int getFrameCount() {
+		return frames.size();
+	}
+
+	/**
+	 * Returns the width of the thumbnails, including the button border.
+	 *
+	 * @return the total width of the thumbnails
+	 */
+	int getTotalFrameWidth() {
+		int width = 0;
+		for (JButton cell: cells.values())
+			width += cell.getIcon().getIconWidth() + 13;
+		return width;
+	}
+
+	/**
+	 * Returns the height of a thumbnail.
+	 *
+	 * @return the thumbnail height, or 0 if the strip is empty
+	 */
+	int getFrameHeight() {
+		if (cells.isEmpty())
+			return 0;
+		return cells.values().iterator().next().getIcon().getIconHeight();
+	}
+
+	private boolean sameFrames(List<CyFrame> keyFrames) {
+		if (keyFrames.size() != frames.size())
+			return false;
+		for (int i = 0; i < frames.size(); i++) {
+			if (keyFrames.get(i) != frames.get(i))
+				return false;
+		}
+		return true;
+	}
+
+	private JButton createCell(CyFrame frame) {
+		BufferedImage image = frame.getFrameImage();
+		JButton cell = new JButton(image == null ? getPlaceholderIcon() : new ImageIcon(image));
+		for (MouseListener listener: listeners)
+			cell.addMouseListener(listener);
+		return cell;
+	}
+
+	/**
+	 * Returns the icon shown in place of a thumbnail which isn't ready yet.
+	 */
+	private ImageIcon getPlaceholderIcon() {
+		if (placeholderIcon == null) {
+			BufferedImage image = new BufferedImage(200, 150, BufferedImage.TYPE_INT_ARGB);
+			Graphics2D g = image.createGraphics();
+			g.setColor(Color.LIGHT_GRAY);
+			g.fillRect(0, 0, 200, 150);
+			g.setColor(Color.GRAY);
+			g.drawString("Loading...", 75, 78);
+			g.dispose();
+			placeholderIcon = new ImageIcon(image);
+		}
+		return placeholderIcon;
+	}
+
+	/**
+	 * Waits for thumbnails in the background and puts each one on its button as
+	 * soon as it arrives, so the event dispatch thread never waits for them.
+	 */
+	private class ThumbnailLoader extends SwingWorker<Void, Object[]> {
+		private final List<CyFrame> frames;
+
+		ThumbnailLoader(List<CyFrame> frames) {
+			this.frames = frames;
+		}
+
+		protected Void doInBackground() throws Exception {
+			for (CyFrame frame: frames) {
+				BufferedImage image = frame.waitForFrameImage(THUMBNAIL_TIMEOUT, TimeUnit.SECONDS);
+				if (image != null)
+					publish(new Object[] {frame, new ImageIcon(image)});
+			}
+			return null;
+		}
+
+		protected void process(List<Object[]> thumbnails) {
+			for (Object[] thumbnail: thumbnails) {
+				//the frame may have been deleted since
+				JButton cell = loading.remove(thumbnail[0]);
+				if (cell != null)
+					cell.setIcon((ImageIcon)thumbnail[1]);
+			}
+		}
+
+		protected void done() {
+			if (loader == this)
+				loader = null;
+		}
+	}
+}
@@ -0,0 +1,151 @@
+package edu.ucsf.rbvi.CyAnimator.internal.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ExportPipelineTest {
+	private static BufferedImage image(BufferedImage reused) {
+		return reused != null ? reused : new BufferedImage(2, 2, BufferedImage.TYPE_INT_RGB);
+	}
+
+	@Test(timeout = 10000)
+	public void testEncodesInOrderAndReusesImages() throws Exception {
+		final List<Integer> written = Collections.synchronizedList(new ArrayList<Integer>());
+		ExportPipeline pipeline = new ExportPipeline(new ExportPipeline.FrameWriter() {
+			public void write(int index, BufferedImage image) {
+				written.add(index);
+			}
+		}, 2);
+		pipeline.start();
+
+		List<BufferedImage> images = new ArrayList<BufferedImage>();
+		for (int i = 0; i < 20; i++) {
+			BufferedImage image = image(pipeline.nextImage());
+			if (!images.contains(image))
+				images.add(image);
+			pipeline.put(i, image);
+		}
+		pipeline.finish();
+
+		assertEquals(20, written.size());
+		for (int i = 0; i < 20; i++)
+			assertEquals(Integer.valueOf(i), written.get(i));
+		// Only depth+1 images are ever made
+		assertTrue(images.size() <= 3);
+	}
+
+	@Test(timeout = 10000)
+	public void testFailureIsPassedToTheRenderer() throws Exception {
+		final IOException failure = new IOException("disk full");
+		ExportPipeline pipeline = new ExportPipeline(new ExportPipeline.FrameWriter() {
+			public void write(int index, BufferedImage image) throws IOException {
+				if (index == 3)
+					throw failure;
+			}
+		}, 2);
+		pipeline.start();
+
+		try {
+			for (int i = 0; i < 1000; i++)
+				pipeline.put(i, image(pipeline.nextImage()));
+			pipeline.finish();
+			fail("The encoder's failure wasn't reported");
+		} catch (IOException e) {
+			assertSame(failure, e);
+		}
+		pipeline.awaitTermination();
+	}
+
+	private static ExportPipeline failingPipeline(final Error error) {
+		return new ExportPipeline(new ExportPipeline.FrameWriter() {
+			public void write(int index, BufferedImage image) {
+				if (index == 1)
+					throw error;
+			}
+		}, 2);
+	}
+
+	@Test(timeout = 10000)
+	public void testErrorIsPassedToTheRenderer() throws Exception {
+		Error error = new OutOfMemoryError("Java heap space");
+		ExportPipeline pipeline = failingPipeline(error);
+		pipeline.start();
+
+		// Once the queue is full, the renderer would otherwise wait forever
+		try {
+			for (int i = 0; i < 1000; i++)
+				pipeline.put(i, image(pipeline.nextImage()));
+			pipeline.finish();
+			fail("The encoder's error wasn't reported");
+		} catch (ExecutionException e) {
+			assertSame(error, e.getCause());
+		}
+		pipeline.awaitTermination();
+	}
+
+	@Test(timeout = 10000)
+	public void testErrorFailsFinish() throws Exception {
+		Error error = new OutOfMemoryError("Java heap space");
+		ExportPipeline pipeline = failingPipeline(error);
+		pipeline.start();
+
+		// Few enough frames that none of them has to wait
+		try {
+			for (int i = 0; i < 2; i++)
+				pipeline.put(i, image(pipeline.nextImage()));
+			pipeline.finish();
+			fail("An export whose encoder died finished normally");
+		} catch (ExecutionException e) {
+			assertSame(error, e.getCause());
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void testCancelStopsEncoderAndRenderer() throws Exception {
+		final CountDownLatch writing = new CountDownLatch(1);
+		ExportPipeline pipeline = new ExportPipeline(new ExportPipeline.FrameWriter() {
+			public void write(int index, BufferedImage image) throws InterruptedException {
+				writing.countDown();
+				// An encoder that never finishes, until it's interrupted
+				Thread.sleep(Long.MAX_VALUE);
+			}
+		}, 1);
+		pipeline.start();
+
+		assertNull(pipeline.nextImage());
+		pipeline.put(0, image(null));
+		assertTrue(writing.await(5, TimeUnit.SECONDS));
+		assertNull(pipeline.nextImage());
+		pipeline.put(1, image(null));
+
+		pipeline.cancel();
+		assertTrue(pipeline.isCancelled());
+		pipeline.awaitTermination();
+
+		// Every image is in use, so the renderer would otherwise wait forever
+		try {
+			pipeline.nextImage();
+			fail("Waiting for an image wasn't cancelled");
+		} catch (InterruptedException e) {
+		}
+		try {
+			pipeline.put(2, image(null));
+			fail("Putting a frame wasn't cancelled");
+		} catch (InterruptedException e) {
+		}
+	}
+}
@@ -0,0 +1,367 @@
+package edu.ucsf.rbvi.CyAnimator.internal.model;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.awt.Color;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+public class FrameColumnsTest {
+	@Test
+	public void testMissingValues() {
+		FrameColumns columns = new FrameColumns(new ElementIndex(), 1, 1, 1);
+		assertFalse(columns.hasDouble(0, 42L));
+		assertNull(columns.getDouble(0, 42L));
+		assertEquals(-1.0, columns.getDouble(0, 42L, -1.0), 0.0);
+		assertNull(columns.getInt(0, 42L));
+		assertNull(columns.getColor(0, 42L));
+		assertNull(columns.getObject(0, 42L));
+	}
+
+	@Test
+	public void testSetAndClear() {
+		FrameColumns columns = new FrameColumns(new ElementIndex(), 1, 2, 1);
+		columns.setDouble(0, 7L, 2.5);
+		columns.setInt(0, 7L, 3);
+		columns.setColor(1, 7L, new Color(10, 20, 30, 40));
+		columns.setObject(0, 7L, "label");
+
+		assertEquals(2.5, columns.getDouble(0, 7L), 0.0);
+		assertEquals(Integer.valueOf(3), columns.getInt(0, 7L));
+		assertEquals(new Color(10, 20, 30, 40), columns.getColor(1, 7L));
+		assertEquals("label", columns.<String>getObject(0, 7L));
+
+		columns.setDouble(0, 7L, (Double)null);
+		columns.setInt(0, 7L, null);
+		columns.setColor(1, 7L, null);
+		columns.setObject(0, 7L, null);
+		assertFalse(columns.hasDouble(0, 7L));
+		assertNull(columns.getInt(0, 7L));
+		assertNull(columns.getColor(1, 7L));
+		assertNull(columns.getObject(0, 7L));
+	}
+
+	@Test
+	public void testGrowsWithTheIndex() {
+		// Values are added one element at a time while the shared index grows, the
+		// way a frame is populated
+		ElementIndex index = new ElementIndex();
+		FrameColumns columns = new FrameColumns(index, 1, 1, 1);
+		int count = 10000;
+		for (int i = 0; i < count; i++) {
+			long suid = 1000L + 3*i;
+			columns.setDouble(0, suid, i/2.0);
+			columns.setInt(0, suid, i);
+			columns.setObject(0, suid, Integer.toString(i));
+		}
+		assertEquals(count, index.size());
+		for (int i = 0; i < count; i++) {
+			long suid = 1000L + 3*i;
+			assertEquals(i/2.0, columns.getDouble(0, suid), 0.0);
+			assertEquals(Integer.valueOf(i), columns.getInt(0, suid));
+			assertEquals(Integer.toString(i), columns.<String>getObject(0, suid));
+		}
+	}
+
+	@Test
+	public void testSharedIndex() {
+		// An element added to the index by one frame has no values in another
+		ElementIndex index = new ElementIndex();
+		FrameColumns one = new FrameColumns(index, 1, 0, 0);
+		FrameColumns two = new FrameColumns(index, 1, 0, 0);
+		one.setDouble(0, 1L, 1.0);
+		two.setDouble(0, 2L, 2.0);
+		assertTrue(one.hasDouble(0, 1L));
+		assertFalse(one.hasDouble(0, 2L));
+		assertFalse(two.hasDouble(0, 1L));
+		assertEquals(0, index.indexOf(1L));
+		assertEquals(1, index.indexOf(2L));
+	}
+
+	@Test
+	public void testParallelWritesToReservedColumns() throws Exception {
+		ElementIndex index = new ElementIndex();
+		FrameColumns plain = new FrameColumns(index, 2, 2, 1);
+		FrameColumns base = new FrameColumns(index, 2, 2, 1);
+		base.setDouble(0, 0L, -1.0);
+		FrameColumns overBase = new FrameColumns(base);
+
+		List<Long> ids = new ArrayList<Long>();
+		for (long i = 0; i < 20000; i++)
+			ids.add(i);
+		plain.reserve(ids);
+		overBase.reserve(ids);
+
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			for (int t = 0; t < 8; t++) {
+				final int first = t;
+				final FrameColumns[] targets = { plain, overBase };
+				futures.add(executor.submit(new Callable<Void>() {
+					public Void call() {
+						for (FrameColumns columns: targets) {
+							for (long id = first; id < 20000; id += 8) {
+								columns.setDouble(1, id, id+0.5);
+								columns.setInt(1, id, (int)id);
+								columns.setObject(0, id, "n"+id);
+							}
+						}
+						return null;
+					}
+				}));
+			}
+			// Other frames keep adding elements to the shared index meanwhile
+			final ElementIndex shared = index;
+			futures.add(executor.submit(new Callable<Void>() {
+				public Void call() {
+					for (long id = 100000; id < 150000; id++)
+						shared.add(id);
+					return null;
+				}
+			}));
+			for (Future<?> future: futures)
+				future.get();
+		} finally {
+			executor.shutdown();
+		}
+
+		for (FrameColumns columns: new FrameColumns[] { plain, overBase }) {
+			for (long id = 0; id < 20000; id++) {
+				assertEquals(id+0.5, columns.getDouble(1, id), 0.0);
+				assertEquals(Integer.valueOf((int)id), columns.getInt(1, id));
+				assertEquals("n"+id, columns.<String>getObject(0, id));
+			}
+		}
+	}
+
+	@Test
+	public void testUnreservedElementCantGrowColumns() {
+		ElementIndex index = new ElementIndex();
+		FrameColumns columns = new FrameColumns(index, 1, 0, 0);
+		List<Long> ids = new ArrayList<Long>();
+		ids.add(1L);
+		ids.add(2L);
+		columns.reserve(ids);
+		columns.setDouble(0, 2L, 2.0);
+		try {
+			columns.setDouble(0, 3L, 3.0);
+			fail("Writing an element that wasn't reserved grew a reserved column");
+		} catch (IllegalStateException e) {
+		}
+		assertEquals(2.0, columns.getDouble(0, 2L), 0.0);
+	}
+
+	@Test
+	public void testChanged() {
+		ElementIndex index = new ElementIndex();
+		FrameColumns shown = new FrameColumns(index, 1, 1, 1);
+		FrameColumns next = new FrameColumns(index, 1, 1, 1);
+		shown.setDouble(0, 1L, 1.0);
+		shown.setInt(0, 1L, 1);
+		shown.setObject(0, 1L, "one");
+		next.setDouble(0, 1L, 1.0);
+		next.setInt(0, 1L, 2);
+		next.setObject(0, 1L, new String("one"));
+
+		assertFalse(next.doubleChanged(shown, 0, 1L));
+		assertTrue(next.intChanged(shown, 0, 1L));
+		assertFalse(next.objectChanged(shown, 0, 1L));
+
+		// Setting or removing a value is a change
+		next.setDouble(0, 2L, 2.0);
+		assertTrue(next.doubleChanged(shown, 0, 2L));
+		next.setObject(0, 1L, null);
+		assertTrue(next.objectChanged(shown, 0, 1L));
+
+		// Neither has a value
+		assertFalse(next.doubleChanged(shown, 0, 3L));
+	}
+
+	@Test
+	public void testChangedFromNothing() {
+		// Without anything shown, or with columns over another index, everything changes
+		FrameColumns columns = new FrameColumns(new ElementIndex(), 1, 1, 1);
+		FrameColumns other = new FrameColumns(new ElementIndex(), 1, 1, 1);
+		assertTrue(columns.doubleChanged(null, 0, 1L));
+		assertTrue(columns.intChanged(null, 0, 1L));
+		assertTrue(columns.objectChanged(null, 0, 1L));
+		assertTrue(columns.doubleChanged(other, 0, 1L));
+	}
+
+	private static FrameColumns baseline(ElementIndex index) {
+		FrameColumns base = new FrameColumns(index, 1, 1, 1);
+		base.setDouble(0, 1L, 1.0);
+		base.setColor(0, 1L, Color.RED);
+		base.setObject(0, 1L, "one");
+		return base;
+	}
+
+	// Returns true if any column of a set of columns has been allocated
+	private static boolean allocated(FrameColumns columns) throws Exception {
+		for (String name: new String[] {"doubles", "ints", "objects"}) {
+			Field field = FrameColumns.class.getDeclaredField(name);
+			field.setAccessible(true);
+			for (Object column: (Object[])field.get(columns)) {
+				if (column != null)
+					return true;
+			}
+		}
+		return false;
+	}
+
+	@Test
+	public void testInheritsFromBaseline() {
+		FrameColumns base = baseline(new ElementIndex());
+		FrameColumns frame = new FrameColumns(base);
+		assertEquals(1.0, frame.getDouble(0, 1L), 0.0);
+		assertEquals(Color.RED, frame.getColor(0, 1L));
+		assertEquals("one", frame.<String>getObject(0, 1L));
+
+		// Overriding a value leaves the baseline alone
+		frame.setDouble(0, 1L, 2.0);
+		frame.setObject(0, 1L, "two");
+		assertEquals(2.0, frame.getDouble(0, 1L), 0.0);
+		assertEquals("two", frame.<String>getObject(0, 1L));
+		assertEquals(1.0, base.getDouble(0, 1L), 0.0);
+		assertEquals("one", base.<String>getObject(0, 1L));
+
+		// Going back to the baseline's value inherits it again
+		frame.setDouble(0, 1L, 1.0);
+		assertEquals(1.0, frame.getDouble(0, 1L), 0.0);
+	}
+
+	@Test
+	public void testBaselineValueIsntStored() throws Exception {
+		FrameColumns base = baseline(new ElementIndex());
+		FrameColumns frame = new FrameColumns(base);
+		frame.setDouble(0, 1L, 1.0);
+		frame.setColor(0, 1L, new Color(255, 0, 0));
+		frame.setObject(0, 1L, new String("one"));
+		assertFalse(allocated(frame));
+
+		frame.setDouble(0, 1L, 2.0);
+		assertTrue(allocated(frame));
+	}
+
+	@Test
+	public void testClearingBaselineValue() {
+		FrameColumns base = baseline(new ElementIndex());
+		FrameColumns frame = new FrameColumns(base);
+		frame.setDouble(0, 1L, (Double)null);
+		frame.setColor(0, 1L, null);
+		frame.setObject(0, 1L, null);
+		assertFalse(frame.hasDouble(0, 1L));
+		assertNull(frame.getColor(0, 1L));
+		assertNull(frame.getObject(0, 1L));
+		assertEquals(1.0, base.getDouble(0, 1L), 0.0);
+
+		// Setting it again after clearing it
+		frame.setDouble(0, 1L, 1.0);
+		assertEquals(1.0, frame.getDouble(0, 1L), 0.0);
+	}
+
+	@Test
+	public void testSetConstants() {
+		ElementIndex index = new ElementIndex();
+		FrameColumns one = new FrameColumns(index, 1, 1, 1);
+		FrameColumns two = new FrameColumns(index, 1, 1, 1);
+		one.setDouble(0, 1L, 1.0);
+		two.setDouble(0, 1L, 1.0);
+		one.setInt(0, 1L, 1);
+		two.setInt(0, 1L, 2);
+		one.setObject(0, 1L, "same");
+		two.setObject(0, 1L, new String("same"));
+		one.setDouble(0, 2L, 5.0);
+
+		FrameColumns base = new FrameColumns(index, 1, 1, 1);
+		base.setConstants(one, two);
+		assertEquals(1.0, base.getDouble(0, 1L), 0.0);
+		assertNull(base.getInt(0, 1L));
+		assertEquals("same", base.<String>getObject(0, 1L));
+		// Only in one of the key frames
+		assertFalse(base.hasDouble(0, 2L));
+	}
+
+	@Test
+	public void testChangedOverSameBaseline() {
+		FrameColumns base = baseline(new ElementIndex());
+		FrameColumns shown = new FrameColumns(base);
+		FrameColumns next = new FrameColumns(base);
+		assertFalse(next.doubleChanged(shown, 0, 1L));
+		assertFalse(next.intChanged(shown, 0, 1L));
+		assertFalse(next.objectChanged(shown, 0, 1L));
+
+		next.setDouble(0, 1L, 2.0);
+		assertTrue(next.doubleChanged(shown, 0, 1L));
+		shown.setDouble(0, 1L, 2.0);
+		assertFalse(next.doubleChanged(shown, 0, 1L));
+
+		// A value cleared in one frame but inherited by the other
+		next.setColor(0, 1L, null);
+		assertTrue(next.intChanged(shown, 0, 1L));
+		assertTrue(shown.intChanged(next, 0, 1L));
+
+		// Over different baselines, the values themselves are compared
+		FrameColumns other = new FrameColumns(baseline(base.getIndex()));
+		assertFalse(other.objectChanged(new FrameColumns(base), 0, 1L));
+	}
+
+	private static byte[] digest(FrameColumns columns, long suid) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		columns.digest(out, suid);
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	@Test
+	public void testDigestOnlyDependsOnValues() throws IOException {
+		// The same element at a different position, in columns of a different size
+		// and over a baseline, as it would be in another session
+		ElementIndex index = new ElementIndex();
+		FrameColumns one = new FrameColumns(index, 1, 1, 1);
+		one.setDouble(0, 5L, 1.5);
+		one.setColor(0, 5L, Color.RED);
+		one.setObject(0, 5L, "label");
+
+		ElementIndex otherIndex = new ElementIndex();
+		FrameColumns base = new FrameColumns(otherIndex, 1, 1, 1);
+		for (long id = 100; id < 200; id++)
+			base.setDouble(0, id, 0.0);
+		base.setColor(0, 777L, Color.RED);
+		FrameColumns two = new FrameColumns(base);
+		two.setDouble(0, 777L, 1.5);
+		two.setObject(0, 777L, "label");
+
+		assertArrayEquals(digest(one, 5L), digest(two, 777L));
+
+		two.setObject(0, 777L, "other");
+		assertFalse(Arrays.equals(digest(one, 5L), digest(two, 777L)));
+	}
+
+	@Test
+	public void testStableString() {
+		assertEquals("null", FrameColumns.stableString(null));
+		assertEquals("label", FrameColumns.stableString("label"));
+		assertEquals(Color.RED.toString(), FrameColumns.stableString(Color.RED));
+		// No identity hash codes
+		assertEquals(Object.class.getName(), FrameColumns.stableString(new Object()));
+	}
+}
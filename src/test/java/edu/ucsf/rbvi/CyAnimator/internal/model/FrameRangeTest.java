@@ -0,0 +1,70 @@
+package edu.ucsf.rbvi.CyAnimator.internal.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class FrameRangeTest {
+	@Test
+	public void testAll() {
+		assertTrue(FrameRange.ALL.isComplete(100));
+		assertEquals(100, FrameRange.ALL.size(100));
+		assertEquals(0, FrameRange.ALL.size(0));
+		for (int i = 0; i < 100; i++) {
+			assertEquals(i, FrameRange.ALL.frameAt(i));
+			assertTrue(FrameRange.ALL.contains(i));
+		}
+	}
+
+	@Test
+	public void testStride() {
+		FrameRange range = new FrameRange(10, 20, 4);
+		assertFalse(range.isComplete(100));
+		// Frames 10, 14 and 18: the stride doesn't land on 20
+		assertEquals(3, range.size(100));
+		assertEquals(10, range.frameAt(0));
+		assertEquals(14, range.frameAt(1));
+		assertEquals(18, range.frameAt(2));
+		assertTrue(range.contains(14));
+		assertFalse(range.contains(15));
+		assertFalse(range.contains(6));
+		assertFalse(range.contains(22));
+		assertTrue(new FrameRange(10, 22, 4).contains(22));
+	}
+
+	@Test
+	public void testClippedToAnimation() {
+		FrameRange range = new FrameRange(5, 1000, 2);
+		// Frames 5, 7 and 9 of a 10 frame animation
+		assertEquals(3, range.size(10));
+		assertEquals(0, range.size(5));
+		assertEquals(1, range.size(6));
+		assertTrue(new FrameRange(0, 1000, 1).isComplete(10));
+		assertFalse(new FrameRange(0, 8, 1).isComplete(10));
+		assertFalse(new FrameRange(1, 1000, 1).isComplete(10));
+	}
+
+	@Test
+	public void testEquality() {
+		assertEquals(new FrameRange(3, 9, 2), new FrameRange(3, 9, 2));
+		assertEquals(new FrameRange(3, 9, 2).hashCode(), new FrameRange(3, 9, 2).hashCode());
+		assertFalse(new FrameRange(3, 9, 2).equals(new FrameRange(3, 9, 3)));
+		assertFalse(new FrameRange(3, 9, 2).equals(new FrameRange(3, 10, 2)));
+		assertEquals("3-9/2", new FrameRange(3, 9, 2).toString());
+	}
+
+	@Test
+	public void testInvalidRanges() {
+		int[][] invalid = { { -1, 5, 1 }, { 5, 4, 1 }, { 0, 5, 0 }, { 0, 5, -2 } };
+		for (int[] bounds: invalid) {
+			try {
+				new FrameRange(bounds[0], bounds[1], bounds[2]);
+				fail("Accepted "+bounds[0]+"-"+bounds[1]+"/"+bounds[2]);
+			} catch (IllegalArgumentException e) {
+			}
+		}
+	}
+}
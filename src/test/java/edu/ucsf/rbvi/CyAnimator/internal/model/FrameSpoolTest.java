@@ -0,0 +1,178 @@
+package edu.ucsf.rbvi.CyAnimator.internal.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FrameSpoolTest {
+	private File file;
+
+	@Before
+	public void createFile() throws IOException {
+		file = File.createTempFile("frames", ".spool");
+	}
+
+	@After
+	public void deleteFiles() {
+		file.delete();
+		new File(file.getPath() + ".idx").delete();
+	}
+
+	static BufferedImage frame(int type, int width, int height, int seed) {
+		BufferedImage image = new BufferedImage(width, height, type);
+		for (int y = 0; y < height; y++)
+			for (int x = 0; x < width; x++)
+				image.setRGB(x, y, 0xff000000 | (seed * 7919 + x * 31 + y * 1013) & 0xffffff);
+		return image;
+	}
+
+	static void assertSamePixels(BufferedImage expected, BufferedImage actual) {
+		assertEquals(expected.getWidth(), actual.getWidth());
+		assertEquals(expected.getHeight(), actual.getHeight());
+		for (int y = 0; y < expected.getHeight(); y++)
+			for (int x = 0; x < expected.getWidth(); x++)
+				assertEquals(expected.getRGB(x, y), actual.getRGB(x, y));
+	}
+
+	@Test
+	public void testFramesReadBack() throws IOException {
+		FrameSpool spool = new FrameSpool(file, 4);
+		BufferedImage[] frames = {
+			frame(BufferedImage.TYPE_INT_ARGB, 20, 10, 1),
+			frame(BufferedImage.TYPE_INT_RGB, 20, 10, 2),
+			frame(BufferedImage.TYPE_3BYTE_BGR, 20, 10, 3)
+		};
+		try {
+			for (int i = 0; i < frames.length; i++)
+				assertEquals(i, spool.append(frames[i]));
+			assertEquals(frames.length, spool.getFrameCount());
+			for (int i = frames.length-1; i >= 0; i--)
+				assertSamePixels(frames[i], spool.read(i));
+		} finally {
+			spool.delete();
+		}
+		assertFalse(file.exists());
+		assertFalse(new File(file.getPath() + ".idx").exists());
+	}
+
+	@Test
+	public void testAppendedImageCanBeReused() throws IOException {
+		FrameSpool spool = new FrameSpool(file, 2);
+		try {
+			BufferedImage image = frame(BufferedImage.TYPE_INT_ARGB, 16, 16, 1);
+			BufferedImage copy = frame(BufferedImage.TYPE_INT_ARGB, 16, 16, 1);
+			spool.append(image);
+			image.setRGB(0, 0, 0xffffffff);
+			spool.append(image);
+			assertSamePixels(copy, spool.read(0));
+			assertSamePixels(image, spool.read(1));
+		} finally {
+			spool.delete();
+		}
+	}
+
+	@Test
+	public void testSlotsAreReused() throws IOException {
+		FrameSpool spool = new FrameSpool(file, 3);
+		try {
+			for (int i = 0; i < 10; i++)
+				assertEquals(i, spool.append(frame(BufferedImage.TYPE_INT_ARGB, 8, 8, i)));
+			assertEquals(10, spool.getFrameCount());
+			// The file only ever holds three frames
+			assertEquals(3 * 4 * 8 * 8, file.length());
+			for (int i = 7; i < 10; i++)
+				assertSamePixels(frame(BufferedImage.TYPE_INT_ARGB, 8, 8, i), spool.read(i));
+			try {
+				spool.read(6);
+				fail("Read a frame whose slot has been reused");
+			} catch (IOException e) {
+			}
+
+			// and each slot is only mapped once
+			BufferedImage image = spool.read(7);
+			spool.append(frame(BufferedImage.TYPE_INT_ARGB, 8, 8, 10));
+			assertSame(image, spool.read(10));
+			assertSamePixels(frame(BufferedImage.TYPE_INT_ARGB, 8, 8, 10), image);
+		} finally {
+			spool.delete();
+		}
+	}
+
+	@Test
+	public void testFramesMustBeTheSameSize() throws IOException {
+		FrameSpool spool = new FrameSpool(file, 3);
+		try {
+			spool.append(frame(BufferedImage.TYPE_INT_ARGB, 8, 8, 1));
+			try {
+				spool.append(frame(BufferedImage.TYPE_INT_ARGB, 4, 16, 2));
+				fail("Appended a frame of another size");
+			} catch (IOException e) {
+			}
+			assertEquals(1, spool.getFrameCount());
+		} finally {
+			spool.delete();
+		}
+	}
+
+	@Test
+	public void testNewSpoolReplacesOldOne() throws IOException {
+		FrameSpool spool = new FrameSpool(file, 2);
+		spool.append(frame(BufferedImage.TYPE_INT_ARGB, 8, 8, 1));
+		spool.close();
+
+		spool = new FrameSpool(file, 2);
+		try {
+			assertEquals(0, spool.getFrameCount());
+			assertEquals(0, file.length());
+		} finally {
+			spool.delete();
+		}
+	}
+
+	@Test
+	public void testDurableFramesReadBack() throws IOException {
+		FrameSpool spool = new FrameSpool(file, false);
+		BufferedImage[] frames = {
+			frame(BufferedImage.TYPE_INT_ARGB, 20, 10, 1),
+			frame(BufferedImage.TYPE_INT_RGB, 7, 13, 2),
+			frame(BufferedImage.TYPE_3BYTE_BGR, 20, 10, 3)
+		};
+		try {
+			for (int i = 0; i < frames.length; i++)
+				assertEquals(i, spool.append(frames[i]));
+			for (int i = frames.length-1; i >= 0; i--)
+				assertSamePixels(frames[i], spool.read(i));
+		} finally {
+			spool.delete();
+		}
+		assertFalse(file.exists());
+		assertFalse(new File(file.getPath() + ".idx").exists());
+	}
+
+	@Test
+	public void testDurableSpoolIndexesFramesInBatches() throws IOException {
+		File indexFile = new File(file.getPath() + ".idx");
+		FrameSpool spool = new FrameSpool(file, false);
+		for (int i = 0; i < 40; i++)
+			spool.append(frame(BufferedImage.TYPE_INT_ARGB, 4, 4, i));
+		// Frames can be read before they're indexed
+		assertEquals(40, spool.getFrameCount());
+		assertSamePixels(frame(BufferedImage.TYPE_INT_ARGB, 4, 4, 39), spool.read(39));
+		assertEquals(32 * 16, indexFile.length());
+
+		spool.sync();
+		assertEquals(40 * 16, indexFile.length());
+		spool.append(frame(BufferedImage.TYPE_INT_ARGB, 4, 4, 40));
+		spool.close();
+		assertEquals(41 * 16, indexFile.length());
+	}
+}
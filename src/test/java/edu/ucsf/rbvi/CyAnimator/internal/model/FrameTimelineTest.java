@@ -0,0 +1,154 @@
+package edu.ucsf.rbvi.CyAnimator.internal.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class FrameTimelineTest {
+	/**
+	 * Makes segments of empty frames and records which segments were made.
+	 */
+	private static class CountingInterpolator extends Interpolator {
+		final List<CyFrame> made = new ArrayList<CyFrame>();
+		int partial = 0;
+
+		public CyFrame[] makeSegment(CyFrame frameOne, CyFrame frameTwo) {
+			return segment(frameOne, frameTwo, null);
+		}
+
+		public CyFrame[] makeSegment(CyFrame frameOne, CyFrame frameTwo, boolean[] wanted) {
+			partial++;
+			return segment(frameOne, frameTwo, wanted);
+		}
+
+		public CyFrame[][] makeSegments(CyFrame[] fromFrames, CyFrame[] toFrames) {
+			CyFrame[][] segments = new CyFrame[fromFrames.length][];
+			for (int i = 0; i < segments.length; i++)
+				segments[i] = segment(fromFrames[i], toFrames[i], null);
+			return segments;
+		}
+
+		private CyFrame[] segment(CyFrame frameOne, CyFrame frameTwo, boolean[] wanted) {
+			made.add(frameTwo);
+			CyFrame[] frames = new CyFrame[segmentLength(frameTwo)+1];
+			frames[0] = frameOne;
+			frames[frames.length-1] = frameTwo;
+			for (int k = 1; k < frames.length-1; k++) {
+				if (wanted == null || wanted[k])
+					frames[k] = new CyFrame(frameOne);
+			}
+			return frames;
+		}
+	}
+
+	@Test
+	public void testFrameCount() {
+		List<CyFrame> keyFrames = TestFrames.keyFrames(0, 10, 20);
+		FrameTimeline timeline = new FrameTimeline(new CountingInterpolator(), keyFrames, true);
+		assertEquals(31, timeline.getFrameCount());
+		assertSame(keyFrames.get(0), timeline.getFrame(0));
+		assertSame(keyFrames.get(1), timeline.getFrame(10));
+		assertSame(keyFrames.get(2), timeline.getFrame(30));
+	}
+
+	@Test
+	public void testLazySegmentsAreCached() {
+		List<CyFrame> keyFrames = TestFrames.keyFrames(0, 10, 10, 10);
+		CountingInterpolator interpolator = new CountingInterpolator();
+		FrameTimeline timeline = new FrameTimeline(interpolator, keyFrames, true);
+		assertEquals(0, interpolator.made.size());
+
+		CyFrame frame = timeline.getFrame(5);
+		assertSame(frame, timeline.getFrame(5));
+		timeline.getFrame(6);
+		assertEquals(1, interpolator.made.size());
+
+		// Only two segments are kept, so the first one has to be made again
+		timeline.getFrame(15);
+		timeline.getFrame(25);
+		assertEquals(3, interpolator.made.size());
+		timeline.getFrame(5);
+		assertEquals(4, interpolator.made.size());
+	}
+
+	@Test
+	public void testInsertedKeyFrameReusesOtherSegments() {
+		List<CyFrame> keyFrames = TestFrames.keyFrames(0, 10, 10, 10);
+		CountingInterpolator interpolator = new CountingInterpolator();
+		FrameTimeline previous = new FrameTimeline(interpolator, keyFrames, false);
+		assertEquals(3, interpolator.made.size());
+		CyFrame first = previous.getFrame(5);
+		CyFrame last = previous.getFrame(25);
+
+		// Insert a key frame in the middle segment
+		interpolator.made.clear();
+		List<CyFrame> edited = new ArrayList<CyFrame>(keyFrames);
+		CyFrame inserted = TestFrames.keyFrame(5);
+		edited.add(2, inserted);
+		FrameTimeline timeline = new FrameTimeline(interpolator, edited, false, previous);
+
+		assertEquals(2, interpolator.made.size());
+		assertSame(inserted, interpolator.made.get(0));
+		assertSame(keyFrames.get(2), interpolator.made.get(1));
+		assertSame(first, timeline.getFrame(5));
+		assertSame(last, timeline.getFrame(30));
+	}
+
+	@Test
+	public void testChangedFrameCountRemakesSegment() {
+		List<CyFrame> keyFrames = TestFrames.keyFrames(0, 10, 10);
+		CountingInterpolator interpolator = new CountingInterpolator();
+		FrameTimeline previous = new FrameTimeline(interpolator, keyFrames, false);
+		CyFrame first = previous.getFrame(5);
+
+		interpolator.made.clear();
+		keyFrames.get(2).setInterCount(20);
+		FrameTimeline timeline = new FrameTimeline(interpolator, keyFrames, false, previous);
+
+		assertEquals(1, interpolator.made.size());
+		assertSame(keyFrames.get(2), interpolator.made.get(0));
+		assertSame(first, timeline.getFrame(5));
+		assertEquals(31, timeline.getFrameCount());
+	}
+
+	@Test
+	public void testLazyTimelineReusesCachedSegments() {
+		List<CyFrame> keyFrames = TestFrames.keyFrames(0, 10, 10);
+		CountingInterpolator interpolator = new CountingInterpolator();
+		FrameTimeline previous = new FrameTimeline(interpolator, keyFrames, true);
+		CyFrame frame = previous.getFrame(5);
+
+		interpolator.made.clear();
+		List<CyFrame> edited = new ArrayList<CyFrame>(keyFrames);
+		edited.add(TestFrames.keyFrame(10));
+		FrameTimeline timeline = new FrameTimeline(interpolator, edited, true, previous);
+		assertSame(frame, timeline.getFrame(5));
+		assertEquals(0, interpolator.made.size());
+	}
+
+	@Test
+	public void testRangeOnlyMakesWantedFrames() {
+		List<CyFrame> keyFrames = TestFrames.keyFrames(0, 10);
+		CountingInterpolator interpolator = new CountingInterpolator();
+		FrameTimeline timeline = new FrameTimeline(interpolator, keyFrames, true);
+		FrameRange range = new FrameRange(0, 10, 4);
+
+		CyFrame frame = timeline.getFrame(4, range);
+		assertNotNull(frame);
+		assertSame(frame, timeline.getFrame(4, range));
+		assertNotNull(timeline.getFrame(8, range));
+		assertEquals(1, interpolator.partial);
+
+		// The incomplete segment isn't used for playback
+		CyFrame played = timeline.getFrame(4);
+		assertNotSame(frame, played);
+		assertNotNull(timeline.getFrame(5));
+		assertEquals(2, interpolator.made.size());
+	}
+}
@@ -0,0 +1,143 @@
+package edu.ucsf.rbvi.CyAnimator.internal.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageInputStream;
+
+import org.junit.Test;
+import org.w3c.dom.Node;
+
+public class GifAnimationWriterTest {
+	private static final int WIDTH = 40, HEIGHT = 30;
+
+	private static BufferedImage frame(int squareX) {
+		BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = image.createGraphics();
+		g.setColor(new Color(250, 250, 240));
+		g.fillRect(0, 0, WIDTH, HEIGHT);
+		g.setColor(new Color(200, 30, 40));
+		g.fillRect(squareX, 10, 8, 8);
+		g.setColor(new Color(20, 90, 200));
+		g.fillOval(25, 2, 10, 10);
+		g.dispose();
+		return image;
+	}
+
+	/** Returns the color a pixel is drawn with once it has been through the palette */
+	private static int paletteColor(GifPalette palette, int rgb) {
+		byte[] table = palette.getColorTable();
+		int i = (palette.indexOf(rgb) & 0xff) * 3;
+		return 0xff000000 | (table[i] & 0xff) << 16 | (table[i+1] & 0xff) << 8 | (table[i+2] & 0xff);
+	}
+
+	@Test
+	public void testPaletteKeepsFewColors() {
+		GifPalette.Builder builder = new GifPalette.Builder();
+		builder.addSample(frame(2));
+		GifPalette palette = builder.build();
+
+		int[] colors = { new Color(250, 250, 240).getRGB(), new Color(200, 30, 40).getRGB(),
+		                 new Color(20, 90, 200).getRGB() };
+		for (int rgb: colors) {
+			assertTrue(palette.indexOf(rgb) != GifPalette.TRANSPARENT);
+			Color mapped = new Color(paletteColor(palette, rgb));
+			Color original = new Color(rgb);
+			assertTrue(Math.abs(mapped.getRed() - original.getRed()) < 8);
+			assertTrue(Math.abs(mapped.getGreen() - original.getGreen()) < 8);
+			assertTrue(Math.abs(mapped.getBlue() - original.getBlue()) < 8);
+		}
+		// Different colors stay different
+		assertTrue(palette.indexOf(colors[0]) != palette.indexOf(colors[1]));
+		assertTrue(palette.indexOf(colors[1]) != palette.indexOf(colors[2]));
+	}
+
+	@Test
+	public void testPaletteNeverUsesTransparentIndex() {
+		GifPalette.Builder builder = new GifPalette.Builder();
+		BufferedImage image = new BufferedImage(256, 128, BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < image.getHeight(); y++)
+			for (int x = 0; x < image.getWidth(); x++)
+				image.setRGB(x, y, (x << 16) | (y*2 << 8) | ((x+y) & 0xff));
+		builder.addSample(image);
+		GifPalette palette = builder.build();
+		for (int rgb = 0; rgb < 0x1000000; rgb += 0x010307)
+			assertTrue(palette.indexOf(rgb) != GifPalette.TRANSPARENT);
+	}
+
+	@Test
+	public void testAnimationReadsBack() throws IOException {
+		BufferedImage[] frames = { frame(2), frame(2), frame(12) };
+		GifPalette.Builder builder = new GifPalette.Builder();
+		for (BufferedImage frame: frames)
+			builder.addSample(frame);
+		GifPalette palette = builder.build();
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		GifAnimationWriter writer = new GifAnimationWriter(bytes, WIDTH, HEIGHT, palette, 10.0, true);
+		for (BufferedImage frame: frames)
+			writer.writeFrame(frame);
+		writer.close();
+
+		ImageReader reader = ImageIO.getImageReadersByFormatName("gif").next();
+		ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		reader.setInput(in);
+		try {
+			// The repeated frame just keeps the first one up twice as long
+			assertEquals(2, reader.getNumImages(true));
+			assertEquals(20, delay(reader, 0));
+			assertEquals(10, delay(reader, 1));
+
+			// The first frame is the whole image
+			BufferedImage first = reader.read(0);
+			assertEquals(WIDTH, first.getWidth());
+			assertEquals(HEIGHT, first.getHeight());
+			for (int y = 0; y < HEIGHT; y++)
+				for (int x = 0; x < WIDTH; x++)
+					assertEquals(paletteColor(palette, frames[0].getRGB(x, y)), first.getRGB(x, y));
+
+			// The second only covers what changed, and is transparent where nothing did
+			BufferedImage second = reader.read(1);
+			IIOMetadataNode descriptor = child(reader, 1, "ImageDescriptor");
+			int left = Integer.parseInt(descriptor.getAttribute("imageLeftPosition"));
+			int top = Integer.parseInt(descriptor.getAttribute("imageTopPosition"));
+			assertTrue(second.getWidth() < WIDTH);
+			for (int y = 0; y < second.getHeight(); y++) {
+				for (int x = 0; x < second.getWidth(); x++) {
+					int rgb = second.getRGB(x, y);
+					int expected = frames[2].getRGB(x+left, y+top);
+					if ((rgb >>> 24) == 0)
+						assertEquals(frames[0].getRGB(x+left, y+top), expected);
+					else
+						assertEquals(paletteColor(palette, expected), rgb);
+				}
+			}
+		} finally {
+			reader.dispose();
+			in.close();
+		}
+	}
+
+	private static int delay(ImageReader reader, int index) throws IOException {
+		return Integer.parseInt(child(reader, index, "GraphicControlExtension").getAttribute("delayTime"));
+	}
+
+	private static IIOMetadataNode child(ImageReader reader, int index, String name) throws IOException {
+		Node root = reader.getImageMetadata(index).getAsTree("javax_imageio_gif_image_1.0");
+		for (Node node = root.getFirstChild(); node != null; node = node.getNextSibling()) {
+			if (node.getNodeName().equals(name))
+				return (IIOMetadataNode)node;
+		}
+		throw new AssertionError("No "+name+" in frame "+index);
+	}
+}
@@ -0,0 +1,146 @@
+package edu.ucsf.rbvi.CyAnimator.internal.model;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class GifLzwEncoderTest {
+	/**
+	 * Decompresses what the encoder wrote: the minimum code size, the data
+	 * sub-blocks and the block terminator.
+	 */
+	static byte[] decode(byte[] encoded) {
+		int minCodeSize = encoded[0];
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		int p = 1;
+		while (encoded[p] != 0) {
+			int length = encoded[p] & 0xff;
+			data.write(encoded, p+1, length);
+			p += length+1;
+		}
+		assertEquals("Data after the block terminator", encoded.length, p+1);
+		byte[] bits = data.toByteArray();
+
+		int clearCode = 1 << minCodeSize;
+		int eofCode = clearCode + 1;
+		int[] prefix = new int[4096];
+		byte[] suffix = new byte[4096];
+		int[] length = new int[4096];
+		for (int i = 0; i < clearCode; i++) {
+			suffix[i] = (byte)i;
+			length[i] = 1;
+		}
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		int codeSize = minCodeSize+1;
+		int next = eofCode+1;
+		int previous = -1;
+		int accum = 0, accumBits = 0, pos = 0;
+		while (true) {
+			while (accumBits < codeSize) {
+				accum |= (bits[pos++] & 0xff) << accumBits;
+				accumBits += 8;
+			}
+			int code = accum & ((1 << codeSize) - 1);
+			accum >>>= codeSize;
+			accumBits -= codeSize;
+
+			if (code == clearCode) {
+				codeSize = minCodeSize+1;
+				next = eofCode+1;
+				previous = -1;
+				continue;
+			}
+			if (code == eofCode)
+				break;
+
+			byte[] string;
+			if (code < next) {
+				string = string(code, prefix, suffix, length);
+				if (previous >= 0 && next < 4096) {
+					prefix[next] = previous;
+					suffix[next] = string[0];
+					length[next] = length[previous]+1;
+					next++;
+				}
+			} else {
+				// The code being defined right now: the previous string plus its first byte
+				assertEquals(next, code);
+				byte[] start = string(previous, prefix, suffix, length);
+				prefix[next] = previous;
+				suffix[next] = start[0];
+				length[next] = length[previous]+1;
+				next++;
+				string = string(code, prefix, suffix, length);
+			}
+			out.write(string, 0, string.length);
+			previous = code;
+			if (next == (1 << codeSize) && codeSize < 12)
+				codeSize++;
+		}
+		return out.toByteArray();
+	}
+
+	private static byte[] string(int code, int[] prefix, byte[] suffix, int[] length) {
+		byte[] string = new byte[length[code]];
+		for (int i = string.length-1; i >= 0; i--) {
+			string[i] = suffix[code];
+			code = prefix[code];
+		}
+		return string;
+	}
+
+	private static void assertRoundTrip(byte[] pixels, int colorDepth) {
+		byte[] encoded = new GifLzwEncoder().encode(pixels, colorDepth);
+		assertEquals(Math.max(2, colorDepth), encoded[0]);
+		assertArrayEquals(pixels, decode(encoded));
+	}
+
+	@Test
+	public void testEmpty() {
+		assertRoundTrip(new byte[0], 8);
+	}
+
+	@Test
+	public void testSinglePixel() {
+		assertRoundTrip(new byte[] { 5 }, 8);
+		assertRoundTrip(new byte[] { 1 }, 1);
+	}
+
+	@Test
+	public void testRuns() {
+		// Long runs build long strings, and the table fills up and is cleared
+		byte[] pixels = new byte[200000];
+		for (int i = 0; i < pixels.length; i++)
+			pixels[i] = (byte)((i / 37) % 7);
+		assertRoundTrip(pixels, 8);
+	}
+
+	@Test
+	public void testNoise() {
+		Random random = new Random(42);
+		byte[] pixels = new byte[100000];
+		random.nextBytes(pixels);
+		assertRoundTrip(pixels, 8);
+
+		for (int i = 0; i < pixels.length; i++)
+			pixels[i] &= 3;
+		assertRoundTrip(pixels, 2);
+	}
+
+	@Test
+	public void testEncoderIsReusable() {
+		GifLzwEncoder encoder = new GifLzwEncoder();
+		byte[] first = new byte[5000];
+		new Random(1).nextBytes(first);
+		byte[] second = new byte[300];
+		for (int i = 0; i < second.length; i++)
+			second[i] = (byte)(i % 3);
+		assertArrayEquals(first, decode(encoder.encode(first, 8)));
+		assertArrayEquals(second, decode(encoder.encode(second, 8)));
+	}
+}
@@ -0,0 +1,147 @@
+package edu.ucsf.rbvi.CyAnimator.internal.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+
+import javax.imageio.ImageIO;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MjpegAviWriterTest {
+	private static final int WIDTH = 32, HEIGHT = 16;
+
+	private File output;
+
+	@Before
+	public void createFile() throws IOException {
+		output = File.createTempFile("mjpeg", ".avi");
+	}
+
+	@After
+	public void deleteFile() {
+		output.delete();
+	}
+
+	private static BufferedImage frame(int i) {
+		BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = image.createGraphics();
+		g.setColor(new Color(i*40 % 256, 100, 200));
+		g.fillRect(0, 0, WIDTH, HEIGHT);
+		g.dispose();
+		return image;
+	}
+
+	private ByteBuffer read() throws IOException {
+		return ByteBuffer.wrap(Files.readAllBytes(output.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private static String fourCC(ByteBuffer buffer, int offset) {
+		StringBuilder code = new StringBuilder();
+		for (int i = 0; i < 4; i++)
+			code.append((char)buffer.get(offset+i));
+		return code.toString();
+	}
+
+	/**
+	 * Checks the chunks of a file written by the writer, and returns the number of
+	 * frames in it.
+	 */
+	private static int checkLayout(ByteBuffer avi) throws IOException {
+		assertEquals("RIFF", fourCC(avi, 0));
+		assertEquals(avi.limit() - 8, avi.getInt(4));
+		assertEquals("AVI ", fourCC(avi, 8));
+		assertEquals("LIST", fourCC(avi, 12));
+		assertEquals("hdrl", fourCC(avi, 20));
+		// The hdrl list runs up to the movi list
+		assertEquals(212, 20 + avi.getInt(16));
+
+		assertEquals("avih", fourCC(avi, 24));
+		int frames = avi.getInt(48);
+		assertEquals(WIDTH, avi.getInt(64));
+		assertEquals(HEIGHT, avi.getInt(68));
+
+		assertEquals("strl", fourCC(avi, 96));
+		assertEquals("strh", fourCC(avi, 100));
+		assertEquals("vids", fourCC(avi, 108));
+		assertEquals("MJPG", fourCC(avi, 112));
+		assertEquals(frames, avi.getInt(140));
+		assertEquals("strf", fourCC(avi, 164));
+		assertEquals(WIDTH, avi.getInt(176));
+		assertEquals(HEIGHT, avi.getInt(180));
+
+		assertEquals("LIST", fourCC(avi, 212));
+		assertEquals("movi", fourCC(avi, 220));
+		int moviEnd = 220 + avi.getInt(216);
+
+		// The index follows the movi list, and points at every frame in it
+		assertEquals("idx1", fourCC(avi, moviEnd));
+		assertEquals(16 * frames, avi.getInt(moviEnd+4));
+		assertEquals(avi.limit(), moviEnd + 8 + 16*frames);
+		int largest = 0;
+		for (int i = 0; i < frames; i++) {
+			int entry = moviEnd + 8 + 16*i;
+			assertEquals("00dc", fourCC(avi, entry));
+			int chunk = 220 + avi.getInt(entry+8);
+			int size = avi.getInt(entry+12);
+			assertEquals("00dc", fourCC(avi, chunk));
+			assertEquals(size, avi.getInt(chunk+4));
+			assertTrue(chunk + 8 + size <= moviEnd);
+			largest = Math.max(largest, size);
+
+			byte[] jpeg = new byte[size];
+			((ByteBuffer)avi.duplicate().position(chunk+8)).get(jpeg);
+			BufferedImage image = ImageIO.read(new ByteArrayInputStream(jpeg));
+			assertEquals(WIDTH, image.getWidth());
+			assertEquals(HEIGHT, image.getHeight());
+		}
+		assertEquals(largest + 8, avi.getInt(60));
+		return frames;
+	}
+
+	@Test
+	public void testHeaderLayout() throws IOException {
+		MjpegAviWriter writer = new MjpegAviWriter(output, 25.0, 0.8f);
+		for (int i = 0; i < 5; i++)
+			writer.addFrame(frame(i));
+		writer.close();
+
+		ByteBuffer avi = read();
+		assertEquals(5, checkLayout(avi));
+		// 25 frames per second
+		assertEquals(40000, avi.getInt(32));
+		assertEquals(1000, avi.getInt(128));
+		assertEquals(25000, avi.getInt(132));
+	}
+
+	@Test
+	public void testStopsAtSizeLimit() throws IOException {
+		MjpegAviWriter writer = new MjpegAviWriter(output, 10.0, 0.8f, 4000);
+		int written = 0;
+		try {
+			for (; written < 1000; written++)
+				writer.addFrame(frame(written));
+			fail("The writer went past its size limit");
+		} catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("AVI"));
+		}
+		writer.close();
+
+		ByteBuffer avi = read();
+		assertTrue(written > 0);
+		assertTrue(avi.limit() <= 4000);
+		assertEquals(written, checkLayout(avi));
+	}
+}
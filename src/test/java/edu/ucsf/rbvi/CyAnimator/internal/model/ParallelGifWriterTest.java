@@ -0,0 +1,97 @@
+package edu.ucsf.rbvi.CyAnimator.internal.model;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+public class ParallelGifWriterTest {
+	private static final int WIDTH = 48, HEIGHT = 32;
+	// Where the square is in each frame; repeats are frames that don't change
+	private static final int[] SQUARE_X = { 2, 2, 10, 10, 10, 18, 2, 30, 30, 22, 14, 14, 6, 38, 38, 2 };
+
+	private static void draw(BufferedImage image, int squareX) {
+		Graphics2D g = image.createGraphics();
+		g.setColor(new Color(250, 250, 240));
+		g.fillRect(0, 0, WIDTH, HEIGHT);
+		g.setColor(new Color(200, 30, 40));
+		g.fillRect(squareX, 12, 8, 8);
+		g.setColor(new Color(20, 90, 200));
+		g.fillOval(30, 2, 10, 10);
+		g.dispose();
+	}
+
+	private static GifPalette palette() {
+		BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+		draw(image, 2);
+		GifPalette.Builder builder = new GifPalette.Builder();
+		builder.addSample(image);
+		return builder.build();
+	}
+
+	private static byte[] writeSequentially(GifPalette palette) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		GifAnimationWriter writer = new GifAnimationWriter(out, WIDTH, HEIGHT, palette, 10, true);
+		BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+		for (int x: SQUARE_X) {
+			draw(image, x);
+			writer.writeFrame(image);
+		}
+		writer.close();
+		return out.toByteArray();
+	}
+
+	private static byte[] writeInParallel(GifPalette palette, ExecutorService executor, int maxPending)
+			throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		GifAnimationWriter writer = new GifAnimationWriter(out, WIDTH, HEIGHT, palette, 10, true);
+		ParallelGifWriter parallel = new ParallelGifWriter(writer, WIDTH, HEIGHT, palette, executor, maxPending);
+		// The same image is drawn into for every frame, since it may be reused as
+		// soon as writeFrame() returns
+		BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+		for (int x: SQUARE_X) {
+			draw(image, x);
+			parallel.writeFrame(image);
+		}
+		parallel.finish();
+		writer.close();
+		return out.toByteArray();
+	}
+
+	@Test(timeout = 30000)
+	public void testSameOutputAsSequentialWriter() throws IOException {
+		GifPalette palette = palette();
+		byte[] expected = writeSequentially(palette);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			for (int maxPending = 1; maxPending <= SQUARE_X.length+1; maxPending++)
+				assertArrayEquals("maxPending "+maxPending, expected,
+				                  writeInParallel(palette, executor, maxPending));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test(timeout = 30000)
+	public void testSingleThread() throws IOException {
+		// With one thread, every frame is encoded after the one before it has been
+		// written, so the recycled pixel arrays are reused as soon as possible
+		GifPalette palette = palette();
+		byte[] expected = writeSequentially(palette);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			for (int maxPending = 1; maxPending <= 4; maxPending++)
+				assertArrayEquals("maxPending "+maxPending, expected,
+				                  writeInParallel(palette, executor, maxPending));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
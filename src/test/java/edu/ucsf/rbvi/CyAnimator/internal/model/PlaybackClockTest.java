@@ -0,0 +1,91 @@
+package edu.ucsf.rbvi.CyAnimator.internal.model;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class PlaybackClockTest {
+	// A clock that only moves when it's told to
+	private static class ManualTime implements PlaybackClock.TimeSource {
+		long nanos = 1000000000L;
+
+		public long nanoTime() {
+			return nanos;
+		}
+
+		void advanceMillis(long millis) {
+			nanos += millis * 1000000L;
+		}
+	}
+
+	@Test
+	public void testStoppedClockStandsStill() {
+		ManualTime time = new ManualTime();
+		PlaybackClock clock = new PlaybackClock(1000.0, time);
+		assertEquals(0, clock.currentFrame());
+		time.advanceMillis(20);
+		assertEquals(0, clock.currentFrame());
+	}
+
+	@Test
+	public void testFollowsTheClock() {
+		ManualTime time = new ManualTime();
+		PlaybackClock clock = new PlaybackClock(1000.0, time);
+		clock.start(100);
+		assertEquals(100, clock.currentFrame());
+		time.advanceMillis(50);
+		assertEquals(150, clock.currentFrame());
+
+		// Stopping keeps the frame that was due
+		clock.stop();
+		time.advanceMillis(20);
+		assertEquals(150, clock.currentFrame());
+
+		// and starting again carries on from the given frame
+		clock.start(150);
+		time.advanceMillis(10);
+		assertEquals(160, clock.currentFrame());
+	}
+
+	@Test
+	public void testRateChangeDoesntJump() {
+		ManualTime time = new ManualTime();
+		PlaybackClock clock = new PlaybackClock(1000.0, time);
+		clock.start(0);
+		time.advanceMillis(30);
+		assertEquals(30, clock.currentFrame());
+
+		clock.setRate(100.0);
+		assertEquals(30, clock.currentFrame());
+		time.advanceMillis(50);
+		assertEquals(35, clock.currentFrame());
+
+		clock.setRate(0.0);
+		time.advanceMillis(20);
+		assertEquals(35, clock.currentFrame());
+		assertEquals(0.0, clock.getRate(), 0.0);
+	}
+
+	@Test
+	public void testDroppedFrames() {
+		PlaybackClock clock = new PlaybackClock(10.0);
+		clock.start(5);
+		clock.frameShown(5);
+		clock.frameShown(6);
+		assertEquals(0, clock.getDroppedFrames());
+
+		// Frames 7 to 9 weren't ready in time
+		clock.frameShown(10);
+		assertEquals(3, clock.getDroppedFrames());
+		clock.frameShown(11);
+		assertEquals(3, clock.getDroppedFrames());
+
+		// Restarting doesn't count the frames before the new start as dropped
+		clock.stop();
+		clock.start(50);
+		clock.frameShown(50);
+		assertEquals(3, clock.getDroppedFrames());
+		clock.frameShown(52);
+		assertEquals(4, clock.getDroppedFrames());
+	}
+}
@@ -0,0 +1,161 @@
+package edu.ucsf.rbvi.CyAnimator.internal.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RecordingCheckpointTest {
+	private File directory;
+
+	@Before
+	public void createDirectory() throws IOException {
+		directory = Files.createTempDirectory("recording").toFile();
+	}
+
+	@After
+	public void deleteDirectory() {
+		delete(directory);
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child: children)
+				delete(child);
+		}
+		file.delete();
+	}
+
+	private static BufferedImage frame(int seed) {
+		return FrameSpoolTest.frame(BufferedImage.TYPE_INT_ARGB, 6, 5, seed);
+	}
+
+	@Test
+	public void testSpoolResumes() throws IOException {
+		File file = new File(directory, "frames.spool");
+		FrameSpool spool = new FrameSpool(file, false);
+		for (int i = 0; i < 5; i++)
+			spool.append(frame(i));
+		spool.close();
+
+		spool = new FrameSpool(file, true);
+		try {
+			assertEquals(5, spool.getFrameCount());
+			for (int i = 0; i < 5; i++)
+				FrameSpoolTest.assertSamePixels(frame(i), spool.read(i));
+			assertEquals(5, spool.append(frame(5)));
+			FrameSpoolTest.assertSamePixels(frame(5), spool.read(5));
+		} finally {
+			spool.close();
+		}
+
+		spool = new FrameSpool(file, true);
+		try {
+			assertEquals(6, spool.getFrameCount());
+		} finally {
+			spool.close();
+		}
+	}
+
+	@Test
+	public void testIncompleteFramesAreCutOff() throws IOException {
+		File file = new File(directory, "frames.spool");
+		File indexFile = new File(file.getPath() + ".idx");
+		FrameSpool spool = new FrameSpool(file, false);
+		for (int i = 0; i < 4; i++)
+			spool.append(frame(i));
+		spool.close();
+
+		// The last frame was only partly written, and so was another index entry
+		RandomAccessFile access = new RandomAccessFile(file, "rw");
+		access.setLength(access.length() - 10);
+		access.close();
+		access = new RandomAccessFile(indexFile, "rw");
+		access.seek(access.length());
+		access.write(new byte[7]);
+		access.close();
+
+		spool = new FrameSpool(file, true);
+		try {
+			assertEquals(3, spool.getFrameCount());
+			assertEquals(3 * 4 * 6 * 5, file.length());
+			assertEquals(3 * 16, indexFile.length());
+			for (int i = 0; i < 3; i++)
+				FrameSpoolTest.assertSamePixels(frame(i), spool.read(i));
+			assertEquals(3, spool.append(frame(7)));
+		} finally {
+			spool.close();
+		}
+	}
+
+	@Test
+	public void testCrashKeepsSyncedFrames() throws IOException {
+		File file = new File(directory, "frames.spool");
+		FrameSpool spool = new FrameSpool(file, false);
+		for (int i = 0; i < 40; i++)
+			spool.append(frame(i));
+
+		// What a crash right now would leave behind
+		File copy = new File(directory, "copy.spool");
+		Files.copy(file.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		Files.copy(new File(file.getPath() + ".idx").toPath(), new File(copy.getPath() + ".idx").toPath(),
+		           StandardCopyOption.REPLACE_EXISTING);
+		spool.close();
+
+		FrameSpool resumed = new FrameSpool(copy, true);
+		try {
+			assertEquals(32, resumed.getFrameCount());
+			FrameSpoolTest.assertSamePixels(frame(31), resumed.read(31));
+		} finally {
+			resumed.close();
+		}
+	}
+
+	@Test
+	public void testCheckpointKeepsFramesOfSameRecording() throws IOException {
+		RecordingCheckpoint checkpoint = new RecordingCheckpoint(directory, "hash", 10);
+		FrameSpool spool = checkpoint.openSpool();
+		assertEquals(0, spool.getFrameCount());
+		for (int i = 0; i < 3; i++)
+			spool.append(frame(i));
+		checkpoint.suspend();
+
+		checkpoint = new RecordingCheckpoint(directory, "hash", 10);
+		spool = checkpoint.openSpool();
+		assertEquals(3, spool.getFrameCount());
+		FrameSpoolTest.assertSamePixels(frame(2), spool.read(2));
+		checkpoint.suspend();
+
+		// Another recording starts afresh
+		checkpoint = new RecordingCheckpoint(directory, "other", 10);
+		spool = checkpoint.openSpool();
+		assertEquals(0, spool.getFrameCount());
+		spool.append(frame(0));
+		checkpoint.suspend();
+
+		checkpoint = new RecordingCheckpoint(directory, "hash", 10);
+		assertEquals(0, checkpoint.openSpool().getFrameCount());
+		checkpoint.suspend();
+	}
+
+	@Test
+	public void testCompleteRemovesCheckpoint() throws IOException {
+		RecordingCheckpoint checkpoint = new RecordingCheckpoint(directory, "hash", 10);
+		checkpoint.openSpool().append(frame(0));
+		File checkpointDirectory = new File(directory, RecordingCheckpoint.DIRECTORY);
+		assertTrue(checkpointDirectory.isDirectory());
+		checkpoint.complete();
+		assertFalse(checkpointDirectory.exists());
+	}
+}
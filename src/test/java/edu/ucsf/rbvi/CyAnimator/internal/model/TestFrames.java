@@ -0,0 +1,110 @@
+package edu.ucsf.rbvi.CyAnimator.internal.model;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.cytoscape.service.util.CyServiceRegistrar;
+
+/**
+ * Makes key frames without Cytoscape.  The services, the current network and its
+ * view are stand-ins: collections come back empty, visual properties come back as
+ * 0.0 and any other interface comes back as another stand-in.  The frames have no
+ * nodes, edges or annotations, which is all the timeline tests need.
+ */
+class TestFrames {
+	private static final CyServiceRegistrar registrar = stub(CyServiceRegistrar.class);
+
+	/**
+	 * Returns a new, empty key frame.
+	 *
+	 * @param interCount the number of frames the segment ending at this key frame adds
+	 * @return the key frame
+	 */
+	static CyFrame keyFrame(int interCount) {
+		CyFrame frame = new CyFrame(registrar);
+		frame.setInterCount(interCount);
+		return frame;
+	}
+
+	/**
+	 * Returns a list of new, empty key frames.
+	 *
+	 * @param interCounts the interCount of each key frame
+	 * @return the key frames
+	 */
+	static List<CyFrame> keyFrames(int... interCounts) {
+		List<CyFrame> frames = new ArrayList<CyFrame>();
+		for (int interCount: interCounts)
+			frames.add(keyFrame(interCount));
+		return frames;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T stub(Class<T> type) {
+		return (T)Proxy.newProxyInstance(TestFrames.class.getClassLoader(), new Class<?>[] { type }, new Stub());
+	}
+
+	private static class Stub implements InvocationHandler {
+		// The same stand-in is returned every time a method is called, so that for
+		// example every frame sees the same current network
+		private final Map<Method, Object> results = new HashMap<Method, Object>();
+
+		public synchronized Object invoke(Object proxy, Method method, Object[] args) {
+			String name = method.getName();
+			if (name.equals("equals"))
+				return proxy == args[0];
+			if (name.equals("hashCode"))
+				return System.identityHashCode(proxy);
+			if (name.equals("toString"))
+				return "stub";
+			if (name.equals("getService"))
+				return service((Class<?>)args[0]);
+			if (name.equals("getVisualProperty"))
+				return 0.0;
+
+			if (results.containsKey(method))
+				return results.get(method);
+			Object result = defaultResult(method.getReturnType());
+			results.put(method, result);
+			return result;
+		}
+
+		private final Map<Class<?>, Object> services = new HashMap<Class<?>, Object>();
+
+		private Object service(Class<?> type) {
+			Object service = services.get(type);
+			if (service == null) {
+				service = stub(type);
+				services.put(type, service);
+			}
+			return service;
+		}
+
+		private static Object defaultResult(Class<?> type) {
+			if (type == boolean.class)
+				return false;
+			if (type == int.class)
+				return 0;
+			if (type == long.class)
+				return 0L;
+			if (type == double.class)
+				return 0.0;
+			if (type.isAssignableFrom(ArrayList.class))
+				return new ArrayList<Object>();
+			if (type.isAssignableFrom(HashSet.class))
+				return new HashSet<Object>();
+			if (type.isAssignableFrom(HashMap.class))
+				return new HashMap<Object, Object>();
+			if (type.isInterface())
+				return stub(type);
+			return null;
+		}
+	}
+}